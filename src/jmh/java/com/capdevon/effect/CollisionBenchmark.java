@@ -0,0 +1,113 @@
+package com.capdevon.effect;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.capdevon.effect.collision.HeightfieldCollider;
+import com.capdevon.effect.collision.OrientedBoxCollider;
+import com.capdevon.effect.collision.PlaneCollider;
+import com.capdevon.effect.collision.SceneCollider;
+import com.capdevon.effect.collision.SphereCollider;
+import com.jme3.effect.ParticleMesh;
+import com.jme3.math.Quaternion;
+import com.jme3.math.Vector3f;
+import com.jme3.scene.Geometry;
+import com.jme3.scene.Node;
+import com.jme3.scene.shape.Box;
+
+/**
+ * Measures one simulation step of {@link MyParticleEmitter} with particles
+ * resting on a collider: none, a plane, an oriented box, a heightfield, a
+ * box mesh through the budgeted raycasts of a {@link SceneCollider}, or a
+ * sphere far from the particles that the broadphase skips.
+ *
+ * @author capdevon
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CollisionBenchmark {
+
+    public enum Collider {
+        None, Plane, OrientedBox, Heightfield, Scene, Culled
+    }
+
+    private static final int NUM_PARTICLES = 10000;
+
+    @Param({"None", "Plane", "OrientedBox", "Heightfield", "Scene", "Culled"})
+    private Collider collider;
+
+    private MyParticleEmitter emitter;
+
+    @Setup
+    public void setup() {
+        emitter = new MyParticleEmitter("Emitter", ParticleMesh.Type.Triangle, NUM_PARTICLES);
+        emitter.setParticlesPerSec(0);
+        emitter.setLowLife(1e6f);
+        emitter.setHighLife(1e6f);
+        emitter.setGravity(0, 9.81f, 0);
+        emitter.setParallelThreshold(Integer.MAX_VALUE);
+
+        switch (collider) {
+            case Plane:
+                emitter.addCollider(new PlaneCollider(Vector3f.UNIT_Y, new Vector3f()));
+                break;
+            case OrientedBox:
+                emitter.addCollider(new OrientedBoxCollider(new Vector3f(0, -1, 0), new Vector3f(50, 1, 50),
+                        new Quaternion().fromAngles(0.01f, 0, 0.01f)));
+                break;
+            case Heightfield:
+                int size = 129;
+                float[] heights = new float[size * size];
+                for (int i = 0; i < heights.length; i++) {
+                    heights[i] = (float) Math.sin(i * 0.1) * 0.1f;
+                }
+                emitter.addCollider(new HeightfieldCollider(heights, size, new Vector3f(), new Vector3f(1, 1, 1)));
+                break;
+            case Scene:
+                Geometry floor = new Geometry("Floor", new Box(50, 1, 50));
+                floor.setLocalTranslation(0, -1, 0);
+                floor.updateGeometricState();
+                SceneCollider sceneCollider = new SceneCollider();
+                sceneCollider.addGeometry(floor);
+                emitter.addCollider(sceneCollider);
+                break;
+            case Culled:
+                emitter.addCollider(new SphereCollider(new Vector3f(1000, 0, 0), 1));
+                break;
+            default:
+                break;
+        }
+
+        Node rootNode = new Node("Root");
+        rootNode.attachChild(emitter);
+        rootNode.updateGeometricState();
+
+        emitter.emitParticles(NUM_PARTICLES);
+        // let the particles land
+        for (int i = 0; i < 120; i++) {
+            emitter.updateFromControl(1 / 60f);
+        }
+    }
+
+    @Benchmark
+    public int updateFromControl() {
+        emitter.updateFromControl(1 / 60f);
+        return emitter.getParticleData().aliveCount();
+    }
+
+}
@@ -0,0 +1,97 @@
+package com.capdevon.effect;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.capdevon.effect.shapes.EmitterMeshFaceVFX;
+import com.jme3.effect.ParticleMesh;
+import com.jme3.effect.influencers.NewtonianParticleInfluencer;
+import com.jme3.effect.shapes.EmitterSphereShape;
+import com.jme3.math.FastMath;
+import com.jme3.math.Quaternion;
+import com.jme3.math.Vector3f;
+import com.jme3.scene.Node;
+import com.jme3.scene.shape.Sphere;
+
+/**
+ * Measures an explosion: a whole burst of particles spawned in a single
+ * call, by an emitter that is moved, rotated and scaled in the world.
+ *
+ * @author capdevon
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EmitterBurstBenchmark {
+
+    public enum Source {
+        /** An engine shape, sampled through the batch adapter. */
+        SphereShape,
+        /** A batch shape. */
+        MeshFace,
+        /** A batch shape and the Newtonian influencer, positions and normals. */
+        MeshFaceNewtonian
+    }
+
+    @Param({"1000", "5000"})
+    private int burst;
+
+    @Param
+    private Source source;
+
+    private MyParticleEmitter emitter;
+
+    @Setup
+    public void setup() {
+        emitter = new MyParticleEmitter("Emitter", ParticleMesh.Type.Triangle, burst);
+        emitter.setParticlesPerSec(0);
+        emitter.setRandomAngle(true);
+        emitter.setRotateSpeed(1f);
+        emitter.getParticleInfluencer().setInitialVelocity(new Vector3f(0, 1, 0));
+        emitter.getParticleInfluencer().setVelocityVariation(0.5f);
+
+        switch (source) {
+            case SphereShape:
+                emitter.setShape(new EmitterSphereShape(Vector3f.ZERO, 1f));
+                break;
+            case MeshFace:
+                emitter.setShape(new EmitterMeshFaceVFX(new Sphere(32, 32, 1f)));
+                break;
+            case MeshFaceNewtonian:
+                NewtonianParticleInfluencer influencer = new NewtonianParticleInfluencer();
+                influencer.setNormalVelocity(2f);
+                emitter.setParticleInfluencer(influencer);
+                emitter.setShape(new EmitterMeshFaceVFX(new Sphere(32, 32, 1f)));
+                break;
+        }
+
+        Node rootNode = new Node("Root");
+        rootNode.attachChild(emitter);
+        rootNode.setLocalTranslation(10, 0, 0);
+        rootNode.setLocalScale(2f);
+        rootNode.setLocalRotation(new Quaternion().fromAngleAxis(FastMath.HALF_PI, Vector3f.UNIT_Z));
+        rootNode.updateGeometricState();
+    }
+
+    @Benchmark
+    public int emitBurst() {
+        emitter.killAllParticles();
+        emitter.emitParticles(burst);
+        return emitter.getParticleData().aliveCount();
+    }
+
+}
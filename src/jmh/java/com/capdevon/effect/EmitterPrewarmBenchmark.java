@@ -0,0 +1,71 @@
+package com.capdevon.effect;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.jme3.effect.ParticleMesh;
+import com.jme3.effect.shapes.EmitterSphereShape;
+import com.jme3.math.Vector3f;
+import com.jme3.scene.Node;
+
+/**
+ * Measures the prewarm of a level full of ambient emitters (smoke columns
+ * of about 400 live particles each), as done when the level is loaded.
+ *
+ * @author capdevon
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EmitterPrewarmBenchmark {
+
+    @Param({"100", "300"})
+    private int numEmitters;
+
+    private MyParticleEmitter[] emitters;
+
+    @Setup
+    public void setup() {
+        Node rootNode = new Node("Root");
+        emitters = new MyParticleEmitter[numEmitters];
+        for (int i = 0; i < numEmitters; i++) {
+            MyParticleEmitter emitter = new MyParticleEmitter("Emitter", ParticleMesh.Type.Triangle, 1000);
+            emitter.setShape(new EmitterSphereShape(Vector3f.ZERO, 0.5f));
+            emitter.getParticleInfluencer().setInitialVelocity(new Vector3f(0, 2f, 0));
+            emitter.getParticleInfluencer().setVelocityVariation(0.3f);
+            emitter.setLowLife(2f);
+            emitter.setHighLife(6f);
+            emitter.setParticlesPerSec(100);
+            emitter.setLocalTranslation(i, 0, 0);
+            emitters[i] = emitter;
+            rootNode.attachChild(emitter);
+        }
+        rootNode.updateGeometricState();
+    }
+
+    @Benchmark
+    public int prewarm() {
+        int count = 0;
+        for (MyParticleEmitter emitter : emitters) {
+            emitter.killAllParticles();
+            emitter.prewarm(10f);
+            count += emitter.getNumVisibleParticles();
+        }
+        return count;
+    }
+
+}
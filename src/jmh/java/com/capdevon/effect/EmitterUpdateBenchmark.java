@@ -0,0 +1,75 @@
+package com.capdevon.effect;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.jme3.effect.ParticleMesh;
+import com.jme3.scene.Node;
+
+/**
+ * Measures one simulation step of {@link MyParticleEmitter} at several
+ * capacities and occupancies.
+ * <p>
+ * The particles live long enough to never die during the run and no new
+ * particles are spawned, so every invocation updates the same number of
+ * particles.
+ *
+ * @author capdevon
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EmitterUpdateBenchmark {
+
+    @Param({"1000", "10000", "100000"})
+    private int capacity;
+
+    /**
+     * The fraction of the capacity that is alive.
+     */
+    @Param({"0.1", "0.5", "1.0"})
+    private float occupancy;
+
+    @Param({"false", "true"})
+    private boolean parallel;
+
+    private MyParticleEmitter emitter;
+
+    @Setup
+    public void setup() {
+        emitter = new MyParticleEmitter("Emitter", ParticleMesh.Type.Triangle, capacity);
+        emitter.setParticlesPerSec(0);
+        emitter.setLowLife(1e6f);
+        emitter.setHighLife(1e6f);
+        emitter.setRandomAngle(true);
+        emitter.setRotateSpeed(1f);
+        emitter.setParallelThreshold(parallel ? 0 : Integer.MAX_VALUE);
+
+        Node rootNode = new Node("Root");
+        rootNode.attachChild(emitter);
+        rootNode.updateGeometricState();
+
+        emitter.emitParticles((int) (capacity * occupancy));
+    }
+
+    @Benchmark
+    public int updateFromControl() {
+        emitter.updateFromControl(1 / 60f);
+        return emitter.getParticleData().aliveCount();
+    }
+
+}
@@ -0,0 +1,114 @@
+package com.capdevon.effect;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.capdevon.effect.influencers.CompositeInfluencer;
+import com.capdevon.effect.influencers.GradientColorInfluencer;
+import com.jme3.effect.Particle;
+import com.jme3.effect.influencers.DefaultParticleInfluencer;
+import com.jme3.effect.shapes.EmitterPointShape;
+import com.jme3.effect.shapes.EmitterShape;
+import com.jme3.math.ColorRGBA;
+import com.jme3.math.FastMath;
+import com.jme3.math.Vector3f;
+
+/**
+ * Measures the cost per particle of the color influencers.
+ *
+ * @author capdevon
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class InfluencerBenchmark {
+
+    private static final int NUM_PARTICLES = 1024;
+
+    private final Particle[] particles = new Particle[NUM_PARTICLES];
+    private final ParticleData data = new ParticleData(NUM_PARTICLES);
+    private final EmitterShape shape = new EmitterPointShape(Vector3f.ZERO);
+
+    private GradientColorInfluencer gradient;
+    private CompositeInfluencer composite;
+
+    @Setup
+    public void setup() {
+        // the particles are spread over their whole lifetime
+        for (int i = 0; i < NUM_PARTICLES; i++) {
+            Particle p = new Particle();
+            p.startlife = 2f;
+            p.life = FastMath.nextRandomFloat() * p.startlife;
+            particles[i] = p;
+        }
+        data.add(NUM_PARTICLES);
+        for (int i = 0; i < NUM_PARTICLES; i++) {
+            data.set(i, particles[i]);
+        }
+
+        gradient = new GradientColorInfluencer(ColorRGBA.Yellow, ColorRGBA.Red, 0.2f, 0.8f);
+        composite = new CompositeInfluencer(
+                new GradientColorInfluencer(ColorRGBA.Yellow, ColorRGBA.Red, 0.2f, 0.8f),
+                new DefaultParticleInfluencer());
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(NUM_PARTICLES)
+    public Particle[] gradientColor() {
+        for (Particle p : particles) {
+            gradient.influenceParticle(p, shape);
+        }
+        return particles;
+    }
+
+    /**
+     * The color pass of the emitter with the baked gradient: one lookup per
+     * particle, straight into the packed colors.
+     */
+    @Benchmark
+    @OperationsPerInvocation(NUM_PARTICLES)
+    public int[] gradientColorTable() {
+        gradient.influenceColors(data, 0, NUM_PARTICLES);
+        return data.color;
+    }
+
+    /**
+     * The color pass of the emitter through a {@link Particle} copy, as for
+     * the influencers that don't work on batches.
+     */
+    @Benchmark
+    @OperationsPerInvocation(NUM_PARTICLES)
+    public int[] gradientColorCopy() {
+        Particle p = new Particle();
+        for (int i = 0; i < NUM_PARTICLES; i++) {
+            data.get(i, p);
+            gradient.influenceParticle(p, shape);
+            data.set(i, p);
+        }
+        return data.color;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(NUM_PARTICLES)
+    public Particle[] composite() {
+        for (Particle p : particles) {
+            composite.influenceParticle(p, shape);
+        }
+        return particles;
+    }
+
+}
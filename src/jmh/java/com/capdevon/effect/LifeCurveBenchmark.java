@@ -0,0 +1,115 @@
+package com.capdevon.effect;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.capdevon.effect.influencers.InfluencerPipeline;
+import com.jme3.effect.Particle;
+import com.jme3.effect.ParticleMesh;
+import com.jme3.effect.influencers.EmptyParticleInfluencer;
+import com.jme3.effect.shapes.EmitterShape;
+import com.jme3.scene.Node;
+
+/**
+ * Measures one simulation step of {@link MyParticleEmitter} with properties
+ * that vary over the life of the particles: none, the same curves sampled
+ * by the update loop, or the same curves evaluated by custom influencers.
+ *
+ * @author capdevon
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LifeCurveBenchmark {
+
+    public enum Source {
+        None, Curves, Influencers
+    }
+
+    private static final int NUM_PARTICLES = 10000;
+
+    @Param({"None", "Curves", "Influencers"})
+    private Source source;
+
+    private MyParticleEmitter emitter;
+
+    @Setup
+    public void setup() {
+        emitter = new MyParticleEmitter("Emitter", ParticleMesh.Type.Triangle, NUM_PARTICLES);
+        emitter.setParticlesPerSec(0);
+        emitter.setLowLife(1e6f);
+        emitter.setHighLife(1e6f);
+        emitter.setRandomAngle(true);
+        emitter.setRotateSpeed(1f);
+        emitter.setParallelThreshold(Integer.MAX_VALUE);
+
+        LifeCurve size = new LifeCurve().addKey(0, 0.1f, 0, 4).addKey(0.2f, 1f).addKey(1, 2f, 0, 0);
+        LifeCurve alpha = new LifeCurve().addKey(0, 0).addKey(0.1f, 1).addKey(0.7f, 1).addKey(1, 0);
+        if (source == Source.Curves) {
+            emitter.setSizeCurve(size);
+            emitter.setAlphaCurve(alpha);
+        } else if (source == Source.Influencers) {
+            emitter.setInfluencerPipeline(new InfluencerPipeline()
+                    .addInfluencer(InfluencerPipeline.Stage.Update, new CurveInfluencer(size, false))
+                    .addInfluencer(InfluencerPipeline.Stage.Update, new CurveInfluencer(alpha, true)));
+        }
+
+        Node rootNode = new Node("Root");
+        rootNode.attachChild(emitter);
+        rootNode.updateGeometricState();
+
+        emitter.emitParticles(NUM_PARTICLES);
+        // spread the particles over their life
+        ParticleData d = emitter.getParticleData();
+        for (int i = 0; i < d.aliveCount(); i++) {
+            d.life[i] = d.startLife[i] * (i + 1) / (d.aliveCount() + 1);
+        }
+    }
+
+    @Benchmark
+    public int updateFromControl() {
+        emitter.updateFromControl(1 / 60f);
+        return emitter.getParticleData().aliveCount();
+    }
+
+    /**
+     * A custom influencer that evaluates a curve for each particle, the way
+     * effects did before the emitter had curves.
+     */
+    private static class CurveInfluencer extends EmptyParticleInfluencer {
+
+        private final LifeCurve curve;
+        private final boolean alpha;
+
+        CurveInfluencer(LifeCurve curve, boolean alpha) {
+            this.curve = curve;
+            this.alpha = alpha;
+        }
+
+        @Override
+        public void influenceParticle(Particle particle, EmitterShape emitterShape) {
+            float b = (particle.startlife - particle.life) / particle.startlife;
+            float value = curve.evaluate(b);
+            if (alpha) {
+                particle.color.a = value;
+            } else {
+                particle.size = value;
+            }
+        }
+    }
+
+}
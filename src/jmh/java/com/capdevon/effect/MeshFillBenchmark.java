@@ -0,0 +1,106 @@
+package com.capdevon.effect;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.jme3.effect.ParticleMesh;
+import com.jme3.math.Matrix3f;
+import com.jme3.math.Vector3f;
+import com.jme3.renderer.Camera;
+import com.jme3.scene.Node;
+
+/**
+ * Measures how long {@link PointMesh} and {@link TriangleMesh} take to fill
+ * their vertex buffers, in each of the billboard modes of the emitter.
+ *
+ * @author capdevon
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MeshFillBenchmark {
+
+    public enum Billboard {
+        /** The quads face the camera. */
+        Camera,
+        /** The quads face the camera and rotate. */
+        Angle,
+        /** The quads are aligned to the face normal and rotate. */
+        FaceNormal,
+        /** The quads follow the velocity of the particles. */
+        FacingVelocity
+    }
+
+    @Param({"Point", "Triangle"})
+    private ParticleMesh.Type meshType;
+
+    @Param({"Camera", "Angle", "FaceNormal", "FacingVelocity"})
+    private Billboard billboard;
+
+    @Param({"10000"})
+    private int numParticles;
+
+    private MyParticleEmitter emitter;
+    private MyParticleMesh mesh;
+    private Camera cam;
+
+    @Setup
+    public void setup() {
+        emitter = new MyParticleEmitter("Emitter", meshType, numParticles);
+        emitter.setParticlesPerSec(0);
+        emitter.setLowLife(1e6f);
+        emitter.setHighLife(1e6f);
+        emitter.setImagesX(2);
+        emitter.setImagesY(2);
+        emitter.setSelectRandomImage(true);
+
+        switch (billboard) {
+            case Angle:
+                emitter.setRandomAngle(true);
+                break;
+            case FaceNormal:
+                emitter.setRandomAngle(true);
+                emitter.setFaceNormal(Vector3f.UNIT_Y);
+                break;
+            case FacingVelocity:
+                emitter.setFacingVelocity(true);
+                break;
+            default:
+                break;
+        }
+
+        Node rootNode = new Node("Root");
+        rootNode.attachChild(emitter);
+        rootNode.updateGeometricState();
+
+        emitter.emitAllParticles();
+
+        cam = new Camera(1280, 720);
+        cam.setFrustumPerspective(45f, 1280f / 720f, 0.1f, 1000f);
+        cam.setLocation(new Vector3f(0, 5, 20));
+        cam.lookAt(Vector3f.ZERO, Vector3f.UNIT_Y);
+
+        mesh = (MyParticleMesh) emitter.getMesh();
+    }
+
+    @Benchmark
+    public MyParticleMesh updateParticleData() {
+        mesh.updateParticleData(emitter.getParticleData(), cam, Matrix3f.IDENTITY);
+        return mesh;
+    }
+
+}
@@ -0,0 +1,82 @@
+package com.capdevon.effect;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.capdevon.effect.fields.VectorFieldSpec;
+import com.capdevon.effect.influencers.InfluencerPipeline;
+import com.capdevon.effect.influencers.VectorFieldInfluencer;
+import com.jme3.effect.ParticleMesh;
+import com.jme3.math.Quaternion;
+import com.jme3.math.Transform;
+import com.jme3.math.Vector3f;
+import com.jme3.scene.Node;
+
+/**
+ * Measures one simulation step of {@link MyParticleEmitter} with a
+ * {@link VectorFieldInfluencer}: none, a uniform wind, or a curl-noise
+ * turbulence sampled from its baked grid.
+ *
+ * @author capdevon
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class VectorFieldBenchmark {
+
+    public enum Field {
+        None, Uniform, CurlNoise
+    }
+
+    private static final int NUM_PARTICLES = 10000;
+
+    @Param({"None", "Uniform", "CurlNoise"})
+    private Field field;
+
+    private MyParticleEmitter emitter;
+
+    @Setup
+    public void setup() {
+        emitter = new MyParticleEmitter("Emitter", ParticleMesh.Type.Triangle, NUM_PARTICLES);
+        emitter.setParticlesPerSec(0);
+        emitter.setLowLife(1e6f);
+        emitter.setHighLife(1e6f);
+        emitter.setParallelThreshold(Integer.MAX_VALUE);
+
+        Transform volume = new Transform(new Vector3f(), new Quaternion(), new Vector3f(8, 8, 8));
+        if (field == Field.Uniform) {
+            emitter.setInfluencerPipeline(new InfluencerPipeline().addInfluencer(InfluencerPipeline.Stage.Update,
+                    new VectorFieldInfluencer(VectorFieldSpec.uniform(), volume, 1f)));
+        } else if (field == Field.CurlNoise) {
+            emitter.setInfluencerPipeline(new InfluencerPipeline().addInfluencer(InfluencerPipeline.Stage.Update,
+                    new VectorFieldInfluencer(VectorFieldSpec.curlNoise(32, 4, 2, 0), volume, 1f)));
+        }
+
+        Node rootNode = new Node("Root");
+        rootNode.attachChild(emitter);
+        rootNode.updateGeometricState();
+
+        emitter.emitParticles(NUM_PARTICLES);
+    }
+
+    @Benchmark
+    public int updateFromControl() {
+        emitter.updateFromControl(1 / 60f);
+        return emitter.getParticleData().aliveCount();
+    }
+
+}
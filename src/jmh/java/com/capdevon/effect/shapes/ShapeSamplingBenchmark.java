@@ -0,0 +1,107 @@
+package com.capdevon.effect.shapes;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.capdevon.effect.ParticleRandom;
+import com.jme3.math.Vector3f;
+import com.jme3.scene.Mesh;
+import com.jme3.scene.shape.Sphere;
+
+/**
+ * Measures the sampling of random points on large meshes with
+ * {@link EmitterMeshFaceVFX} and {@link EmitterMeshVertexVFX}, one point at
+ * a time from {@link com.jme3.math.FastMath} and in batches from a
+ * {@link ParticleRandom}. The batch scores are per point.
+ *
+ * @author capdevon
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ShapeSamplingBenchmark {
+
+    private static final int BATCH_SIZE = 1024;
+
+    /**
+     * The number of samples and radial samples of the sphere: 64 gives about
+     * 8k triangles, 256 about 130k.
+     */
+    @Param({"64", "256"})
+    private int segments;
+
+    private final Vector3f store = new Vector3f();
+    private final Vector3f normal = new Vector3f();
+    private final ParticleRandom random = new ParticleRandom(42);
+    private final float[] x = new float[BATCH_SIZE];
+    private final float[] y = new float[BATCH_SIZE];
+    private final float[] z = new float[BATCH_SIZE];
+    private final float[] nx = new float[BATCH_SIZE];
+    private final float[] ny = new float[BATCH_SIZE];
+    private final float[] nz = new float[BATCH_SIZE];
+
+    private EmitterMeshFaceVFX faceShape;
+    private EmitterMeshVertexVFX vertexShape;
+
+    @Setup
+    public void setup() {
+        Mesh mesh = new Sphere(segments, segments, 1f);
+        faceShape = new EmitterMeshFaceVFX(mesh);
+        vertexShape = new EmitterMeshVertexVFX(mesh);
+    }
+
+    @Benchmark
+    public Vector3f faceRandomPoint() {
+        faceShape.getRandomPoint(store);
+        return store;
+    }
+
+    @Benchmark
+    public Vector3f vertexRandomPoint() {
+        vertexShape.getRandomPoint(store);
+        return store;
+    }
+
+    @Benchmark
+    public Vector3f vertexRandomPointAndNormal() {
+        vertexShape.getRandomPointAndNormal(store, normal);
+        return normal;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    public float[] faceRandomPoints() {
+        faceShape.getRandomPoints(random, x, y, z, 0, BATCH_SIZE);
+        return x;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    public float[] faceRandomPointsAndNormals() {
+        faceShape.getRandomPointsAndNormals(random, x, y, z, nx, ny, nz, 0, BATCH_SIZE);
+        return nx;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    public float[] vertexRandomPoints() {
+        vertexShape.getRandomPoints(random, x, y, z, 0, BATCH_SIZE);
+        return x;
+    }
+
+}
@@ -0,0 +1,334 @@
+package com.capdevon.effect;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import com.jme3.export.InputCapsule;
+import com.jme3.export.JmeExporter;
+import com.jme3.export.JmeImporter;
+import com.jme3.export.OutputCapsule;
+import com.jme3.export.Savable;
+import com.jme3.util.clone.Cloner;
+import com.jme3.util.clone.JmeCloneable;
+
+/**
+ * A declarative emission program for a {@link MyParticleEmitter}: an
+ * emission rate that varies over the duration of the effect, and timed
+ * bursts, played once or in a loop.
+ * <p>
+ * The rate is a piecewise linear curve through the keys added with
+ * {@link #addRateKey(float, float)}, held constant before the first key
+ * and after the last one. Without keys, the emitter keeps its own
+ * {@link MyParticleEmitter#getParticlesPerSec() rate}. A burst emits a
+ * number of particles at once, at a given time and optionally again every
+ * <code>interval</code> seconds.
+ * <p>
+ * The schedule is evaluated by the emitter during its update, so an
+ * explosion or a pulsing effect needs no control of its own.
+ *
+ * @author capdevon
+ */
+public class EmissionSchedule implements Savable, JmeCloneable {
+
+    private float duration = 5f;
+    private boolean looping = true;
+    private float[] rateTimes = new float[0];
+    private float[] rates = new float[0];
+    private ArrayList<Burst> bursts = new ArrayList<>();
+
+    /**
+     * For serialization only. Do not use.
+     */
+    protected EmissionSchedule() {
+    }
+
+    /**
+     * Instantiate an EmissionSchedule.
+     *
+     * @param duration the duration of one cycle of the effect (in seconds,
+     * &gt;0)
+     * @param looping  true to start over at the end, false to stop emitting
+     */
+    public EmissionSchedule(float duration, boolean looping) {
+        setDuration(duration);
+        this.looping = looping;
+    }
+
+    public float getDuration() {
+        return duration;
+    }
+
+    /**
+     * Sets the duration of one cycle of the effect.
+     *
+     * @param duration the duration (in seconds, &gt;0)
+     */
+    public void setDuration(float duration) {
+        if (!(duration > 0)) {
+            throw new IllegalArgumentException("duration must be positive: " + duration);
+        }
+        this.duration = duration;
+    }
+
+    public boolean isLooping() {
+        return looping;
+    }
+
+    public void setLooping(boolean looping) {
+        this.looping = looping;
+    }
+
+    /**
+     * Adds a key to the rate curve, replacing the key at the same time if
+     * any.
+     *
+     * @param time the time of the key (in seconds since the cycle start)
+     * @param rate the number of particles per second at that time (&ge;0)
+     * @return this schedule
+     */
+    public EmissionSchedule addRateKey(float time, float rate) {
+        int index = Arrays.binarySearch(rateTimes, time);
+        if (index >= 0) {
+            rates[index] = rate;
+            return this;
+        }
+        index = -index - 1;
+        rateTimes = insert(rateTimes, index, time);
+        rates = insert(rates, index, rate);
+        return this;
+    }
+
+    private static float[] insert(float[] array, int index, float value) {
+        float[] result = new float[array.length + 1];
+        System.arraycopy(array, 0, result, 0, index);
+        result[index] = value;
+        System.arraycopy(array, index, result, index + 1, array.length - index);
+        return result;
+    }
+
+    /**
+     * Removes all the keys of the rate curve, the emitter goes back to its
+     * own rate.
+     */
+    public void clearRateKeys() {
+        rateTimes = new float[0];
+        rates = new float[0];
+    }
+
+    /**
+     * Returns true if the rate curve has at least one key.
+     *
+     * @return true if the schedule controls the rate
+     */
+    public boolean hasRateCurve() {
+        return rateTimes.length > 0;
+    }
+
+    /**
+     * Returns the emission rate at the given time of the cycle.
+     *
+     * @param time the time (in seconds since the cycle start)
+     * @return the number of particles per second
+     */
+    public float getRate(float time) {
+        int n = rateTimes.length;
+        if (n == 0) {
+            return 0;
+        }
+        if (time <= rateTimes[0]) {
+            return rates[0];
+        }
+        if (time >= rateTimes[n - 1]) {
+            return rates[n - 1];
+        }
+        int i = 1;
+        while (rateTimes[i] < time) {
+            i++;
+        }
+        float t = (time - rateTimes[i - 1]) / (rateTimes[i] - rateTimes[i - 1]);
+        return rates[i - 1] + (rates[i] - rates[i - 1]) * t;
+    }
+
+    /**
+     * Returns the number of particles emitted by the rate curve between two
+     * times of the cycle: the area under the curve, summed segment by
+     * segment between the keys, which is exact for a piecewise-linear curve.
+     *
+     * @param start the start time (in seconds since the cycle start)
+     * @param end   the end time (in seconds since the cycle start, &ge;start)
+     * @return the number of particles (&ge;0)
+     */
+    public float integrateRate(float start, float end) {
+        if (rateTimes.length == 0 || !(end > start)) {
+            return 0;
+        }
+        float area = 0;
+        float time = start;
+        float rate = getRate(start);
+        for (int i = 0; i < rateTimes.length; i++) {
+            float key = rateTimes[i];
+            if (key > start && key < end) {
+                area += 0.5f * (rate + rates[i]) * (key - time);
+                time = key;
+                rate = rates[i];
+            }
+        }
+        area += 0.5f * (rate + getRate(end)) * (end - time);
+        return area;
+    }
+
+    /**
+     * Adds a burst that fires once.
+     *
+     * @param time  the time of the burst (in seconds since the cycle start,
+     * up to the duration included)
+     * @param count the number of particles
+     * @return this schedule
+     */
+    public EmissionSchedule addBurst(float time, int count) {
+        return addBurst(time, count, 1, 0);
+    }
+
+    /**
+     * Adds a repeated burst.
+     *
+     * @param time     the time of the first burst (in seconds since the
+     * cycle start, up to the duration included)
+     * @param count    the number of particles of each burst
+     * @param cycles   the number of bursts, 0 to repeat until the end of the
+     * cycle
+     * @param interval the time between two bursts (in seconds, &gt;0 if
+     * there are several cycles)
+     * @return this schedule
+     */
+    public EmissionSchedule addBurst(float time, int count, int cycles, float interval) {
+        bursts.add(new Burst(time, count, cycles, interval));
+        return this;
+    }
+
+    public int getNumBursts() {
+        return bursts.size();
+    }
+
+    public Burst getBurst(int index) {
+        return bursts.get(index);
+    }
+
+    public void removeBurst(int index) {
+        bursts.remove(index);
+    }
+
+    @Override
+    public Object jmeClone() {
+        try {
+            return super.clone();
+        } catch (CloneNotSupportedException ex) {
+            throw new AssertionError();
+        }
+    }
+
+    @Override
+    public void cloneFields(Cloner cloner, Object original) {
+        // the bursts are immutable
+        rateTimes = rateTimes.clone();
+        rates = rates.clone();
+        bursts = new ArrayList<>(bursts);
+    }
+
+    @Override
+    public void write(JmeExporter ex) throws IOException {
+        OutputCapsule oc = ex.getCapsule(this);
+        oc.write(duration, "duration", 5f);
+        oc.write(looping, "looping", true);
+        oc.write(rateTimes, "rateTimes", null);
+        oc.write(rates, "rates", null);
+        oc.writeSavableArrayList(bursts, "bursts", null);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public void read(JmeImporter im) throws IOException {
+        InputCapsule ic = im.getCapsule(this);
+        duration = ic.readFloat("duration", 5f);
+        looping = ic.readBoolean("looping", true);
+        rateTimes = ic.readFloatArray("rateTimes", new float[0]);
+        rates = ic.readFloatArray("rates", new float[0]);
+        bursts = ic.readSavableArrayList("bursts", new ArrayList<>());
+    }
+
+    @Override
+    public String toString() {
+        return "EmissionSchedule [Duration=" + duration
+                + ", Looping=" + looping
+                + ", RateKeys=" + rateTimes.length
+                + ", Bursts=" + bursts.size()
+                + "]";
+    }
+
+    /**
+     * A number of particles emitted at once, possibly repeated. Immutable.
+     */
+    public static class Burst implements Savable {
+
+        private float time;
+        private int count;
+        private int cycles = 1;
+        private float interval;
+
+        /**
+         * For serialization only. Do not use.
+         */
+        protected Burst() {
+        }
+
+        private Burst(float time, int count, int cycles, float interval) {
+            if (cycles != 1 && !(interval > 0)) {
+                throw new IllegalArgumentException("repeated burst needs a positive interval: " + interval);
+            }
+            this.time = time;
+            this.count = count;
+            this.cycles = cycles;
+            this.interval = interval;
+        }
+
+        public float getTime() {
+            return time;
+        }
+
+        public int getCount() {
+            return count;
+        }
+
+        /**
+         * @return the number of bursts, 0 to repeat until the end of the
+         * cycle
+         */
+        public int getCycles() {
+            return cycles;
+        }
+
+        public float getInterval() {
+            return interval;
+        }
+
+        @Override
+        public void write(JmeExporter ex) throws IOException {
+            OutputCapsule oc = ex.getCapsule(this);
+            oc.write(time, "time", 0);
+            oc.write(count, "count", 0);
+            oc.write(cycles, "cycles", 1);
+            oc.write(interval, "interval", 0);
+        }
+
+        @Override
+        public void read(JmeImporter im) throws IOException {
+            InputCapsule ic = im.getCapsule(this);
+            time = ic.readFloat("time", 0);
+            count = ic.readInt("count", 0);
+            cycles = ic.readInt("cycles", 1);
+            interval = ic.readFloat("interval", 0);
+        }
+    }
+
+}
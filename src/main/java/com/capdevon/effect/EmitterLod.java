@@ -0,0 +1,226 @@
+package com.capdevon.effect;
+
+import java.io.IOException;
+import java.util.ArrayList;
+
+import com.jme3.export.InputCapsule;
+import com.jme3.export.JmeExporter;
+import com.jme3.export.JmeImporter;
+import com.jme3.export.OutputCapsule;
+import com.jme3.export.Savable;
+import com.jme3.util.clone.Cloner;
+import com.jme3.util.clone.JmeCloneable;
+
+/**
+ * Levels of detail of a {@link MyParticleEmitter}: the further the emitter
+ * from the camera, or the smaller on screen, the fewer particles it spawns
+ * and simulates.
+ * <p>
+ * Each level applies from a threshold of the chosen {@link Metric}: a
+ * distance from which it is used, or a screen size under which it is used.
+ * A level scales the emission rate (and the bursts of an
+ * {@link EmissionSchedule}), caps the number of live particles, and caps
+ * the number of influencers run by a
+ * {@link com.capdevon.effect.influencers.CompositeInfluencer} or by each
+ * stage of an {@link com.capdevon.effect.influencers.InfluencerPipeline}
+ * (the first ones are kept, so put the essential ones first). Closer than
+ * the first level, the emitter runs at full detail.
+ * <p>
+ * The metric is measured when the emitter is rendered; an emitter that is
+ * culled keeps its last level.
+ *
+ * @author capdevon
+ */
+public class EmitterLod implements Savable, JmeCloneable {
+
+    /**
+     * What the level thresholds are compared to.
+     */
+    public enum Metric {
+        /**
+         * The distance between the camera and the center of the particles,
+         * in world units. A level applies from its threshold on.
+         */
+        Distance,
+        /**
+         * The projected diameter of the particle bounds, as a fraction of
+         * the screen height. A level applies under its threshold. An
+         * emitter without live particles keeps its level, so a level that
+         * stops the emission should rather be keyed on the distance.
+         */
+        ScreenSize
+    }
+
+    private Metric metric = Metric.Distance;
+    private ArrayList<Level> levels = new ArrayList<>();
+
+    /**
+     * For serialization only. Do not use.
+     */
+    protected EmitterLod() {
+    }
+
+    /**
+     * Instantiate an EmitterLod without levels.
+     *
+     * @param metric what the level thresholds are compared to (not null)
+     */
+    public EmitterLod(Metric metric) {
+        this.metric = metric;
+    }
+
+    public Metric getMetric() {
+        return metric;
+    }
+
+    /**
+     * Adds a level of detail. The levels are kept sorted from the most to
+     * the least detailed.
+     *
+     * @param threshold      the distance from which the level applies, or
+     * the screen size under which it applies
+     * @param rateScale      the factor applied to the emission rate (0-1)
+     * @param maxParticles   the maximum number of live particles
+     * @param maxInfluencers the maximum number of influencers run by a
+     * composite influencer
+     * @return this
+     */
+    public EmitterLod addLevel(float threshold, float rateScale, int maxParticles, int maxInfluencers) {
+        Level level = new Level(threshold, rateScale, maxParticles, maxInfluencers);
+        int index = 0;
+        while (index < levels.size() && isBefore(levels.get(index).threshold, threshold)) {
+            index++;
+        }
+        levels.add(index, level);
+        return this;
+    }
+
+    private boolean isBefore(float a, float b) {
+        return (metric == Metric.Distance) ? a <= b : a >= b;
+    }
+
+    public int getNumLevels() {
+        return levels.size();
+    }
+
+    public Level getLevel(int index) {
+        return levels.get(index);
+    }
+
+    public void removeLevel(int index) {
+        levels.remove(index);
+    }
+
+    /**
+     * Returns the level to use for the given measure.
+     *
+     * @param value the distance or the screen size
+     * @return the index of the level, or -1 for full detail
+     */
+    public int selectLevel(float value) {
+        int selected = -1;
+        for (int i = 0; i < levels.size(); i++) {
+            float threshold = levels.get(i).threshold;
+            boolean applies = (metric == Metric.Distance) ? value >= threshold : value <= threshold;
+            if (!applies) {
+                break;
+            }
+            selected = i;
+        }
+        return selected;
+    }
+
+    @Override
+    public Object jmeClone() {
+        try {
+            return super.clone();
+        } catch (CloneNotSupportedException ex) {
+            throw new AssertionError();
+        }
+    }
+
+    @Override
+    public void cloneFields(Cloner cloner, Object original) {
+        // the levels are immutable
+        levels = new ArrayList<>(levels);
+    }
+
+    @Override
+    public void write(JmeExporter ex) throws IOException {
+        OutputCapsule oc = ex.getCapsule(this);
+        oc.write(metric, "metric", Metric.Distance);
+        oc.writeSavableArrayList(levels, "levels", null);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public void read(JmeImporter im) throws IOException {
+        InputCapsule ic = im.getCapsule(this);
+        metric = ic.readEnum("metric", Metric.class, Metric.Distance);
+        levels = ic.readSavableArrayList("levels", new ArrayList<>());
+    }
+
+    @Override
+    public String toString() {
+        return "EmitterLod [Metric=" + metric + ", Levels=" + levels.size() + "]";
+    }
+
+    /**
+     * One level of detail. Immutable.
+     */
+    public static class Level implements Savable {
+
+        private float threshold;
+        private float rateScale = 1f;
+        private int maxParticles = Integer.MAX_VALUE;
+        private int maxInfluencers = Integer.MAX_VALUE;
+
+        /**
+         * For serialization only. Do not use.
+         */
+        protected Level() {
+        }
+
+        private Level(float threshold, float rateScale, int maxParticles, int maxInfluencers) {
+            this.threshold = threshold;
+            this.rateScale = rateScale;
+            this.maxParticles = maxParticles;
+            this.maxInfluencers = maxInfluencers;
+        }
+
+        public float getThreshold() {
+            return threshold;
+        }
+
+        public float getRateScale() {
+            return rateScale;
+        }
+
+        public int getMaxParticles() {
+            return maxParticles;
+        }
+
+        public int getMaxInfluencers() {
+            return maxInfluencers;
+        }
+
+        @Override
+        public void write(JmeExporter ex) throws IOException {
+            OutputCapsule oc = ex.getCapsule(this);
+            oc.write(threshold, "threshold", 0);
+            oc.write(rateScale, "rateScale", 1f);
+            oc.write(maxParticles, "maxParticles", Integer.MAX_VALUE);
+            oc.write(maxInfluencers, "maxInfluencers", Integer.MAX_VALUE);
+        }
+
+        @Override
+        public void read(JmeImporter im) throws IOException {
+            InputCapsule ic = im.getCapsule(this);
+            threshold = ic.readFloat("threshold", 0);
+            rateScale = ic.readFloat("rateScale", 1f);
+            maxParticles = ic.readInt("maxParticles", Integer.MAX_VALUE);
+            maxInfluencers = ic.readInt("maxInfluencers", Integer.MAX_VALUE);
+        }
+    }
+
+}
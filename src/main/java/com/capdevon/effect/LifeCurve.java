@@ -0,0 +1,270 @@
+package com.capdevon.effect;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import com.jme3.export.InputCapsule;
+import com.jme3.export.JmeExporter;
+import com.jme3.export.JmeImporter;
+import com.jme3.export.OutputCapsule;
+import com.jme3.export.Savable;
+import com.jme3.util.clone.Cloner;
+import com.jme3.util.clone.JmeCloneable;
+
+/**
+ * A value over the life of a particle, from 0 (birth) to 1 (death), used by
+ * {@link MyParticleEmitter} for the size, the rotation speed, the speed
+ * damping and the alpha of its particles.
+ * <p>
+ * The curve goes through keys. A key added with
+ * {@link #addKey(float, float)} is joined to its neighbors by straight
+ * lines; a key added with {@link #addKey(float, float, float, float)} has
+ * tangents, and the segments that touch it are cubic Bezier curves. The
+ * value is held before the first key and after the last one; a curve
+ * without keys is 0.
+ * <p>
+ * The curve is baked into a table of {@value #TABLE_SIZE} values whenever
+ * its keys change, so that {@link #sample(float)} costs a lookup and a
+ * blend in the update loop of the emitter.
+ *
+ * @author capdevon
+ */
+public class LifeCurve implements Savable, JmeCloneable {
+
+    /**
+     * The number of entries of the baked curve.
+     */
+    public static final int TABLE_SIZE = 256;
+
+    private float[] times = new float[0];
+    private float[] values = new float[0];
+    // the slopes at the keys, NaN for a linear key
+    private float[] inTangents = new float[0];
+    private float[] outTangents = new float[0];
+
+    // volatile: a rebuilt table is published whole to the other threads
+    private transient volatile float[] table = new float[TABLE_SIZE];
+
+    /**
+     * Instantiate a LifeCurve without keys.
+     */
+    public LifeCurve() {
+    }
+
+    /**
+     * Returns a curve that goes linearly from one value to another over the
+     * life of the particles.
+     *
+     * @param start the value at birth
+     * @param end   the value at death
+     * @return a new curve
+     */
+    public static LifeCurve linear(float start, float end) {
+        return new LifeCurve().addKey(0, start).addKey(1, end);
+    }
+
+    /**
+     * Returns a curve that keeps the same value.
+     *
+     * @param value the value
+     * @return a new curve
+     */
+    public static LifeCurve constant(float value) {
+        return new LifeCurve().addKey(0, value);
+    }
+
+    /**
+     * Adds a linear key, replacing the key at the same time if any.
+     *
+     * @param time  the fraction of the particle life (0-1)
+     * @param value the value at that time
+     * @return this curve
+     */
+    public LifeCurve addKey(float time, float value) {
+        return addKey(time, value, Float.NaN, Float.NaN);
+    }
+
+    /**
+     * Adds a smooth key, replacing the key at the same time if any. The
+     * tangents are slopes, in value per unit of life: the control points of
+     * the Bezier segments are a third of a segment away along them.
+     *
+     * @param time       the fraction of the particle life (0-1)
+     * @param value      the value at that time
+     * @param inTangent  the slope of the curve arriving at the key
+     * @param outTangent the slope of the curve leaving the key
+     * @return this curve
+     */
+    public LifeCurve addKey(float time, float value, float inTangent, float outTangent) {
+        int index = Arrays.binarySearch(times, time);
+        if (index < 0) {
+            index = -index - 1;
+            times = insert(times, index, time);
+            values = insert(values, index, value);
+            inTangents = insert(inTangents, index, inTangent);
+            outTangents = insert(outTangents, index, outTangent);
+        } else {
+            values[index] = value;
+            inTangents[index] = inTangent;
+            outTangents[index] = outTangent;
+        }
+        bake();
+        return this;
+    }
+
+    private static float[] insert(float[] array, int index, float value) {
+        float[] result = new float[array.length + 1];
+        System.arraycopy(array, 0, result, 0, index);
+        result[index] = value;
+        System.arraycopy(array, index, result, index + 1, array.length - index);
+        return result;
+    }
+
+    /**
+     * Removes all the keys, the curve is 0.
+     */
+    public void clearKeys() {
+        times = new float[0];
+        values = new float[0];
+        inTangents = new float[0];
+        outTangents = new float[0];
+        bake();
+    }
+
+    public int getNumKeys() {
+        return times.length;
+    }
+
+    public float getKeyTime(int index) {
+        return times[index];
+    }
+
+    public float getKeyValue(int index) {
+        return values[index];
+    }
+
+    /**
+     * Returns the exact value of the curve.
+     *
+     * @param time the fraction of the particle life (0-1)
+     * @return the value
+     */
+    public float evaluate(float time) {
+        int n = times.length;
+        if (n == 0) {
+            return 0;
+        }
+        if (time <= times[0]) {
+            return values[0];
+        }
+        if (time >= times[n - 1]) {
+            return values[n - 1];
+        }
+        int i = 1;
+        while (times[i] < time) {
+            i++;
+        }
+        float t0 = times[i - 1];
+        float dt = times[i] - t0;
+        float v0 = values[i - 1];
+        float v1 = values[i];
+        float s = (time - t0) / dt;
+
+        float m0 = outTangents[i - 1];
+        float m1 = inTangents[i];
+        if (Float.isNaN(m0) && Float.isNaN(m1)) {
+            return v0 + (v1 - v0) * s;
+        }
+        // a linear end of a smooth segment follows the chord
+        float slope = (v1 - v0) / dt;
+        if (Float.isNaN(m0)) {
+            m0 = slope;
+        }
+        if (Float.isNaN(m1)) {
+            m1 = slope;
+        }
+        // cubic Bezier through v0, v0 + m0 * dt / 3, v1 - m1 * dt / 3, v1
+        float s2 = s * s;
+        float s3 = s2 * s;
+        return (2 * s3 - 3 * s2 + 1) * v0
+                + (s3 - 2 * s2 + s) * dt * m0
+                + (-2 * s3 + 3 * s2) * v1
+                + (s3 - s2) * dt * m1;
+    }
+
+    /**
+     * Returns the value of the curve from the baked table, interpolated
+     * between the two nearest entries.
+     *
+     * @param time the fraction of the particle life (0-1)
+     * @return the value
+     */
+    public float sample(float time) {
+        float[] t = table;
+        float x = time * (TABLE_SIZE - 1);
+        if (!(x > 0)) {
+            return t[0];
+        }
+        if (x >= TABLE_SIZE - 1) {
+            return t[TABLE_SIZE - 1];
+        }
+        int index = (int) x;
+        float f = x - index;
+        return t[index] + (t[index + 1] - t[index]) * f;
+    }
+
+    /**
+     * Rebuilds the table into a new array, so that an emitter updating on
+     * another thread always reads a complete table.
+     */
+    private void bake() {
+        float[] baked = new float[TABLE_SIZE];
+        for (int i = 0; i < TABLE_SIZE; i++) {
+            baked[i] = evaluate(i / (float) (TABLE_SIZE - 1));
+        }
+        table = baked;
+    }
+
+    @Override
+    public Object jmeClone() {
+        try {
+            return super.clone();
+        } catch (CloneNotSupportedException ex) {
+            throw new AssertionError();
+        }
+    }
+
+    @Override
+    public void cloneFields(Cloner cloner, Object original) {
+        // the table is replaced, never modified, so it can be shared
+        times = times.clone();
+        values = values.clone();
+        inTangents = inTangents.clone();
+        outTangents = outTangents.clone();
+    }
+
+    @Override
+    public void write(JmeExporter ex) throws IOException {
+        OutputCapsule oc = ex.getCapsule(this);
+        oc.write(times, "times", null);
+        oc.write(values, "values", null);
+        oc.write(inTangents, "inTangents", null);
+        oc.write(outTangents, "outTangents", null);
+    }
+
+    @Override
+    public void read(JmeImporter im) throws IOException {
+        InputCapsule ic = im.getCapsule(this);
+        times = ic.readFloatArray("times", new float[0]);
+        values = ic.readFloatArray("values", new float[0]);
+        inTangents = ic.readFloatArray("inTangents", new float[0]);
+        outTangents = ic.readFloatArray("outTangents", new float[0]);
+        bake();
+    }
+
+    @Override
+    public String toString() {
+        return "LifeCurve [Keys=" + times.length + "]";
+    }
+
+}
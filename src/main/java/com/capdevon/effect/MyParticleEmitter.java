@@ -32,8 +32,19 @@
 package com.capdevon.effect;
 
 import java.io.IOException;
-
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+
+import com.capdevon.effect.collision.ParticleCollider;
+import com.capdevon.effect.influencers.BatchColorInfluencer;
+import com.capdevon.effect.influencers.BatchInfluencerAdapter;
+import com.capdevon.effect.influencers.BatchParticleInfluencer;
+import com.capdevon.effect.influencers.CompositeInfluencer;
+import com.capdevon.effect.influencers.InfluencerPipeline;
+import com.capdevon.effect.shapes.BatchEmitterShape;
+import com.capdevon.effect.shapes.BatchShapeAdapter;
 import com.jme3.bounding.BoundingBox;
+import com.jme3.bounding.BoundingVolume;
 import com.jme3.effect.Particle;
 import com.jme3.effect.ParticleEmitter;
 import com.jme3.effect.ParticleMesh;
@@ -46,9 +57,14 @@ import com.jme3.export.InputCapsule;
 import com.jme3.export.JmeExporter;
 import com.jme3.export.JmeImporter;
 import com.jme3.export.OutputCapsule;
+import com.jme3.export.Savable;
+import com.jme3.material.MatParam;
+import com.jme3.material.Material;
 import com.jme3.math.ColorRGBA;
 import com.jme3.math.FastMath;
 import com.jme3.math.Matrix3f;
+import com.jme3.math.Quaternion;
+import com.jme3.math.Transform;
 import com.jme3.math.Vector3f;
 import com.jme3.renderer.Camera;
 import com.jme3.renderer.RenderManager;
@@ -78,15 +94,15 @@ public class MyParticleEmitter extends Geometry implements BaseEmitter {
 
     private static final EmitterShape DEFAULT_SHAPE = new EmitterPointShape(Vector3f.ZERO);
     private static final ParticleInfluencer DEFAULT_INFLUENCER = new DefaultParticleInfluencer();
+    private static final int MAX_STEPS_PER_FRAME = 4;
+    private static final float PREWARM_STEPS_PER_SEC = 20;
 
     private boolean enabled = true;
     private EmitterShape shape = DEFAULT_SHAPE;
     private MyParticleMesh particleMesh;
     private ParticleInfluencer particleInfluencer = DEFAULT_INFLUENCER;
     private ParticleMesh.Type meshType;
-    private Particle[] particles;
-    private int firstUnused;
-    private int lastUsed;
+    private ParticleData particleData;
     private boolean randomAngle;
     private boolean selectRandomImage;
     private boolean facingVelocity;
@@ -106,10 +122,46 @@ public class MyParticleEmitter extends Geometry implements BaseEmitter {
     private float endSize = 2f;
     private boolean worldSpace = true;
     private ParticleInfluencer colorInfluencer;
+    private int parallelThreshold = 8192;
+    private float simulationRate = 0;
+    private boolean interpolateSpawns = true;
+    private EmissionSchedule emissionSchedule;
+    private EmitterLod lod;
+    private InfluencerPipeline influencerPipeline;
+    private LifeCurve sizeCurve;
+    private LifeCurve rotateSpeedCurve;
+    private LifeCurve speedDampingCurve;
+    private LifeCurve alphaCurve;
+    private ParticleCollider[] colliders = new ParticleCollider[0];
 
     //variable that helps with computations
-    private transient Vector3f temp = new Vector3f();
-    private transient Vector3f lastPos;
+    private transient Transform lastTransform = new Transform();
+    private transient boolean hasLastTransform;
+    private transient Particle particle = new Particle();
+    private transient Particle[] particles;
+    private transient ParticleRandom random = new ParticleRandom();
+    private transient EmitterShape batchShapeSource;
+    private transient BatchEmitterShape batchShape;
+    private transient ParticleInfluencer batchInfluencerSource;
+    private transient BatchParticleInfluencer batchInfluencer;
+    private transient int[] deadIndices;
+    private transient ParticleCollider[] activeColliders;
+    private transient ForkJoinPool forkJoinPool;
+    private transient ParticleUpdateTask updateTask;
+    private transient Vector3f boundsMin = new Vector3f(Vector3f.POSITIVE_INFINITY);
+    private transient Vector3f boundsMax = new Vector3f(Vector3f.NEGATIVE_INFINITY);
+    private transient Vector3f prevBoundsMin = new Vector3f(Vector3f.POSITIVE_INFINITY);
+    private transient Vector3f prevBoundsMax = new Vector3f(Vector3f.NEGATIVE_INFINITY);
+    private transient float accumulator;
+    // the level of detail, measured when rendered and applied when updated
+    private transient float lodMeasure = Float.NaN;
+    private transient int emitterLodLevel = -1;
+    private transient float lodRateScale = 1f;
+    private transient int lodMaxParticles = Integer.MAX_VALUE;
+    private transient int lodMaxInfluencers = Integer.MAX_VALUE;
+    private transient float emissionTime;
+    private transient float emissionDebt;
+    private transient boolean managed;
 
     /**
      * Create new instance of MyParticleEmitter.
@@ -219,7 +271,7 @@ public class MyParticleEmitter extends Geometry implements BaseEmitter {
     public void setMeshType(ParticleMesh.Type meshType) {
         this.meshType = meshType;
         this.initParticleMesh();
-        this.setNumParticles(particles.length);
+        this.setNumParticles(particleData.capacity());
     }
 
     /**
@@ -249,13 +301,43 @@ public class MyParticleEmitter extends Geometry implements BaseEmitter {
         this.worldSpace = worldSpace;
     }
 
+    /**
+     * Returns true if the particles spawned during an update are spread
+     * along the motion of the emitter since the previous update.
+     *
+     * @return true if the spawns are interpolated
+     *
+     * @see #setInterpolateSpawns(boolean)
+     */
+    public boolean isInterpolateSpawns() {
+        return interpolateSpawns;
+    }
+
+    /**
+     * Set to true to spread the particles spawned during an update along the
+     * motion of the emitter (translation, rotation and scale) since the
+     * previous update, each particle being placed where the emitter was when
+     * it was due. Without it, a fast moving emitter drops all the particles
+     * of a frame at its current location and leaves a trail of clumps.
+     *
+     * <p>
+     * Only applies to world space emitters, the default is true. The
+     * particles emitted explicitly, e.g. by {@link #emitAllParticles()}, are
+     * always placed at the current location.
+     *
+     * @param interpolateSpawns true to interpolate the spawns
+     */
+    public void setInterpolateSpawns(boolean interpolateSpawns) {
+        this.interpolateSpawns = interpolateSpawns;
+    }
+
     /**
      * Returns the number of visible particles (spawned but not dead).
      *
      * @return the number of visible particles
      */
     public int getNumVisibleParticles() {
-        return lastUsed + 1;
+        return particleData.aliveCount();
     }
 
     /**
@@ -266,19 +348,25 @@ public class MyParticleEmitter extends Geometry implements BaseEmitter {
      * same time with this emitter.
      */
     public final void setNumParticles(int numParticles) {
-        particles = new Particle[numParticles];
-        for (int i = 0; i < numParticles; i++) {
-            particles[i] = new Particle();
-        }
+        particleData = new ParticleData(numParticles);
+        particles = null;
         // We must reinitialize the mesh's buffers to the new size.
-        particleMesh.initParticleData(this, particles.length);
+        particleMesh.initParticleData(this, numParticles);
         particleMesh.setImagesXY(this.imagesX, this.imagesY);
-        firstUnused = 0;
-        lastUsed = -1;
     }
 
     public int getMaxNumParticles() {
-        return particles.length;
+        return particleData.capacity();
+    }
+
+    /**
+     * Returns the structure-of-arrays storage holding the state of all
+     * particles (shouldn't be used in most cases).
+     *
+     * @return the particle storage (not null)
+     */
+    public ParticleData getParticleData() {
+        return particleData;
     }
 
     /**
@@ -289,10 +377,34 @@ public class MyParticleEmitter extends Geometry implements BaseEmitter {
      * array is set to the <code>numParticles</code> value specified in the
      * constructor or {@link ParticleEmitter#setNumParticles(int) }
      * method.
+     * <p>
+     * The particles are a snapshot copied from {@link #getParticleData()},
+     * changes made to them are not reflected in the emitter. Live particles
+     * come first, followed by the dead ones.
      *
      * @return a list of all particles.
      */
     public Particle[] getParticles() {
+        if (particles == null) {
+            particles = new Particle[particleData.capacity()];
+            for (int i = 0; i < particles.length; i++) {
+                particles[i] = new Particle();
+            }
+        }
+        int aliveCount = particleData.aliveCount();
+        for (int i = 0; i < particles.length; i++) {
+            Particle p = particles[i];
+            if (i < aliveCount) {
+                particleData.get(i, p);
+            } else {
+                p.life = 0;
+                p.size = 0f;
+                p.color.set(0, 0, 0, 0);
+                p.imageIndex = 0;
+                p.angle = 0;
+                p.rotateSpeed = 0;
+            }
+        }
         return particles;
     }
 
@@ -634,6 +746,167 @@ public class MyParticleEmitter extends Geometry implements BaseEmitter {
         //prevent large accumulated timeDifference from causing a huge number of particles to be emitted
     }
 
+    /**
+     * Returns the emission schedule of this emitter.
+     *
+     * @return the schedule, or null if the emitter emits at a constant rate
+     *
+     * @see #setEmissionSchedule(EmissionSchedule)
+     */
+    public EmissionSchedule getEmissionSchedule() {
+        return emissionSchedule;
+    }
+
+    /**
+     * Sets an emission schedule: a rate curve and timed bursts, played once
+     * or in a loop, and restarts it. Without rate keys in the schedule, the
+     * emitter keeps spawning {@link #getParticlesPerSec()} particles per
+     * second during the cycle.
+     *
+     * @param emissionSchedule the schedule, or null to emit at a constant
+     * rate
+     */
+    public void setEmissionSchedule(EmissionSchedule emissionSchedule) {
+        this.emissionSchedule = emissionSchedule;
+        restartEmission();
+    }
+
+    /**
+     * Plays the emission schedule from its beginning.
+     */
+    public void restartEmission() {
+        emissionTime = 0;
+        emissionDebt = 0;
+    }
+
+    /**
+     * Returns the position of the emitter in its emission schedule.
+     *
+     * @return the time since the beginning of the cycle (in seconds)
+     */
+    public float getEmissionTime() {
+        return emissionTime;
+    }
+
+    /**
+     * Returns true if the emission schedule has been played to its end and
+     * does not loop: the emitter spawns no more particles, the last ones
+     * may still be alive.
+     *
+     * @return true if the emission is over
+     */
+    public boolean isEmissionFinished() {
+        return emissionSchedule != null && !emissionSchedule.isLooping()
+                && emissionTime >= emissionSchedule.getDuration();
+    }
+
+    /**
+     * Returns the levels of detail of this emitter.
+     *
+     * @return the levels, or null if the emitter always runs at full detail
+     *
+     * @see #setLod(EmitterLod)
+     */
+    public EmitterLod getLod() {
+        return lod;
+    }
+
+    /**
+     * Sets the levels of detail of this emitter: far from the camera, or
+     * small on screen, it spawns fewer particles, keeps fewer alive and
+     * runs fewer influencers. The level is measured each time the emitter
+     * is rendered and applied at the next update.
+     *
+     * @param lod the levels, or null to always run at full detail
+     */
+    public void setLod(EmitterLod lod) {
+        this.lod = lod;
+        lodMeasure = Float.NaN;
+        applyEmitterLod(-1);
+    }
+
+    /**
+     * Returns the level of detail in use.
+     *
+     * @return the index of the level in the {@link EmitterLod}, or -1 for
+     * full detail
+     */
+    public int getEmitterLodLevel() {
+        return emitterLodLevel;
+    }
+
+    /**
+     * Selects the level of detail measured since the last update, if any.
+     */
+    private void updateLod() {
+        if (lod == null) {
+            return;
+        }
+        if (!Float.isNaN(lodMeasure)) {
+            int level = lod.selectLevel(lodMeasure);
+            lodMeasure = Float.NaN;
+            if (level != emitterLodLevel) {
+                applyEmitterLod(level);
+            }
+        }
+    }
+
+    private void applyEmitterLod(int level) {
+        EmitterLod.Level l = (lod == null || level < 0) ? null : lod.getLevel(level);
+        emitterLodLevel = (l == null) ? -1 : level;
+        lodRateScale = (l == null) ? 1f : l.getRateScale();
+        lodMaxParticles = (l == null) ? Integer.MAX_VALUE : l.getMaxParticles();
+        lodMaxInfluencers = (l == null) ? Integer.MAX_VALUE : l.getMaxInfluencers();
+        //prevent the time accumulated at a lower rate from causing a burst
+        timeDifference = Math.min(timeDifference, 1f / getEmissionRate());
+    }
+
+    /**
+     * Returns the number of particles spawned per second at the current
+     * level of detail.
+     */
+    private float getEmissionRate() {
+        return particlesPerSec * lodRateScale;
+    }
+
+    /**
+     * Measures the level of detail for the given camera. With several
+     * viewports, the most detailed measure of the frame wins.
+     */
+    private void measureLod(Camera cam) {
+        BoundingVolume bound = this.getWorldBound();
+        Vector3f center = this.getWorldTranslation();
+        float radius = 0;
+        if (particleData.aliveCount() > 0 && bound instanceof BoundingBox) {
+            BoundingBox box = (BoundingBox) bound;
+            center = box.getCenter();
+            radius = FastMath.sqrt(box.getXExtent() * box.getXExtent()
+                    + box.getYExtent() * box.getYExtent()
+                    + box.getZExtent() * box.getZExtent());
+        }
+        float distance = cam.getLocation().distance(center);
+
+        float measure;
+        if (lod.getMetric() == EmitterLod.Metric.Distance) {
+            measure = distance;
+            if (!(lodMeasure <= measure)) {
+                lodMeasure = measure;
+            }
+        } else if (radius > 0) {
+            // the projected diameter over the height of the screen (2),
+            // an emitter without particles has no size and keeps its level
+            float scale = cam.getProjectionMatrix().m11;
+            if (cam.isParallelProjection()) {
+                measure = radius * scale;
+            } else {
+                measure = radius * scale / Math.max(distance, cam.getFrustumNear());
+            }
+            if (!(lodMeasure >= measure)) {
+                lodMeasure = measure;
+            }
+        }
+    }
+
     /**
      * Get the start color of the particles spawned.
      *
@@ -684,44 +957,205 @@ public class MyParticleEmitter extends Geometry implements BaseEmitter {
         this.startSize = startSize;
     }
 
-    private Particle emitParticle(Vector3f min, Vector3f max) {
-        int idx = lastUsed + 1;
-        if (idx >= particles.length) {
-            return null;
-        }
+    /**
+     * Spawns up to <code>num</code> particles at the end of the live range:
+     * the shape and the influencer fill the whole range in one call, then
+     * the world transform is applied to the range in one pass.
+     *
+     * @return the index of the first new particle, the new particles occupy
+     * <code>[index, aliveCount)</code>
+     */
+    private int emitParticles(int num, Vector3f min, Vector3f max) {
+        return emitParticles(num, min, max, 1f, 0f);
+    }
 
-        Particle p = particles[idx];
-        if (selectRandomImage) {
-            p.imageIndex = FastMath.nextRandomInt(0, imagesY - 1)
-                    * imagesX + FastMath.nextRandomInt(0, imagesX - 1);
+    /**
+     * Spawns up to <code>num</code> particles, the particle <code>k</code>
+     * of the range being placed where the emitter was at the fraction
+     * <code>motionStart + k * motionStep</code> of its motion since the last
+     * frame (0=last transform, 1=current transform).
+     */
+    private int emitParticles(int num, Vector3f min, Vector3f max, float motionStart, float motionStep) {
+        ParticleData d = particleData;
+        num = Math.min(num, Math.max(0, lodMaxParticles - d.aliveCount()));
+        int from = d.add(num);
+        int to = d.aliveCount();
+        if (from == to) {
+            return from;
         }
 
-        p.startlife = lowLife + FastMath.nextRandomFloat() * (highLife - lowLife);
-        p.life = p.startlife;
-        p.color.set(startColor);
-        p.size = startSize;
+        for (int i = from; i < to; i++) {
+            if (selectRandomImage) {
+                d.imageIndex[i] = random.nextInt(0, imagesY - 1)
+                        * imagesX + random.nextInt(0, imagesX - 1);
+            }
+            float life = lowLife + random.nextFloat() * (highLife - lowLife);
+            d.startLife[i] = life;
+            d.life[i] = life;
+            d.size[i] = startSize;
+        }
+        Arrays.fill(d.color, from, to, startColor.asIntABGR());
 
-        particleInfluencer.influenceParticle(p, shape);
+        BatchParticleInfluencer influencer = getBatchInfluencer();
+        if (influencer instanceof CompositeInfluencer) {
+            ((CompositeInfluencer) influencer).influenceParticles(d, from, to, getBatchShape(), random,
+                    lodMaxInfluencers);
+        } else {
+            influencer.influenceParticles(d, from, to, getBatchShape(), random);
+        }
+        if (influencerPipeline != null) {
+            influencerPipeline.spawn(d, from, to, getBatchShape(), random, lodMaxInfluencers);
+        }
 
         if (worldSpace) {
-            worldTransform.transformVector(p.position, p.position);
-            worldTransform.getRotation().mult(p.velocity, p.velocity);
+            if (interpolateSpawns && hasLastTransform && motionStart < 1f
+                    && !lastTransform.equals(worldTransform)) {
+                transformParticles(from, to, motionStart, motionStep);
+            } else {
+                transformParticles(from, to);
+            }
         }
 
         if (randomAngle) {
-            p.angle = FastMath.nextRandomFloat() * FastMath.TWO_PI;
+            for (int i = from; i < to; i++) {
+                d.angle[i] = random.nextFloat() * FastMath.TWO_PI;
+            }
         }
 
         if (rotateSpeed != 0) {
-            p.rotateSpeed = rotateSpeed * (0.2f + (FastMath.nextRandomFloat() * 2f - 1f) * .8f);
+            for (int i = from; i < to; i++) {
+                d.rotateSpeed[i] = rotateSpeed * (0.2f + (random.nextFloat() * 2f - 1f) * .8f);
+            }
         }
 
+        System.arraycopy(d.posX, from, d.prevX, from, to - from);
+        System.arraycopy(d.posY, from, d.prevY, from, to - from);
+        System.arraycopy(d.posZ, from, d.prevZ, from, to - from);
+
         // Computing bounding volume
-        computeBoundingVolume(p, min, max);
+        for (int i = from; i < to; i++) {
+            computeBoundingVolume(i, min, max);
+        }
+        return from;
+    }
+
+    /**
+     * Moves the positions and velocities of the particles in
+     * <code>[from, to)</code> from the local space of the emitter to the
+     * world space, with one matrix for the whole range.
+     */
+    private void transformParticles(int from, int to) {
+        TempVars vars = TempVars.get();
+        Matrix3f m = worldTransform.getRotation().toRotationMatrix(vars.tempMat3);
+        Vector3f scale = worldTransform.getScale();
+        Vector3f translation = worldTransform.getTranslation();
+
+        float m00 = m.get(0, 0), m01 = m.get(0, 1), m02 = m.get(0, 2);
+        float m10 = m.get(1, 0), m11 = m.get(1, 1), m12 = m.get(1, 2);
+        float m20 = m.get(2, 0), m21 = m.get(2, 1), m22 = m.get(2, 2);
+        vars.release();
+
+        ParticleData d = particleData;
+        for (int i = from; i < to; i++) {
+            float x = d.posX[i] * scale.x;
+            float y = d.posY[i] * scale.y;
+            float z = d.posZ[i] * scale.z;
+            d.posX[i] = m00 * x + m01 * y + m02 * z + translation.x;
+            d.posY[i] = m10 * x + m11 * y + m12 * z + translation.y;
+            d.posZ[i] = m20 * x + m21 * y + m22 * z + translation.z;
+
+            float vx = d.velX[i];
+            float vy = d.velY[i];
+            float vz = d.velZ[i];
+            d.velX[i] = m00 * vx + m01 * vy + m02 * vz;
+            d.velY[i] = m10 * vx + m11 * vy + m12 * vz;
+            d.velZ[i] = m20 * vx + m21 * vy + m22 * vz;
+        }
+    }
 
-        ++lastUsed;
-        firstUnused = idx + 1;
-        return p;
+    /**
+     * Moves the positions and velocities of the particles in
+     * <code>[from, to)</code> to the world space, each particle with the
+     * transform of the emitter at its own fraction of the motion between the
+     * last transform and the current one.
+     */
+    private void transformParticles(int from, int to, float motionStart, float motionStep) {
+        Vector3f t0 = lastTransform.getTranslation();
+        Vector3f t1 = worldTransform.getTranslation();
+        Vector3f s0 = lastTransform.getScale();
+        Vector3f s1 = worldTransform.getScale();
+        Quaternion q0 = lastTransform.getRotation();
+        Quaternion q1 = worldTransform.getRotation();
+
+        // take the shortest arc between the two rotations
+        float sign = (q0.dot(q1) < 0) ? -1f : 1f;
+        float q1x = q1.getX() * sign, q1y = q1.getY() * sign;
+        float q1z = q1.getZ() * sign, q1w = q1.getW() * sign;
+
+        ParticleData d = particleData;
+        for (int i = from; i < to; i++) {
+            float f = FastMath.clamp(motionStart + (i - from) * motionStep, 0f, 1f);
+            float g = 1f - f;
+
+            // normalized lerp of the rotation, close enough to a slerp
+            // over the motion of a single frame
+            float qx = g * q0.getX() + f * q1x;
+            float qy = g * q0.getY() + f * q1y;
+            float qz = g * q0.getZ() + f * q1z;
+            float qw = g * q0.getW() + f * q1w;
+            float invLength = 1f / FastMath.sqrt(qx * qx + qy * qy + qz * qz + qw * qw);
+            qx *= invLength;
+            qy *= invLength;
+            qz *= invLength;
+            qw *= invLength;
+
+            // position: scale, rotate, translate
+            float x = d.posX[i] * (g * s0.x + f * s1.x);
+            float y = d.posY[i] * (g * s0.y + f * s1.y);
+            float z = d.posZ[i] * (g * s0.z + f * s1.z);
+            // v' = v + 2w(q x v) + 2q x (q x v)
+            float cx = 2f * (qy * z - qz * y);
+            float cy = 2f * (qz * x - qx * z);
+            float cz = 2f * (qx * y - qy * x);
+            d.posX[i] = x + qw * cx + (qy * cz - qz * cy) + g * t0.x + f * t1.x;
+            d.posY[i] = y + qw * cy + (qz * cx - qx * cz) + g * t0.y + f * t1.y;
+            d.posZ[i] = z + qw * cz + (qx * cy - qy * cx) + g * t0.z + f * t1.z;
+
+            // velocity: rotate
+            x = d.velX[i];
+            y = d.velY[i];
+            z = d.velZ[i];
+            cx = 2f * (qy * z - qz * y);
+            cy = 2f * (qz * x - qx * z);
+            cz = 2f * (qx * y - qy * x);
+            d.velX[i] = x + qw * cx + (qy * cz - qz * cy);
+            d.velY[i] = y + qw * cy + (qz * cx - qx * cz);
+            d.velZ[i] = z + qw * cz + (qx * cy - qy * cx);
+        }
+    }
+
+    /**
+     * Returns the shape as a batch shape, the adapter is rebuilt when the
+     * shape changes.
+     */
+    private BatchEmitterShape getBatchShape() {
+        if (batchShapeSource != shape) {
+            batchShape = BatchShapeAdapter.of(shape);
+            batchShapeSource = shape;
+        }
+        return batchShape;
+    }
+
+    /**
+     * Returns the influencer as a batch influencer, the adapter is rebuilt
+     * when the influencer changes.
+     */
+    private BatchParticleInfluencer getBatchInfluencer() {
+        if (batchInfluencerSource != particleInfluencer) {
+            batchInfluencer = BatchInfluencerAdapter.of(particleInfluencer);
+            batchInfluencerSource = particleInfluencer;
+        }
+        return batchInfluencer;
     }
 
     /**
@@ -729,7 +1163,7 @@ public class MyParticleEmitter extends Geometry implements BaseEmitter {
      * which are currently inactive will be spawned immediately.
      */
     public void emitAllParticles() {
-        emitParticles(particles.length);
+        emitParticles(particleData.capacity());
     }
 
     /**
@@ -758,11 +1192,7 @@ public class MyParticleEmitter extends Geometry implements BaseEmitter {
             max.set(Vector3f.NEGATIVE_INFINITY);
         }
 
-        for (int i = 0; i < num; i++) {
-            if (emitParticle(min, max) == null) {
-                break;
-            }
-        }
+        emitParticles(num, min, max);
 
         bbox.setMinMax(min, max);
         this.setBoundRefresh();
@@ -770,150 +1200,554 @@ public class MyParticleEmitter extends Geometry implements BaseEmitter {
         vars.release();
     }
 
+    /**
+     * Fast-forwards the emitter by the given time, as if it had been running
+     * all along: an ambient effect (smoke, fire, ...) starts in its steady
+     * state instead of filling up during the first <code>highLife</code>
+     * seconds.
+     * <p>
+     * Nothing is simulated step by step: the live particles age by the whole
+     * time, only the spawns that may still be alive are emitted, in one
+     * batch, and each particle is moved to its final state in closed form
+     * (constant gravity, linear size and color). The emitter is assumed to
+     * stay in place meanwhile. The mesh is not touched, it is filled once by
+     * the next render (or {@link #preload(RenderManager, ViewPort)}), so
+     * this also works headless. Call it from the thread that updates the
+     * emitter.
+     * <p>
+     * An {@link EmissionSchedule} changes the emission over time, and
+     * {@link #addCollider(ParticleCollider) colliders} bounce, stop or kill
+     * the particles on the way: with a schedule or colliders the emitter is
+     * simulated in coarse steps instead.
+     *
+     * @param seconds the time to simulate (in seconds)
+     */
+    public void prewarm(float seconds) {
+        if (seconds <= 0) {
+            return;
+        }
+        if (emissionSchedule != null || colliders.length > 0) {
+            int steps = (int) FastMath.ceil(seconds * PREWARM_STEPS_PER_SEC);
+            for (int i = 0; i < steps; i++) {
+                this.updateParticleState(seconds / steps, 1f, 1f);
+            }
+            finishPrewarm();
+            return;
+        }
+        // Force world transform to update
+        this.getWorldTransform();
+
+        Vector3f min = boundsMin.set(Vector3f.POSITIVE_INFINITY);
+        Vector3f max = boundsMax.set(Vector3f.NEGATIVE_INFINITY);
+
+        ParticleData d = particleData;
+        int i = 0;
+        while (i < d.aliveCount()) {
+            if (advanceParticle(i, seconds, min, max)) {
+                i++;
+            } else {
+                d.remove(i);
+            }
+        }
+
+        // only the spawns of the last highLife seconds can still be alive
+        float rate = getEmissionRate();
+        float interval = 1f / rate;
+        float remainder = 0;
+        int num = 0;
+        if (rate > 0) {
+            float time = timeDifference + seconds;
+            long due = (long) (time / interval);
+            remainder = time - due * interval;
+            num = (int) Math.min(due, (long) FastMath.ceil(highLife / interval));
+            num = Math.min(num, d.capacity() - d.aliveCount());
+            timeDifference = remainder;
+        }
+
+        if (num > 0) {
+            // the spawn positions don't belong in the bounds
+            TempVars vars = TempVars.get();
+            Vector3f spawnMin = vars.vect1.set(Vector3f.POSITIVE_INFINITY);
+            Vector3f spawnMax = vars.vect2.set(Vector3f.NEGATIVE_INFINITY);
+            int from = emitParticles(num, spawnMin, spawnMax);
+            vars.release();
+
+            // youngest last, as in updateParticleState
+            float age = remainder;
+            for (int idx = d.aliveCount() - 1; idx >= from; idx--) {
+                if (!advanceParticle(idx, age, min, max)) {
+                    d.remove(idx);
+                }
+                age += interval;
+            }
+        }
+
+        influenceLiveParticles(0, d.aliveCount(), 0f);
+
+        finishPrewarm();
+    }
+
+    /**
+     * Leaves the emitter as the next update expects it after a prewarm.
+     */
+    private void finishPrewarm() {
+        particleData.savePositions();
+        prevBoundsMin.set(boundsMin);
+        prevBoundsMax.set(boundsMax);
+        accumulator = 0;
+        saveLastTransform();
+        applyParticleBounds();
+    }
+
+    /**
+     * Ages the particle at the given index by the given time in one go.
+     *
+     * @return false if the particle died meanwhile
+     */
+    private boolean advanceParticle(int i, float age, Vector3f min, Vector3f max) {
+        ParticleData d = particleData;
+        d.life[i] -= age;
+        if (d.life[i] <= 0) {
+            return false;
+        }
+
+        // exact under constant gravity
+        float halfAgeSquared = 0.5f * age * age;
+        d.posX[i] += d.velX[i] * age - gravity.x * halfAgeSquared;
+        d.posY[i] += d.velY[i] * age - gravity.y * halfAgeSquared;
+        d.posZ[i] += d.velZ[i] * age - gravity.z * halfAgeSquared;
+        d.velX[i] -= gravity.x * age;
+        d.velY[i] -= gravity.y * age;
+        d.velZ[i] -= gravity.z * age;
+        d.angle[i] += d.rotateSpeed[i] * age;
+
+        // color, size, image and bounds follow from the remaining life
+        updateParticle(i, 0f, min, max);
+        return true;
+    }
+
     /**
      * Instantly kills all active particles, after this method is called, all
      * particles will be dead and no longer visible.
      */
     public void killAllParticles() {
-        for (int i = 0; i < particles.length; ++i) {
-            if (particles[i].life > 0) {
-                this.freeParticle(i);
-            }
-        }
+        particleData.removeAll();
     }
 
     /**
-     * Kills the particle at the given index.
+     * Kills the particle at the given index. The last live particle is moved
+     * into the freed slot.
      *
      * @param index The index of the particle to kill
      * @see #getParticles()
      */
     public void killParticle(int index) {
-        freeParticle(index);
+        if (index < particleData.aliveCount()) {
+            particleData.remove(index);
+        }
     }
 
-    private void freeParticle(int idx) {
-        Particle p = particles[idx];
-        p.life = 0;
-        p.size = 0f;
-        p.color.set(0, 0, 0, 0);
-        p.imageIndex = 0;
-        p.angle = 0;
-        p.rotateSpeed = 0;
+    protected void updateParticle(int i, float tpf, Vector3f min, Vector3f max) {
+        ParticleData d = particleData;
+        float b = (d.startLife[i] - d.life[i]) / d.startLife[i];
 
-        if (idx == lastUsed) {
-            while (lastUsed >= 0 && particles[lastUsed].life == 0) {
-                lastUsed--;
-            }
-        }
-        if (idx < firstUnused) {
-            firstUnused = idx;
+        if (speedDampingCurve != null) {
+            // implicit drag, stable at any time step
+            float damping = 1f / (1f + speedDampingCurve.sample(b) * tpf);
+            d.velX[i] *= damping;
+            d.velY[i] *= damping;
+            d.velZ[i] *= damping;
         }
-    }
-
-    private void swap(int idx1, int idx2) {
-        Particle p1 = particles[idx1];
-        particles[idx1] = particles[idx2];
-        particles[idx2] = p1;
-    }
 
-    protected void updateParticle(Particle p, float tpf, Vector3f min, Vector3f max) {
         // applying gravity
-        p.velocity.x -= gravity.x * tpf;
-        p.velocity.y -= gravity.y * tpf;
-        p.velocity.z -= gravity.z * tpf;
-        temp.set(p.velocity).multLocal(tpf);
-        p.position.addLocal(temp);
+        d.velX[i] -= gravity.x * tpf;
+        d.velY[i] -= gravity.y * tpf;
+        d.velZ[i] -= gravity.z * tpf;
+        d.posX[i] += d.velX[i] * tpf;
+        d.posY[i] += d.velY[i] * tpf;
+        d.posZ[i] += d.velZ[i] * tpf;
 
         // affecting color, size and angle
-        float b = (p.startlife - p.life) / p.startlife;
-        if (colorInfluencer != null) {
-            colorInfluencer.influenceParticle(p, shape);
+        if (colorInfluencer == null) {
+            float a = 1f - b;
+            float alpha = (alphaCurve != null)
+                    ? clampAlpha(alphaCurve.sample(b))
+                    : a * startColor.a + b * endColor.a;
+            d.color[i] = ParticleData.toABGR(
+                    a * startColor.r + b * endColor.r,
+                    a * startColor.g + b * endColor.g,
+                    a * startColor.b + b * endColor.b,
+                    alpha);
+        }
+        if (sizeCurve != null) {
+            d.size[i] = sizeCurve.sample(b);
+        } else {
+            d.size[i] = FastMath.interpolateLinear(b, startSize, endSize);
+        }
+        if (rotateSpeedCurve != null) {
+            d.angle[i] += d.rotateSpeed[i] * rotateSpeedCurve.sample(b) * tpf;
         } else {
-            p.color.interpolateLocal(startColor, endColor, b);
+            d.angle[i] += d.rotateSpeed[i] * tpf;
         }
-        p.size = FastMath.interpolateLinear(b, startSize, endSize);
-        p.angle += p.rotateSpeed * tpf;
 
         // Computing bounding volume
-        computeBoundingVolume(p, min, max);
+        computeBoundingVolume(i, min, max);
 
         if (!selectRandomImage) {
-            p.imageIndex = (int) (b * imagesX * imagesY);
+            d.imageIndex[i] = (int) (b * imagesX * imagesY);
         }
     }
     
-    private void computeBoundingVolume(Particle p, Vector3f min, Vector3f max) {
-        temp.set(p.position).addLocal(p.size, p.size, p.size);
-        max.maxLocal(temp);
-        temp.set(p.position).subtractLocal(p.size, p.size, p.size);
-        min.minLocal(temp);
+    /**
+     * Ages the particles in <code>[from, to)</code> and updates the ones that
+     * are still alive. Disjoint ranges may be updated concurrently.
+     */
+    void updateParticles(int from, int to, float tpf, Vector3f min, Vector3f max) {
+        ParticleData d = particleData;
+        for (int i = from; i < to; i++) {
+            d.life[i] -= tpf;
+            if (d.life[i] > 0) {
+                updateParticle(i, tpf, min, max);
+            }
+        }
     }
 
-    private void updateParticleState(float tpf) {
-        // Force world transform to update
-        this.getWorldTransform();
+    /**
+     * Runs the color influencer and the update stage of the pipeline on the
+     * particles in <code>[from, to)</code>.
+     */
+    private void influenceLiveParticles(int from, int to, float tpf) {
+        if (colorInfluencer != null) {
+            influenceColors(from, to);
+            if (alphaCurve != null) {
+                applyAlphaCurve(from, to);
+            }
+        }
+        if (influencerPipeline != null) {
+            influencerPipeline.update(particleData, from, to, tpf, lodMaxInfluencers);
+        }
+    }
 
-        TempVars vars = TempVars.get();
+    /**
+     * Replaces the alpha written by the color influencer with the alpha
+     * curve, in the packed colors of the particles in <code>[from, to)</code>.
+     */
+    private void applyAlphaCurve(int from, int to) {
+        ParticleData d = particleData;
+        LifeCurve curve = alphaCurve;
+        for (int i = from; i < to; i++) {
+            float b = (d.startLife[i] - d.life[i]) / d.startLife[i];
+            int alpha = (int) (clampAlpha(curve.sample(b)) * 255);
+            d.color[i] = (d.color[i] & 0x00FFFFFF) | (alpha << 24);
+        }
+    }
 
-        Vector3f min = vars.vect1.set(Vector3f.POSITIVE_INFINITY);
-        Vector3f max = vars.vect2.set(Vector3f.NEGATIVE_INFINITY);
+    private static float clampAlpha(float alpha) {
+        return Math.min(1f, Math.max(0f, alpha));
+    }
 
-        for (int i = 0; i < particles.length; ++i) {
-            Particle p = particles[i];
-            if (p.life == 0) { // particle is dead
-                continue;
+    /**
+     * Tests the live particles in <code>[0, count)</code> against the
+     * colliders whose bounds meet the given bounds, and expands the bounds
+     * to contain the particles moved back to a surface. The killed particles
+     * are removed with the ones that died of age.
+     */
+    private void collideParticles(int count, float tpf, Vector3f min, Vector3f max) {
+        if (min.x > max.x || tpf <= 0) {
+            // no live particle, or no motion
+            return;
+        }
+        ParticleCollider[] all = colliders;
+        if (activeColliders == null || activeColliders.length < all.length) {
+            activeColliders = new ParticleCollider[all.length];
+        }
+        ParticleCollider[] active = activeColliders;
+        int numActive = 0;
+        for (ParticleCollider collider : all) {
+            collider.beginUpdate(tpf, gravity);
+            if (collider.intersects(min, max)) {
+                active[numActive++] = collider;
             }
+        }
+        if (numActive == 0) {
+            return;
+        }
 
-            p.life -= tpf;
-            if (p.life <= 0) {
-                freeParticle(i);
+        ParticleData d = particleData;
+        for (int i = 0; i < count; i++) {
+            if (d.life[i] <= 0) {
                 continue;
             }
+            for (int k = 0; k < numActive; k++) {
+                if (active[k].collide(d, i)) {
+                    if (d.life[i] <= 0) {
+                        break;
+                    }
+                    computeBoundingVolume(i, min, max);
+                }
+            }
+        }
+        Arrays.fill(active, 0, numActive, null);
+    }
 
-            updateParticle(p, tpf, min, max);
+    /**
+     * Passes the particles that died during the update to the death stage
+     * of the pipeline, before they are removed.
+     */
+    private void reportDeaths() {
+        ParticleData d = particleData;
+        int count = d.aliveCount();
+        if (deadIndices == null || deadIndices.length < count) {
+            deadIndices = new int[d.capacity()];
+        }
+        int numDead = 0;
+        for (int i = 0; i < count; i++) {
+            if (d.life[i] <= 0) {
+                deadIndices[numDead++] = i;
+            }
+        }
+        if (numDead > 0) {
+            influencerPipeline.die(d, deadIndices, numDead, lodMaxInfluencers);
+        }
+    }
 
-            if (firstUnused < i) {
-                this.swap(firstUnused, i);
-                if (i == lastUsed) {
-                    lastUsed = firstUnused;
-                }
-                firstUnused++;
+    /**
+     * Applies the color influencer to the particles in <code>[from, to)</code>.
+     * A {@link BatchColorInfluencer} writes the packed colors directly, any
+     * other influencer works on a {@link Particle}; either way this runs on
+     * the updating thread.
+     */
+    private void influenceColors(int from, int to) {
+        if (colorInfluencer instanceof BatchColorInfluencer) {
+            ((BatchColorInfluencer) colorInfluencer).influenceColors(particleData, from, to);
+            return;
+        }
+        ParticleData d = particleData;
+        for (int i = from; i < to; i++) {
+            Particle p = d.get(i, particle);
+            if (colorInfluencer instanceof CompositeInfluencer) {
+                ((CompositeInfluencer) colorInfluencer).influenceParticle(p, shape, lodMaxInfluencers);
+            } else {
+                colorInfluencer.influenceParticle(p, shape);
+            }
+            d.set(i, p);
+        }
+    }
+
+    private void computeBoundingVolume(int i, Vector3f min, Vector3f max) {
+        ParticleData d = particleData;
+        float s = d.size[i];
+        max.x = Math.max(max.x, d.posX[i] + s);
+        max.y = Math.max(max.y, d.posY[i] + s);
+        max.z = Math.max(max.z, d.posZ[i] + s);
+        min.x = Math.min(min.x, d.posX[i] - s);
+        min.y = Math.min(min.y, d.posY[i] - s);
+        min.z = Math.min(min.z, d.posZ[i] - s);
+    }
+
+    /**
+     * Advances the simulation. The new bounds are kept aside until
+     * {@link #applyParticleBounds()}, so that the scene graph is not touched
+     * and independent emitters can be updated concurrently.
+     * <p>
+     * The step covers the fraction <code>[motionFrom, motionTo]</code> of
+     * the motion of the emitter since the last frame, along which the
+     * spawned particles are spread.
+     */
+    private void updateParticleState(float tpf, float motionFrom, float motionTo) {
+        // Force world transform to update
+        this.getWorldTransform();
+
+        Vector3f min = boundsMin.set(Vector3f.POSITIVE_INFINITY);
+        Vector3f max = boundsMax.set(Vector3f.NEGATIVE_INFINITY);
+
+        ParticleData d = particleData;
+        int count = d.aliveCount();
+        if (count >= parallelThreshold) {
+            if (updateTask == null) {
+                updateTask = new ParticleUpdateTask(this);
+            }
+            updateTask.update(getForkJoinPool(), count, tpf, min, max);
+        } else {
+            updateParticles(0, count, tpf, min, max);
+        }
+
+        if (colliders.length > 0) {
+            collideParticles(count, tpf, min, max);
+        }
+
+        if (influencerPipeline != null && influencerPipeline.hasDeathStage(lodMaxInfluencers)) {
+            reportDeaths();
+        }
+
+        // remove the dead particles, the last live particle takes their slot
+        int i = 0;
+        while (i < d.aliveCount()) {
+            if (d.life[i] <= 0) {
+                d.remove(i);
+            } else {
+                i++;
             }
         }
 
+        influenceLiveParticles(0, d.aliveCount(), tpf);
+
         // Spawns particles within the tpf timeslot with proper age
-        float interval = 1f / particlesPerSec;
-        /* TODO: Code removed -capdevon
+        if (emissionSchedule != null) {
+            updateSchedule(tpf, motionFrom, motionTo, min, max);
+            return;
+        }
+
+        float interval = 1f / getEmissionRate();
         float originalTpf = tpf;
-        */
         tpf += timeDifference;
 
+        int num = 0;
         while (tpf > interval) {
             tpf -= interval;
-            Particle p = emitParticle(min, max);
-            if (p != null) {
-                p.life -= tpf;
-                /* TODO: Code removed -capdevon
-                if (lastPos != null && isInWorldSpace()) {
-                    p.position.interpolateLocal(lastPos, 1 - tpf / originalTpf);
+            num++;
+        }
+        timeDifference = tpf;
+
+        if (num > 0) {
+            spawnParticles(num, tpf, interval, originalTpf, motionFrom, motionTo, min, max);
+        }
+    }
+
+    /**
+     * Spawns <code>num</code> particles during a step, evenly spaced in
+     * time: the youngest one has the given age, each older one
+     * <code>interval</code> more. Particles that died meanwhile are removed,
+     * the others are aged accordingly.
+     */
+    private void spawnParticles(int num, float youngestAge, float interval, float stepTpf,
+            float motionFrom, float motionTo, Vector3f min, Vector3f max) {
+        ParticleData d = particleData;
+
+        // a particle of age t was due when the emitter was at the
+        // fraction 1 - t / stepTpf of this step's motion
+        float motionStart = motionTo;
+        float motionStep = 0f;
+        if (stepTpf > 0) {
+            float motionRange = motionTo - motionFrom;
+            float firstAge = youngestAge + (num - 1) * interval;
+            motionStart = motionFrom + motionRange * (1f - firstAge / stepTpf);
+            motionStep = motionRange * interval / stepTpf;
+        }
+
+        int from = emitParticles(num, min, max, motionStart, motionStep);
+        int to = d.aliveCount();
+
+        // the particles are spawned oldest first, each one is aged by
+        // the time elapsed since its own spawn; walking the range
+        // backwards, a dead particle is replaced by one already aged
+        float age = youngestAge + (num - (to - from)) * interval;
+        for (int idx = to - 1; idx >= from; idx--) {
+            d.life[idx] -= age;
+            if (d.life[idx] <= 0) {
+                d.remove(idx);
+            } else {
+                updateParticle(idx, age, min, max);
+            }
+            age += interval;
+        }
+
+        influenceLiveParticles(from, d.aliveCount(), 0f);
+    }
+
+    /**
+     * Plays the emission schedule over a step: the step is cut at the end
+     * of each cycle, and each piece emits the rate and the bursts of its
+     * time span.
+     */
+    private void updateSchedule(float tpf, float motionFrom, float motionTo, Vector3f min, Vector3f max) {
+        EmissionSchedule schedule = emissionSchedule;
+        float duration = schedule.getDuration();
+        float remaining = tpf;
+
+        while (remaining > 0 && emissionTime < duration) {
+            float start = emissionTime;
+            float span = Math.min(remaining, duration - start);
+            float end = start + span;
+            remaining -= span;
+            // the age of a particle spawned at the end of this piece
+            float endAge = remaining;
+
+            // the rate, integrated exactly between the keys
+            if (schedule.hasRateCurve()) {
+                emissionDebt += schedule.integrateRate(start, end) * lodRateScale;
+                int num = (int) emissionDebt;
+                if (num > 0) {
+                    emissionDebt -= num;
+                    float interval = span / num;
+                    spawnParticles(num, endAge + 0.5f * interval, interval, tpf,
+                            motionFrom, motionTo, min, max);
+                }
+            } else {
+                float interval = 1f / getEmissionRate();
+                float time = span + timeDifference;
+                int num = 0;
+                while (time > interval) {
+                    time -= interval;
+                    num++;
                 }
-                */
-                if (p.life <= 0) {
-                    freeParticle(lastUsed);
-                } else {
-                    updateParticle(p, tpf, min, max);
+                timeDifference = time;
+                if (num > 0) {
+                    spawnParticles(num, endAge + time, interval, tpf, motionFrom, motionTo, min, max);
                 }
             }
+
+            // the last piece of the cycle also fires the bursts keyed at its
+            // end, there is no piece after it
+            boolean last = end >= duration;
+            for (int i = 0; i < schedule.getNumBursts(); i++) {
+                EmissionSchedule.Burst burst = schedule.getBurst(i);
+                int cycles = burst.getCycles();
+                float interval = burst.getInterval();
+
+                // the first cycle at or after the start of the piece
+                int cycle = 0;
+                if (interval > 0 && start > burst.getTime()) {
+                    cycle = (int) FastMath.ceil((start - burst.getTime()) / interval);
+                }
+                while (cycles == 0 || cycle < cycles) {
+                    float time = burst.getTime() + cycle * interval;
+                    if (time > end || (time == end && !last)) {
+                        break;
+                    }
+                    int count = Math.round(burst.getCount() * lodRateScale);
+                    if (time >= start && count > 0) {
+                        spawnParticles(count, endAge + end - time, 0f, tpf,
+                                motionFrom, motionTo, min, max);
+                    }
+                    if (!(interval > 0)) {
+                        break;
+                    }
+                    cycle++;
+                }
+            }
+
+            emissionTime = end;
+            if (emissionTime >= duration && schedule.isLooping()) {
+                emissionTime = 0;
+            }
         }
-        timeDifference = tpf;
+    }
+
+    /**
+     * Copies the bounds computed by the last update into the mesh bound.
+     */
+    void applyParticleBounds() {
+        TempVars vars = TempVars.get();
+        Vector3f min = vars.vect1.set(boundsMin);
+        Vector3f max = vars.vect2.set(boundsMax);
 
-        /* TODO: Code removed -capdevon
-        if (lastPos == null) {
-            lastPos = new Vector3f();
+        if (simulationRate > 0) {
+            // the rendered positions lie between the last two steps
+            min.minLocal(prevBoundsMin);
+            max.maxLocal(prevBoundsMax);
         }
-        lastPos.set(getWorldTranslation());
-        */
+
         //This check avoids a NaN bounds when all the particles are dead during the first update.
         if (!min.equals(Vector3f.POSITIVE_INFINITY) && !max.equals(Vector3f.NEGATIVE_INFINITY)) {
             BoundingBox bbox = (BoundingBox) this.getMesh().getBound();
@@ -955,17 +1789,338 @@ public class MyParticleEmitter extends Geometry implements BaseEmitter {
         this.colorInfluencer = colorInfluencer;
     }
 
+    /**
+     * Returns the curve of the size of the particles over their life.
+     *
+     * @return the curve, or null if the size goes linearly from the start
+     * size to the end size
+     */
+    public LifeCurve getSizeCurve() {
+        return sizeCurve;
+    }
+
+    /**
+     * Sets the size of the particles over their life (in world units),
+     * instead of the linear blend of the start and end sizes.
+     *
+     * @param sizeCurve the curve, or null to use the start and end sizes
+     */
+    public void setSizeCurve(LifeCurve sizeCurve) {
+        this.sizeCurve = sizeCurve;
+    }
+
+    /**
+     * Returns the curve that scales the rotation speed of the particles over
+     * their life.
+     *
+     * @return the curve, or null for a constant rotation speed
+     */
+    public LifeCurve getRotateSpeedCurve() {
+        return rotateSpeedCurve;
+    }
+
+    /**
+     * Scales the rotation speed of each particle over its life, to spin
+     * fast at birth and slow down for instance. A prewarm keeps the
+     * particles turning at their base speed.
+     *
+     * @param rotateSpeedCurve the factor applied to the rotation speed, or
+     * null for a constant speed
+     */
+    public void setRotateSpeedCurve(LifeCurve rotateSpeedCurve) {
+        this.rotateSpeedCurve = rotateSpeedCurve;
+    }
+
+    /**
+     * Returns the curve of the speed damping of the particles over their
+     * life.
+     *
+     * @return the curve, or null for no damping
+     */
+    public LifeCurve getSpeedDampingCurve() {
+        return speedDampingCurve;
+    }
+
+    /**
+     * Slows the particles down over their life: each update divides the
+     * velocity by <code>1 + k * tpf</code>, where <code>k</code> is the
+     * value of the curve (per second). Sparks that burst out and stall, for
+     * instance. A prewarm ignores the damping.
+     *
+     * @param speedDampingCurve the damping (per second, &ge;0), or null for
+     * none
+     */
+    public void setSpeedDampingCurve(LifeCurve speedDampingCurve) {
+        this.speedDampingCurve = speedDampingCurve;
+    }
+
+    /**
+     * Returns the curve of the alpha of the particles over their life.
+     *
+     * @return the curve, or null if the alpha comes from the colors
+     */
+    public LifeCurve getAlphaCurve() {
+        return alphaCurve;
+    }
+
+    /**
+     * Sets the alpha of the particles over their life (0-1), replacing the
+     * alpha of the start and end colors, or the one of the color influencer.
+     *
+     * @param alphaCurve the curve, or null to use the alpha of the colors
+     */
+    public void setAlphaCurve(LifeCurve alphaCurve) {
+        this.alphaCurve = alphaCurve;
+    }
+
+    /**
+     * Returns the influencer pipeline of this emitter.
+     *
+     * @return the pipeline, or null if none
+     *
+     * @see #setInfluencerPipeline(InfluencerPipeline)
+     */
+    public InfluencerPipeline getInfluencerPipeline() {
+        return influencerPipeline;
+    }
+
+    /**
+     * Sets influencers that run at given stages of the life of the
+     * particles: at spawn after the particle influencer, every frame after
+     * the color influencer, and at death. See {@link InfluencerPipeline}.
+     *
+     * @param influencerPipeline the pipeline, or null for none
+     */
+    public void setInfluencerPipeline(InfluencerPipeline influencerPipeline) {
+        this.influencerPipeline = influencerPipeline;
+    }
+
+    /**
+     * Adds an obstacle for the particles. The colliders are tested after
+     * the particles move, in the order they were added; the ones that don't
+     * meet the bounds of the particles are skipped for the whole update.
+     * The particles spawned during an update don't collide until the next
+     * one; {@link #prewarm(float)} steps the emitter so that the particles
+     * collide on the way.
+     *
+     * @param collider the collider, in the space of the particles (not null)
+     */
+    public void addCollider(ParticleCollider collider) {
+        ParticleCollider[] array = Arrays.copyOf(colliders, colliders.length + 1);
+        array[colliders.length] = collider;
+        colliders = array;
+    }
+
+    /**
+     * Removes an obstacle for the particles.
+     *
+     * @param collider the collider to remove
+     * @return true if the collider was found and removed
+     */
+    public boolean removeCollider(ParticleCollider collider) {
+        for (int i = 0; i < colliders.length; i++) {
+            if (colliders[i] == collider) {
+                ParticleCollider[] array = new ParticleCollider[colliders.length - 1];
+                System.arraycopy(colliders, 0, array, 0, i);
+                System.arraycopy(colliders, i + 1, array, i, array.length - i);
+                colliders = array;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Removes all the obstacles for the particles.
+     */
+    public void clearColliders() {
+        colliders = new ParticleCollider[0];
+    }
+
+    public int getNumColliders() {
+        return colliders.length;
+    }
+
+    public ParticleCollider getCollider(int index) {
+        return colliders[index];
+    }
+
+    /**
+     * Returns the number of live particles from which the update is split
+     * into chunks that run in parallel.
+     *
+     * @return the number of live particles
+     *
+     * @see #setParallelThreshold(int)
+     */
+    public int getParallelThreshold() {
+        return parallelThreshold;
+    }
+
+    /**
+     * Sets the number of live particles from which the update is split into
+     * chunks that run in parallel on the {@link #getForkJoinPool() fork-join
+     * pool}. Smaller emitters are updated on the calling thread.
+     *
+     * <p>
+     * The chunks are merged deterministically, the result is identical to the
+     * one of the serial update.
+     *
+     * @param parallelThreshold the number of live particles (default 8192)
+     */
+    public void setParallelThreshold(int parallelThreshold) {
+        this.parallelThreshold = parallelThreshold;
+    }
+
+    /**
+     * Returns the number of simulation steps per second.
+     *
+     * @return the steps per second, or 0 if the simulation follows the frame
+     * rate
+     *
+     * @see #setSimulationRate(float)
+     */
+    public float getSimulationRate() {
+        return simulationRate;
+    }
+
+    /**
+     * Sets the number of simulation steps per second.
+     *
+     * <p>
+     * With a rate greater than zero, the particles are advanced in fixed
+     * steps, independently of the frame rate, and the mesh interpolates their
+     * positions between the last two steps. Slow effects such as smoke or dust
+     * look the same at 15-20 steps per second and cost a fraction of the
+     * per-frame update. At most 4 steps are taken in one frame, the rest of a
+     * long frame is dropped.
+     *
+     * @param simulationRate the steps per second, or 0 to advance the
+     * particles once per frame (default)
+     */
+    public void setSimulationRate(float simulationRate) {
+        this.simulationRate = simulationRate;
+        accumulator = 0;
+        particleData.savePositions();
+        prevBoundsMin.set(boundsMin);
+        prevBoundsMax.set(boundsMax);
+    }
+
+    /**
+     * Returns the pool that runs the parallel update.
+     *
+     * @return the pool (not null)
+     */
+    public ForkJoinPool getForkJoinPool() {
+        return forkJoinPool != null ? forkJoinPool : ForkJoinPool.commonPool();
+    }
+
+    /**
+     * Sets the pool that runs the parallel update.
+     *
+     * @param forkJoinPool the pool, or <code>null</code> to use the common pool
+     */
+    public void setForkJoinPool(ForkJoinPool forkJoinPool) {
+        this.forkJoinPool = forkJoinPool;
+    }
+
+    /**
+     * Returns the random stream of this emitter, which the spawned
+     * particles, the batch shapes and the batch influencers draw from. It
+     * must only be used by the thread that updates the emitter.
+     *
+     * @return the random stream (not null)
+     */
+    public ParticleRandom getRandom() {
+        return random;
+    }
+
+    /**
+     * Restarts the random stream of this emitter from the given seed. From
+     * the same state, the same seed and the same updates spawn exactly the
+     * same particles, as long as the shape and the influencer support
+     * batches (the engine shapes still draw from {@link FastMath}).
+     *
+     * @param seed the seed
+     */
+    public void setRandomSeed(long seed) {
+        random.setSeed(seed);
+    }
+
     /**
      * Callback from Control.update(), do not use.
      *
      * @param tpf time per frame (in seconds)
      */
     protected void updateFromControl(float tpf) {
-        if (enabled) {
-            this.updateParticleState(tpf);
+        if (!managed) {
+            this.updateSimulation(tpf);
+            this.applyParticleBounds();
         }
     }
 
+    /**
+     * Advances the particles without touching the scene graph, see
+     * {@link ParticleSystemAppState}.
+     *
+     * @param tpf time per frame (in seconds)
+     */
+    void updateSimulation(float tpf) {
+        if (!enabled) {
+            // don't spread the next spawns over the time spent disabled
+            hasLastTransform = false;
+            return;
+        }
+        updateLod();
+        if (simulationRate <= 0) {
+            this.updateParticleState(tpf, 0f, 1f);
+            saveLastTransform();
+            return;
+        }
+
+        float step = 1f / simulationRate;
+        accumulator = Math.min(accumulator + tpf, step * MAX_STEPS_PER_FRAME);
+
+        int steps = 0;
+        for (float time = accumulator; time >= step; time -= step) {
+            steps++;
+        }
+        // the steps of this frame share the motion of the emitter
+        for (int i = 0; i < steps; i++) {
+            accumulator -= step;
+            prevBoundsMin.set(boundsMin);
+            prevBoundsMax.set(boundsMax);
+            particleData.savePositions();
+            this.updateParticleState(step, (float) i / steps, (float) (i + 1) / steps);
+        }
+        if (steps > 0) {
+            saveLastTransform();
+        }
+    }
+
+    /**
+     * Remembers the world transform the particles were spawned with, the
+     * next spawns are interpolated from there.
+     */
+    private void saveLastTransform() {
+        lastTransform.set(worldTransform);
+        hasLastTransform = true;
+    }
+
+    /**
+     * Returns true if this emitter is updated by a
+     * {@link ParticleSystemAppState} instead of its control.
+     *
+     * @return true if managed by an app state
+     */
+    public boolean isManaged() {
+        return managed;
+    }
+
+    void setManaged(boolean managed) {
+        this.managed = managed;
+    }
+
     /**
      * Callback from Control.render(), do not use.
      *
@@ -975,28 +2130,44 @@ public class MyParticleEmitter extends Geometry implements BaseEmitter {
     protected void renderFromControl(RenderManager rm, ViewPort vp) {
         Camera cam = vp.getCamera();
 
+        if (lod != null) {
+            measureLod(cam);
+        }
+
+        if (simulationRate > 0) {
+            particleData.setInterpolation(accumulator * simulationRate);
+        } else {
+            particleData.setInterpolation(1f);
+        }
+
         if (meshType == ParticleMesh.Type.Point) {
             float C = cam.getProjectionMatrix().m00;
             C *= cam.getWidth() * 0.5f;
 
-            // send attenuation params
-            this.getMaterial().setFloat("Quadratic", C);
+            // send attenuation params, only when they change to avoid boxing
+            Material mat = this.getMaterial();
+            MatParam param = mat.getParam("Quadratic");
+            if (param == null || (Float) param.getValue() != C) {
+                mat.setFloat("Quadratic", C);
+            }
         }
 
         if (!worldSpace) {
             TempVars vars = TempVars.get();
             Matrix3f inverseRotation = this.getWorldRotation().toRotationMatrix(vars.tempMat3).invertLocal();
-            particleMesh.updateParticleData(particles, cam, inverseRotation);
+            particleMesh.updateParticleData(particleData, cam, inverseRotation);
             vars.release();
 
         } else {
-            particleMesh.updateParticleData(particles, cam, Matrix3f.IDENTITY);
+            particleMesh.updateParticleData(particleData, cam, Matrix3f.IDENTITY);
         }
     }
 
     public void preload(RenderManager rm, ViewPort vp) {
-        this.updateParticleState(0);
-        particleMesh.updateParticleData(particles, vp.getCamera(), Matrix3f.IDENTITY);
+        this.updateParticleState(0, 1f, 1f);
+        this.applyParticleBounds();
+        particleData.setInterpolation(1f);
+        particleMesh.updateParticleData(particleData, vp.getCamera(), Matrix3f.IDENTITY);
     }
 
     @Override
@@ -1006,7 +2177,7 @@ public class MyParticleEmitter extends Geometry implements BaseEmitter {
         oc.write(shape, "shape", DEFAULT_SHAPE);
         oc.write(meshType, "meshType", ParticleMesh.Type.Triangle);
         oc.write(enabled, "enabled", true);
-        oc.write(particles.length, "numParticles", 0);
+        oc.write(particleData.capacity(), "numParticles", 0);
         oc.write(particlesPerSec, "particlesPerSec", 0);
         oc.write(lowLife, "lowLife", 0);
         oc.write(highLife, "highLife", 0);
@@ -1024,6 +2195,17 @@ public class MyParticleEmitter extends Geometry implements BaseEmitter {
         oc.write(selectRandomImage, "selectRandomImage", false);
         oc.write(randomAngle, "randomAngle", false);
         oc.write(rotateSpeed, "rotateSpeed", 0);
+        oc.write(parallelThreshold, "parallelThreshold", 8192);
+        oc.write(simulationRate, "simulationRate", 0);
+        oc.write(interpolateSpawns, "interpolateSpawns", true);
+        oc.write(emissionSchedule, "emissionSchedule", null);
+        oc.write(lod, "lod", null);
+        oc.write(influencerPipeline, "influencerPipeline", null);
+        oc.write(sizeCurve, "sizeCurve", null);
+        oc.write(rotateSpeedCurve, "rotateSpeedCurve", null);
+        oc.write(speedDampingCurve, "speedDampingCurve", null);
+        oc.write(alphaCurve, "alphaCurve", null);
+        oc.write(colliders, "colliders", null);
 
         oc.write(particleInfluencer, "influencer", DEFAULT_INFLUENCER);
     }
@@ -1067,6 +2249,19 @@ public class MyParticleEmitter extends Geometry implements BaseEmitter {
         selectRandomImage = ic.readBoolean("selectRandomImage", false);
         randomAngle = ic.readBoolean("randomAngle", false);
         rotateSpeed = ic.readFloat("rotateSpeed", 0);
+        parallelThreshold = ic.readInt("parallelThreshold", 8192);
+        simulationRate = ic.readFloat("simulationRate", 0);
+        interpolateSpawns = ic.readBoolean("interpolateSpawns", true);
+        emissionSchedule = (EmissionSchedule) ic.readSavable("emissionSchedule", null);
+        lod = (EmitterLod) ic.readSavable("lod", null);
+        influencerPipeline = (InfluencerPipeline) ic.readSavable("influencerPipeline", null);
+        sizeCurve = (LifeCurve) ic.readSavable("sizeCurve", null);
+        rotateSpeedCurve = (LifeCurve) ic.readSavable("rotateSpeedCurve", null);
+        speedDampingCurve = (LifeCurve) ic.readSavable("speedDampingCurve", null);
+        alphaCurve = (LifeCurve) ic.readSavable("alphaCurve", null);
+        Savable[] savedColliders = ic.readSavableArray("colliders", null);
+        colliders = (savedColliders == null) ? new ParticleCollider[0]
+                : Arrays.copyOf(savedColliders, savedColliders.length, ParticleCollider[].class);
 
         this.initParticleMesh();
         this.setNumParticles(numParticles);
@@ -1095,17 +2290,33 @@ public class MyParticleEmitter extends Geometry implements BaseEmitter {
         this.endColor = cloner.clone(endColor);
         this.particleInfluencer = cloner.clone(particleInfluencer);
         this.gravity = cloner.clone(gravity);
+        this.emissionSchedule = cloner.clone(emissionSchedule);
+        this.lod = cloner.clone(lod);
+        this.influencerPipeline = cloner.clone(influencerPipeline);
+        this.sizeCurve = cloner.clone(sizeCurve);
+        this.rotateSpeedCurve = cloner.clone(rotateSpeedCurve);
+        this.speedDampingCurve = cloner.clone(speedDampingCurve);
+        this.alphaCurve = cloner.clone(alphaCurve);
+        this.colliders = cloner.clone(colliders);
 
         setMeshType(meshType);
 
-        // change in behavior: temp and lastPos were not cloned before...
-        // perhaps because it was believed that 'transient' fields were excluded
-        // from cloning?  (they aren't)
-        // If it was ok for these to be shared because of how they are used
-        // then they could just as well be made static... else I think it's clearer
-        // to clone them.
-        this.temp = cloner.clone(temp);
-        this.lastPos = cloner.clone(lastPos);
+        // scratch state, never shared with the original
+        this.particle = new Particle();
+        this.updateTask = null;
+        this.random = new ParticleRandom();
+        this.batchShapeSource = null;
+        this.batchShape = null;
+        this.batchInfluencerSource = null;
+        this.batchInfluencer = null;
+        this.deadIndices = null;
+        this.activeColliders = null;
+        this.boundsMin = cloner.clone(boundsMin);
+        this.boundsMax = cloner.clone(boundsMax);
+        this.prevBoundsMin = cloner.clone(prevBoundsMin);
+        this.prevBoundsMax = cloner.clone(prevBoundsMax);
+        this.managed = false;
+        this.lastTransform = lastTransform.clone();
     }
 
 }
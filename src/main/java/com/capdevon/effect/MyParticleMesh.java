@@ -31,7 +31,6 @@
  */
 package com.capdevon.effect;
 
-import com.jme3.effect.Particle;
 import com.jme3.math.Matrix3f;
 import com.jme3.renderer.Camera;
 import com.jme3.scene.Mesh;
@@ -44,6 +43,10 @@ import com.jme3.scene.Mesh;
  */
 public abstract class MyParticleMesh extends Mesh {
 
+    // vertices and primitives of the live particles, the only ones drawn
+    private int liveVertices;
+    private int liveElements;
+
     /**
      * Initialize mesh data.
      *
@@ -64,9 +67,40 @@ public abstract class MyParticleMesh extends Mesh {
     /**
      * Update the particle visual data. Typically called every frame.
      *
-     * @param particles       the particles to update
+     * @param particleData    the particles to update
      * @param cam             the camera to use for billboarding
      * @param inverseRotation the inverse rotation matrix
      */
-    public abstract void updateParticleData(Particle[] particles, Camera cam, Matrix3f inverseRotation);
+    public abstract void updateParticleData(ParticleData particleData, Camera cam, Matrix3f inverseRotation);
+
+    /**
+     * Sets the number of vertices and primitives to draw. The live range
+     * changes almost every frame and {@link #updateCounts()} allocates an
+     * iterator, so the counts of the live particles are kept here instead.
+     *
+     * @param vertices the number of vertices of the live particles
+     * @param elements the number of primitives of the live particles
+     */
+    protected void setLiveCounts(int vertices, int elements) {
+        this.liveVertices = vertices;
+        this.liveElements = elements;
+    }
+
+    @Override
+    public int getVertexCount() {
+        return liveVertices;
+    }
+
+    @Override
+    public int getTriangleCount() {
+        return liveElements;
+    }
+
+    @Override
+    public int getTriangleCount(int lod) {
+        if (lod == 0) {
+            return liveElements;
+        }
+        return super.getTriangleCount(lod);
+    }
 }
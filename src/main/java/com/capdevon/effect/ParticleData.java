@@ -0,0 +1,303 @@
+package com.capdevon.effect;
+
+import com.jme3.effect.Particle;
+
+/**
+ * Structure-of-arrays storage for the particles of a {@link MyParticleEmitter}.
+ * <p>
+ * Each particle attribute lives in its own primitive array, indexed by the
+ * particle slot, so the update and mesh fill loops stream through contiguous
+ * memory instead of following one object per particle. Colors are stored
+ * packed in a,b,g,r order, ready to be written into a vertex buffer.
+ * <p>
+ * Live particles are always kept packed in the range
+ * <code>[0, aliveCount)</code>: a dead particle is replaced by the last live
+ * one, so loops never have to skip over empty slots.
+ * <p>
+ * The positions of the previous simulation step are kept as well, so that a
+ * mesh can interpolate between the last two steps when the emitter runs at a
+ * fixed rate lower than the frame rate.
+ *
+ * @author capdevon
+ */
+public final class ParticleData {
+
+    private final int capacity;
+    private int aliveCount;
+    private float interpolation = 1f;
+
+    public final float[] posX, posY, posZ;
+    public final float[] prevX, prevY, prevZ;
+    public final float[] velX, velY, velZ;
+    public final float[] life;
+    public final float[] startLife;
+    public final float[] size;
+    public final float[] angle;
+    public final float[] rotateSpeed;
+    public final int[] imageIndex;
+    public final int[] color;
+
+    /**
+     * The impact predicted for each particle by a
+     * {@link com.capdevon.effect.collision.SceneCollider}: the plane
+     * <code>n.p = d</code> of the surface ahead (a zero normal if none),
+     * and the number of updates before the next raycast. Null until
+     * {@link #allocateImpacts()} is called.
+     */
+    public float[] impactNX, impactNY, impactNZ, impactD;
+    public int[] impactCheck;
+
+    /**
+     * Instantiate a ParticleData with room for the given number of particles.
+     *
+     * @param capacity the maximum number of particles (&ge;0)
+     */
+    public ParticleData(int capacity) {
+        this.capacity = capacity;
+        posX = new float[capacity];
+        posY = new float[capacity];
+        posZ = new float[capacity];
+        prevX = new float[capacity];
+        prevY = new float[capacity];
+        prevZ = new float[capacity];
+        velX = new float[capacity];
+        velY = new float[capacity];
+        velZ = new float[capacity];
+        life = new float[capacity];
+        startLife = new float[capacity];
+        size = new float[capacity];
+        angle = new float[capacity];
+        rotateSpeed = new float[capacity];
+        imageIndex = new int[capacity];
+        color = new int[capacity];
+    }
+
+    /**
+     * Allocates the arrays of the predicted impacts, if not done yet. The
+     * live particles start without an impact, due for a raycast.
+     */
+    public void allocateImpacts() {
+        if (impactNX == null) {
+            impactNX = new float[capacity];
+            impactNY = new float[capacity];
+            impactNZ = new float[capacity];
+            impactD = new float[capacity];
+            impactCheck = new int[capacity];
+        }
+    }
+
+    /**
+     * Returns the maximum number of particles.
+     *
+     * @return the capacity
+     */
+    public int capacity() {
+        return capacity;
+    }
+
+    /**
+     * Returns the number of live particles, stored at indices
+     * <code>[0, aliveCount)</code>.
+     *
+     * @return the number of live particles
+     */
+    public int aliveCount() {
+        return aliveCount;
+    }
+
+    /**
+     * Returns the blend factor between the previous and the current
+     * positions that the mesh should render.
+     *
+     * @return the blend factor (0=previous, 1=current)
+     */
+    public float getInterpolation() {
+        return interpolation;
+    }
+
+    /**
+     * Sets the blend factor between the previous and the current positions
+     * that the mesh should render.
+     *
+     * @param interpolation the blend factor (0=previous, 1=current)
+     */
+    public void setInterpolation(float interpolation) {
+        this.interpolation = interpolation;
+    }
+
+    /**
+     * Saves the positions of the live particles as the previous positions,
+     * before a new simulation step.
+     */
+    public void savePositions() {
+        System.arraycopy(posX, 0, prevX, 0, aliveCount);
+        System.arraycopy(posY, 0, prevY, 0, aliveCount);
+        System.arraycopy(posZ, 0, prevZ, 0, aliveCount);
+    }
+
+    /**
+     * Appends a new particle after the live range.
+     *
+     * @return the index of the new particle, or -1 if the storage is full
+     */
+    public int add() {
+        if (aliveCount >= capacity) {
+            return -1;
+        }
+        int i = aliveCount++;
+        clear(i);
+        return i;
+    }
+
+    /**
+     * Appends up to the given number of new particles after the live range,
+     * as many as the storage can hold.
+     *
+     * @param count the number of particles to add, nothing is added if
+     * &le;0
+     * @return the index of the first new particle, the new particles occupy
+     * <code>[index, aliveCount)</code>
+     */
+    public int add(int count) {
+        int from = aliveCount;
+        if (count <= 0) {
+            return from;
+        }
+        aliveCount = Math.min(capacity, from + count);
+        for (int i = from; i < aliveCount; i++) {
+            clear(i);
+        }
+        return from;
+    }
+
+    /**
+     * Kills the particle at the given index by moving the last live particle
+     * into its slot.
+     *
+     * @param i the index of the particle to remove (&lt;aliveCount)
+     */
+    public void remove(int i) {
+        int last = --aliveCount;
+        if (i != last) {
+            copy(last, i);
+        }
+    }
+
+    /**
+     * Kills all the particles at once.
+     */
+    public void removeAll() {
+        aliveCount = 0;
+    }
+
+    /**
+     * Copies the particle at one index over the particle at another index.
+     *
+     * @param src the index to copy from
+     * @param dst the index to copy to
+     */
+    public void copy(int src, int dst) {
+        posX[dst] = posX[src];
+        posY[dst] = posY[src];
+        posZ[dst] = posZ[src];
+        prevX[dst] = prevX[src];
+        prevY[dst] = prevY[src];
+        prevZ[dst] = prevZ[src];
+        velX[dst] = velX[src];
+        velY[dst] = velY[src];
+        velZ[dst] = velZ[src];
+        life[dst] = life[src];
+        startLife[dst] = startLife[src];
+        size[dst] = size[src];
+        angle[dst] = angle[src];
+        rotateSpeed[dst] = rotateSpeed[src];
+        imageIndex[dst] = imageIndex[src];
+        color[dst] = color[src];
+        if (impactNX != null) {
+            impactNX[dst] = impactNX[src];
+            impactNY[dst] = impactNY[src];
+            impactNZ[dst] = impactNZ[src];
+            impactD[dst] = impactD[src];
+            impactCheck[dst] = impactCheck[src];
+        }
+    }
+
+    /**
+     * Resets the particle at the given index to the dead state.
+     *
+     * @param i the particle index
+     */
+    public void clear(int i) {
+        life[i] = 0;
+        size[i] = 0f;
+        color[i] = 0;
+        imageIndex[i] = 0;
+        angle[i] = 0;
+        rotateSpeed[i] = 0;
+        if (impactNX != null) {
+            impactNX[i] = 0;
+            impactNY[i] = 0;
+            impactNZ[i] = 0;
+            impactCheck[i] = 0;
+        }
+    }
+
+    /**
+     * Copies the particle at the given index into a {@link Particle}.
+     *
+     * @param i     the particle index
+     * @param store the particle to fill (not null, modified)
+     * @return the store particle
+     */
+    public Particle get(int i, Particle store) {
+        store.position.set(posX[i], posY[i], posZ[i]);
+        store.velocity.set(velX[i], velY[i], velZ[i]);
+        store.life = life[i];
+        store.startlife = startLife[i];
+        store.size = size[i];
+        store.angle = angle[i];
+        store.rotateSpeed = rotateSpeed[i];
+        store.imageIndex = imageIndex[i];
+        store.color.fromIntABGR(color[i]);
+        return store;
+    }
+
+    /**
+     * Copies the state of a {@link Particle} into the given index.
+     *
+     * @param i the particle index
+     * @param p the particle to read (not null, unaffected)
+     */
+    public void set(int i, Particle p) {
+        posX[i] = p.position.x;
+        posY[i] = p.position.y;
+        posZ[i] = p.position.z;
+        velX[i] = p.velocity.x;
+        velY[i] = p.velocity.y;
+        velZ[i] = p.velocity.z;
+        life[i] = p.life;
+        startLife[i] = p.startlife;
+        size[i] = p.size;
+        angle[i] = p.angle;
+        rotateSpeed[i] = p.rotateSpeed;
+        imageIndex[i] = p.imageIndex;
+        color[i] = p.color.asIntABGR();
+    }
+
+    /**
+     * Packs the given color components into an int in a,b,g,r order.
+     *
+     * @param r the red component (0-1)
+     * @param g the green component (0-1)
+     * @param b the blue component (0-1)
+     * @param a the alpha component (0-1)
+     * @return the packed color
+     */
+    public static int toABGR(float r, float g, float b, float a) {
+        return (((int) (a * 255) & 0xFF) << 24)
+                | (((int) (b * 255) & 0xFF) << 16)
+                | (((int) (g * 255) & 0xFF) << 8)
+                | (((int) (r * 255) & 0xFF));
+    }
+
+}
@@ -0,0 +1,120 @@
+package com.capdevon.effect;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A fast, seedable random number generator owned by a single emitter.
+ * <p>
+ * Unlike {@link com.jme3.math.FastMath#nextRandomFloat()}, which draws from
+ * one <code>java.util.Random</code> shared by the whole application (an
+ * atomic update per call), each stream is private: it is not thread-safe,
+ * and needs not be. A task running on another thread takes its own stream
+ * with {@link #split()}. Given the same seed, a stream always produces the
+ * same sequence, so effects can be replayed exactly.
+ * <p>
+ * The generator is xoroshiro128+, seeded through SplitMix64.
+ *
+ * @author capdevon
+ */
+public final class ParticleRandom {
+
+    private static final long GOLDEN_GAMMA = 0x9E3779B97F4A7C15L;
+    private static final AtomicLong seedUniquifier = new AtomicLong(System.nanoTime());
+
+    private long s0;
+    private long s1;
+
+    /**
+     * Instantiate a ParticleRandom with a seed that differs from the other
+     * instances.
+     */
+    public ParticleRandom() {
+        this(seedUniquifier.getAndAdd(GOLDEN_GAMMA) ^ System.nanoTime());
+    }
+
+    /**
+     * Instantiate a ParticleRandom with the given seed.
+     *
+     * @param seed the seed
+     */
+    public ParticleRandom(long seed) {
+        setSeed(seed);
+    }
+
+    /**
+     * Restarts the stream from the given seed.
+     *
+     * @param seed the seed
+     */
+    public void setSeed(long seed) {
+        s0 = mix(seed += GOLDEN_GAMMA);
+        s1 = mix(seed + GOLDEN_GAMMA);
+        if ((s0 | s1) == 0) {
+            s1 = GOLDEN_GAMMA; // the all zero state is a fixed point
+        }
+    }
+
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    /**
+     * Returns a new stream, seeded from this one. The new stream is
+     * independent of this one and can be used on another thread.
+     *
+     * @return a new stream (not null)
+     */
+    public ParticleRandom split() {
+        return new ParticleRandom(nextLong());
+    }
+
+    /**
+     * Returns the next 64 random bits.
+     *
+     * @return a random long
+     */
+    public long nextLong() {
+        long a = s0;
+        long b = s1;
+        long result = a + b;
+        b ^= a;
+        s0 = Long.rotateLeft(a, 24) ^ b ^ (b << 16);
+        s1 = Long.rotateLeft(b, 37);
+        return result;
+    }
+
+    /**
+     * Returns a random float, uniformly distributed.
+     *
+     * @return a float in <code>[0, 1)</code>
+     */
+    public float nextFloat() {
+        // the high bits are the best ones of xoroshiro128+
+        return (nextLong() >>> 40) * 0x1.0p-24f;
+    }
+
+    /**
+     * Returns a random int, uniformly distributed.
+     *
+     * @param bound the number of possible values (&gt;0)
+     * @return an int in <code>[0, bound)</code>
+     */
+    public int nextInt(int bound) {
+        return (int) (((nextLong() >>> 32) * bound) >>> 32);
+    }
+
+    /**
+     * Returns a random int, uniformly distributed, like
+     * {@link com.jme3.math.FastMath#nextRandomInt(int, int)}.
+     *
+     * @param min the lowest value
+     * @param max the highest value (&ge;min)
+     * @return an int in <code>[min, max]</code>
+     */
+    public int nextInt(int min, int max) {
+        return min + nextInt(max - min + 1);
+    }
+
+}
@@ -0,0 +1,189 @@
+package com.capdevon.effect;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.jme3.app.Application;
+import com.jme3.app.state.BaseAppState;
+import com.jme3.util.SafeArrayList;
+
+/**
+ * Advances all the registered {@link MyParticleEmitter emitters}
+ * concurrently, instead of one after the other during the control pass of
+ * the scene graph.
+ * <p>
+ * The simulation runs on a {@link ForkJoinPool} in {@link #update(float)} and
+ * all the emitters are finished before it returns, so the scene graph sees
+ * them fully updated. The bounds are then published on the render thread and
+ * the vertex buffers are still filled by each emitter's control when it is
+ * rendered.
+ * <p>
+ * While this state is enabled, the registered emitters skip their
+ * per-control update. Emitters should be unregistered when they are removed
+ * from the scene.
+ *
+ * @author capdevon
+ */
+public class ParticleSystemAppState extends BaseAppState {
+
+    private final SafeArrayList<MyParticleEmitter> emitters = new SafeArrayList<>(MyParticleEmitter.class);
+    private final ForkJoinPool pool;
+    private final UpdateTask updateTask = new UpdateTask();
+
+    /**
+     * Instantiate a ParticleSystemAppState that runs on the common pool.
+     */
+    public ParticleSystemAppState() {
+        this(ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Instantiate a ParticleSystemAppState that runs on the given pool.
+     *
+     * @param pool the pool to run the emitters on (not null)
+     */
+    public ParticleSystemAppState(ForkJoinPool pool) {
+        this.pool = pool;
+    }
+
+    /**
+     * Adds an emitter to be updated by this state.
+     *
+     * @param emitter the emitter to add (not null)
+     */
+    public void register(MyParticleEmitter emitter) {
+        if (!emitters.contains(emitter)) {
+            emitters.add(emitter);
+            emitter.setManaged(isInitialized() && isEnabled());
+        }
+    }
+
+    /**
+     * Removes an emitter, which goes back to being updated by its control.
+     *
+     * @param emitter the emitter to remove
+     */
+    public void unregister(MyParticleEmitter emitter) {
+        if (emitters.remove(emitter)) {
+            emitter.setManaged(false);
+        }
+    }
+
+    /**
+     * Returns the number of registered emitters.
+     *
+     * @return the number of emitters
+     */
+    public int getNumEmitters() {
+        return emitters.size();
+    }
+
+    @Override
+    protected void initialize(Application app) {
+    }
+
+    @Override
+    protected void cleanup(Application app) {
+        setManaged(false);
+        emitters.clear();
+    }
+
+    @Override
+    protected void onEnable() {
+        setManaged(true);
+    }
+
+    @Override
+    protected void onDisable() {
+        setManaged(false);
+    }
+
+    private void setManaged(boolean managed) {
+        for (MyParticleEmitter emitter : emitters.getArray()) {
+            emitter.setManaged(managed);
+        }
+    }
+
+    @Override
+    public void update(float tpf) {
+        MyParticleEmitter[] array = emitters.getArray();
+        if (array.length == 0) {
+            return;
+        }
+
+        // Refresh the world transforms here: the refresh walks up the shared
+        // parents, so the workers must only read them.
+        for (MyParticleEmitter emitter : array) {
+            emitter.getWorldTransform();
+        }
+
+        updateTask.run(array, tpf);
+
+        // Marking the bounds for refresh also walks up the shared parents.
+        for (MyParticleEmitter emitter : array) {
+            emitter.applyParticleBounds();
+        }
+    }
+
+    /**
+     * Forks one worker per thread of the pool, the workers take the emitters
+     * one at a time so that heavy emitters don't hold up a whole batch.
+     */
+    private class UpdateTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final AtomicInteger next = new AtomicInteger();
+        private Worker[] workers = new Worker[0];
+        private int numWorkers;
+        private MyParticleEmitter[] array;
+        private float tpf;
+
+        void run(MyParticleEmitter[] array, float tpf) {
+            this.array = array;
+            this.tpf = tpf;
+            next.set(0);
+
+            numWorkers = Math.min(pool.getParallelism(), array.length);
+            if (workers.length < numWorkers) {
+                workers = new Worker[numWorkers];
+                for (int i = 0; i < numWorkers; i++) {
+                    workers[i] = new Worker();
+                }
+            }
+
+            reinitialize();
+            pool.invoke(this);
+            this.array = null;
+        }
+
+        @Override
+        protected void compute() {
+            for (int i = 1; i < numWorkers; i++) {
+                workers[i].reinitialize();
+                workers[i].fork();
+            }
+            workers[0].reinitialize();
+            workers[0].invoke();
+            // barrier: every emitter is updated once all the workers are joined
+            for (int i = 1; i < numWorkers; i++) {
+                workers[i].join();
+            }
+        }
+
+        private class Worker extends RecursiveAction {
+
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected void compute() {
+                int i;
+                while ((i = next.getAndIncrement()) < array.length) {
+                    array[i].updateSimulation(tpf);
+                }
+            }
+        }
+    }
+
+}
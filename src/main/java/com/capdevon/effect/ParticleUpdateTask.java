@@ -0,0 +1,122 @@
+package com.capdevon.effect;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import com.jme3.math.Vector3f;
+
+/**
+ * Advances the live particles of a {@link MyParticleEmitter} on a
+ * {@link ForkJoinPool}. The live range is split into chunks, each chunk
+ * computes the bounds of its own particles and the bounds are merged once all
+ * the chunks are done.
+ * <p>
+ * The tasks are reused from frame to frame.
+ *
+ * @author capdevon
+ */
+class ParticleUpdateTask extends RecursiveAction {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * The smallest number of particles worth handing to another thread.
+     */
+    private static final int MIN_CHUNK_SIZE = 1024;
+
+    private final MyParticleEmitter emitter;
+    private Chunk[] chunks = new Chunk[0];
+    private int numChunks;
+
+    ParticleUpdateTask(MyParticleEmitter emitter) {
+        this.emitter = emitter;
+    }
+
+    /**
+     * Updates the particles in <code>[0, count)</code> and expands the given
+     * bounds to contain the ones that are still alive.
+     *
+     * @param pool  the pool to run the chunks on (not null)
+     * @param count the number of particles to update
+     * @param tpf   the time per frame (in seconds)
+     * @param min   the minimum corner of the bounds (modified)
+     * @param max   the maximum corner of the bounds (modified)
+     */
+    void update(ForkJoinPool pool, int count, float tpf, Vector3f min, Vector3f max) {
+        if (count <= 0) {
+            return; // no chunk to run
+        }
+        int parallelism = pool.getParallelism();
+        int chunkSize = Math.max(MIN_CHUNK_SIZE, (count + parallelism * 4 - 1) / (parallelism * 4));
+        numChunks = (count + chunkSize - 1) / chunkSize;
+
+        if (chunks.length < numChunks) {
+            Chunk[] array = new Chunk[numChunks];
+            System.arraycopy(chunks, 0, array, 0, chunks.length);
+            for (int i = chunks.length; i < numChunks; i++) {
+                array[i] = new Chunk(emitter);
+            }
+            chunks = array;
+        }
+
+        for (int i = 0; i < numChunks; i++) {
+            int from = i * chunkSize;
+            chunks[i].set(from, Math.min(from + chunkSize, count), tpf);
+        }
+
+        reinitialize();
+        pool.invoke(this);
+
+        // reduce the bounds of the chunks, the same way as the serial loop
+        for (int i = 0; i < numChunks; i++) {
+            Chunk chunk = chunks[i];
+            min.set(Math.min(min.x, chunk.min.x), Math.min(min.y, chunk.min.y), Math.min(min.z, chunk.min.z));
+            max.set(Math.max(max.x, chunk.max.x), Math.max(max.y, chunk.max.y), Math.max(max.z, chunk.max.z));
+        }
+    }
+
+    @Override
+    protected void compute() {
+        for (int i = 1; i < numChunks; i++) {
+            chunks[i].fork();
+        }
+        chunks[0].invoke();
+        for (int i = 1; i < numChunks; i++) {
+            chunks[i].join();
+        }
+    }
+
+    /**
+     * Updates one range of particles.
+     */
+    private static class Chunk extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final MyParticleEmitter emitter;
+        private final Vector3f min = new Vector3f();
+        private final Vector3f max = new Vector3f();
+        private int from;
+        private int to;
+        private float tpf;
+
+        Chunk(MyParticleEmitter emitter) {
+            this.emitter = emitter;
+        }
+
+        void set(int from, int to, float tpf) {
+            this.from = from;
+            this.to = to;
+            this.tpf = tpf;
+            reinitialize();
+        }
+
+        @Override
+        protected void compute() {
+            min.set(Vector3f.POSITIVE_INFINITY);
+            max.set(Vector3f.NEGATIVE_INFINITY);
+            emitter.updateParticles(from, to, tpf, min, max);
+        }
+    }
+
+}
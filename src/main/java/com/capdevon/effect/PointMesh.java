@@ -34,7 +34,6 @@ package com.capdevon.effect;
 import java.nio.ByteBuffer;
 import java.nio.FloatBuffer;
 
-import com.jme3.effect.Particle;
 import com.jme3.math.Matrix3f;
 import com.jme3.renderer.Camera;
 import com.jme3.scene.VertexBuffer;
@@ -106,6 +105,7 @@ public class PointMesh extends MyParticleMesh {
         }
 
         updateCounts();
+        setLiveCounts(0, 0);
     }
     
     @Override
@@ -115,7 +115,7 @@ public class PointMesh extends MyParticleMesh {
     }
 
     @Override
-    public void updateParticleData(Particle[] particles, Camera cam, Matrix3f inverseRotation) {
+    public void updateParticleData(ParticleData particleData, Camera cam, Matrix3f inverseRotation) {
         VertexBuffer pvb = getBuffer(VertexBuffer.Type.Position);
         FloatBuffer positions = (FloatBuffer) pvb.getData();
 
@@ -131,23 +131,33 @@ public class PointMesh extends MyParticleMesh {
         float sizeScale = emitter.getWorldScale().x;
 
         // update data in vertex buffers
-        positions.rewind();
-        colors.rewind();
-        sizes.rewind();
-        texcoords.rewind();
+        positions.clear();
+        colors.clear();
+        sizes.clear();
+        texcoords.clear();
         
-        for (int i = 0; i < particles.length; i++) {
-            Particle p = particles[i];
+        ParticleData d = particleData;
+        int aliveCount = d.aliveCount();
+        float t = d.getInterpolation();
+        boolean interpolate = t < 1f;
 
-            positions.put(p.position.x)
-                     .put(p.position.y)
-                     .put(p.position.z);
+        for (int i = 0; i < aliveCount; i++) {
+            float x = d.posX[i];
+            float y = d.posY[i];
+            float z = d.posZ[i];
+            if (interpolate) {
+                x = d.prevX[i] + (x - d.prevX[i]) * t;
+                y = d.prevY[i] + (y - d.prevY[i]) * t;
+                z = d.prevZ[i] + (z - d.prevZ[i]) * t;
+            }
 
-            sizes.put(p.size * sizeScale);
-            colors.putInt(p.color.asIntABGR());
+            positions.put(x).put(y).put(z);
 
-            int imgX = p.imageIndex % imagesX;
-            int imgY = p.imageIndex / imagesX;
+            sizes.put(d.size[i] * sizeScale);
+            colors.putInt(d.color[i]);
+
+            int imgX = d.imageIndex[i] % imagesX;
+            int imgY = d.imageIndex[i] / imagesX;
 
             float startX = ((float) imgX) / imagesX;
             float startY = ((float) imgY) / imagesY;
@@ -156,7 +166,8 @@ public class PointMesh extends MyParticleMesh {
 
             texcoords.put(startX).put(startY).put(endX).put(endY);
         }
-        
+
+        // only the live particles are sent to the GPU and drawn
         positions.flip();
         colors.flip();
         sizes.flip();
@@ -167,5 +178,7 @@ public class PointMesh extends MyParticleMesh {
         cvb.updateData(colors);
         svb.updateData(sizes);
         tvb.updateData(texcoords);
+
+        setLiveCounts(aliveCount, aliveCount);
     }
 }
@@ -35,16 +35,15 @@ import java.nio.ByteBuffer;
 import java.nio.FloatBuffer;
 import java.nio.ShortBuffer;
 
-import com.jme3.effect.Particle;
 import com.jme3.math.FastMath;
 import com.jme3.math.Matrix3f;
+import com.jme3.math.Quaternion;
 import com.jme3.math.Vector3f;
 import com.jme3.renderer.Camera;
 import com.jme3.scene.VertexBuffer;
 import com.jme3.scene.VertexBuffer.Format;
 import com.jme3.scene.VertexBuffer.Usage;
 import com.jme3.util.BufferUtils;
-import com.jme3.util.TempVars;
 
 
 public class TriangleMesh extends MyParticleMesh {
@@ -53,6 +52,16 @@ public class TriangleMesh extends MyParticleMesh {
     private int imagesX = 1;
     private int imagesY = 1;
     private boolean uniqueTexCoords = false;
+    private int uploadedIndices;
+
+    // scratch variables reused by updateParticleData()
+    private final Vector3f camUp = new Vector3f();
+    private final Vector3f camLeft = new Vector3f();
+    private final Vector3f camDir = new Vector3f();
+    private final Vector3f up = new Vector3f();
+    private final Vector3f left = new Vector3f();
+    private final Vector3f normal = new Vector3f();
+    private final Quaternion rotation = new Quaternion();
 
     @Override
     public void initParticleData(BaseEmitter emitter, int numParticles) {
@@ -130,7 +139,9 @@ public class TriangleMesh extends MyParticleMesh {
             setBuffer(ivb);
         }
 
+        uploadedIndices = 0;
         updateCounts();
+        setLiveCounts(0, 0);
     }
 
     @Override
@@ -145,12 +156,12 @@ public class TriangleMesh extends MyParticleMesh {
 
     /**
      *
-     * @param particles
+     * @param particleData
      * @param cam
      * @param inverseRotation
      */
     @Override
-    public void updateParticleData(Particle[] particles, Camera cam, Matrix3f inverseRotation) {
+    public void updateParticleData(ParticleData particleData, Camera cam, Matrix3f inverseRotation) {
 
         VertexBuffer pvb = getBuffer(VertexBuffer.Type.Position);
         FloatBuffer positions = (FloatBuffer) pvb.getData();
@@ -161,9 +172,9 @@ public class TriangleMesh extends MyParticleMesh {
         VertexBuffer tvb = getBuffer(VertexBuffer.Type.TexCoord);
         FloatBuffer texcoords = (FloatBuffer) tvb.getData();
 
-        Vector3f camUp = cam.getUp();
-        Vector3f camLeft = cam.getLeft();
-        Vector3f camDir = cam.getDirection();
+        cam.getUp(camUp);
+        cam.getLeft(camLeft);
+        cam.getDirection(camDir);
 
         inverseRotation.multLocal(camUp);
         inverseRotation.multLocal(camLeft);
@@ -171,9 +182,6 @@ public class TriangleMesh extends MyParticleMesh {
 
         boolean facingVelocity = emitter.isFacingVelocity();
 
-        Vector3f up = new Vector3f();
-        Vector3f left = new Vector3f();
-
         if (!facingVelocity) {
             up.set(camUp);
             left.set(camLeft);
@@ -184,41 +192,39 @@ public class TriangleMesh extends MyParticleMesh {
         colors.clear();
         texcoords.clear();
         Vector3f faceNormal = emitter.getFaceNormal();
+        if (faceNormal != null) {
+            normal.set(faceNormal).normalizeLocal();
+        }
 
-        for (int i = 0; i < particles.length; i++) {
-            Particle p = particles[i];
-            boolean dead = p.life == 0;
-            if (dead) {
-                positions.put(0).put(0).put(0);
-                positions.put(0).put(0).put(0);
-                positions.put(0).put(0).put(0);
-                positions.put(0).put(0).put(0);
-                continue;
-            }
+        ParticleData d = particleData;
+        int aliveCount = d.aliveCount();
+        float t = d.getInterpolation();
+        boolean interpolate = t < 1f;
+
+        for (int i = 0; i < aliveCount; i++) {
+            float size = d.size[i];
+            float angle = d.angle[i];
 
             if (facingVelocity) {
-                left.set(p.velocity).normalizeLocal();
+                left.set(d.velX[i], d.velY[i], d.velZ[i]).normalizeLocal();
                 camDir.cross(left, up);
-                up.multLocal(p.size);
-                left.multLocal(p.size);
+                up.multLocal(size);
+                left.multLocal(size);
 
             } else if (faceNormal != null) {
                 up.set(faceNormal).crossLocal(Vector3f.UNIT_X);
                 faceNormal.cross(up, left);
-                up.multLocal(p.size);
-                left.multLocal(p.size);
-
-                if (p.angle != 0) {
-                    TempVars vars = TempVars.get();
-                    vars.vect1.set(faceNormal).normalizeLocal();
-                    vars.quat1.fromAngleNormalAxis(p.angle, vars.vect1);
-                    vars.quat1.multLocal(left);
-                    vars.quat1.multLocal(up);
-                    vars.release();
+                up.multLocal(size);
+                left.multLocal(size);
+
+                if (angle != 0) {
+                    rotation.fromAngleNormalAxis(angle, normal);
+                    rotation.multLocal(left);
+                    rotation.multLocal(up);
                 }
-            } else if (p.angle != 0) {
-                float cos = FastMath.cos(p.angle) * p.size;
-                float sin = FastMath.sin(p.angle) * p.size;
+            } else if (angle != 0) {
+                float cos = FastMath.cos(angle) * size;
+                float sin = FastMath.sin(angle) * size;
 
                 left.x = camLeft.x * cos + camUp.x * sin;
                 left.y = camLeft.y * cos + camUp.y * sin;
@@ -231,29 +237,38 @@ public class TriangleMesh extends MyParticleMesh {
             } else {
                 up.set(camUp);
                 left.set(camLeft);
-                up.multLocal(p.size);
-                left.multLocal(p.size);
+                up.multLocal(size);
+                left.multLocal(size);
+            }
+
+            float x = d.posX[i];
+            float y = d.posY[i];
+            float z = d.posZ[i];
+            if (interpolate) {
+                x = d.prevX[i] + (x - d.prevX[i]) * t;
+                y = d.prevY[i] + (y - d.prevY[i]) * t;
+                z = d.prevZ[i] + (z - d.prevZ[i]) * t;
             }
 
-            positions.put(p.position.x + left.x + up.x)
-                     .put(p.position.y + left.y + up.y)
-                     .put(p.position.z + left.z + up.z);
+            positions.put(x + left.x + up.x)
+                     .put(y + left.y + up.y)
+                     .put(z + left.z + up.z);
 
-            positions.put(p.position.x - left.x + up.x)
-                     .put(p.position.y - left.y + up.y)
-                     .put(p.position.z - left.z + up.z);
+            positions.put(x - left.x + up.x)
+                     .put(y - left.y + up.y)
+                     .put(z - left.z + up.z);
 
-            positions.put(p.position.x + left.x - up.x)
-                     .put(p.position.y + left.y - up.y)
-                     .put(p.position.z + left.z - up.z);
+            positions.put(x + left.x - up.x)
+                     .put(y + left.y - up.y)
+                     .put(z + left.z - up.z);
 
-            positions.put(p.position.x - left.x - up.x)
-                     .put(p.position.y - left.y - up.y)
-                     .put(p.position.z - left.z - up.z);
+            positions.put(x - left.x - up.x)
+                     .put(y - left.y - up.y)
+                     .put(z - left.z - up.z);
 
             if (uniqueTexCoords) {
-                int imgX = p.imageIndex % imagesX;
-                int imgY = p.imageIndex / imagesX;
+                int imgX = d.imageIndex[i] % imagesX;
+                int imgY = d.imageIndex[i] / imagesX;
 
                 float startX = ((float) imgX) / imagesX;
                 float startY = ((float) imgY) / imagesY;
@@ -266,24 +281,38 @@ public class TriangleMesh extends MyParticleMesh {
                 texcoords.put(endX).put(startY);
             }
 
-            int abgr = p.color.asIntABGR();
+            int abgr = d.color[i];
             colors.putInt(abgr);
             colors.putInt(abgr);
             colors.putInt(abgr);
             colors.putInt(abgr);
         }
 
-        positions.clear();
-        colors.clear();
-        texcoords.clear();
+        // only the live particles are sent to the GPU and drawn
+        positions.flip();
+        colors.flip();
 
         if (uniqueTexCoords) {
+            texcoords.flip();
             tvb.updateData(texcoords);
         }
 
         // force renderer to re-send data to GPU
         pvb.updateData(positions);
         cvb.updateData(colors);
+
+        // The index buffer never changes, but the renderer uploads it up to
+        // its limit: send it again only when the live range outgrows the
+        // part that is already on the GPU.
+        VertexBuffer ivb = getBuffer(VertexBuffer.Type.Index);
+        int numIndices = aliveCount * 6;
+        ivb.getData().limit(numIndices);
+        if (numIndices > uploadedIndices) {
+            ivb.updateData(ivb.getData());
+            uploadedIndices = numIndices;
+        }
+
+        setLiveCounts(aliveCount * 4, aliveCount * 2);
     }
 
 }
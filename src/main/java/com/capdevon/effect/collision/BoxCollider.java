@@ -0,0 +1,137 @@
+package com.capdevon.effect.collision;
+
+import java.io.IOException;
+
+import com.capdevon.effect.ParticleData;
+import com.jme3.bounding.BoundingBox;
+import com.jme3.export.InputCapsule;
+import com.jme3.export.JmeExporter;
+import com.jme3.export.JmeImporter;
+import com.jme3.export.OutputCapsule;
+import com.jme3.math.Vector3f;
+import com.jme3.util.clone.Cloner;
+
+/**
+ * A solid axis-aligned box. A particle inside is pushed out through the
+ * closest face.
+ *
+ * @author capdevon
+ */
+public class BoxCollider extends ParticleCollider {
+
+    protected Vector3f center = new Vector3f();
+    protected Vector3f extent = new Vector3f(1, 1, 1);
+
+    /**
+     * For serialization only. Do not use.
+     */
+    protected BoxCollider() {
+    }
+
+    /**
+     * Instantiate a BoxCollider.
+     *
+     * @param center the center of the box (not null, unaffected)
+     * @param extent the half sizes of the box (not null, unaffected)
+     */
+    public BoxCollider(Vector3f center, Vector3f extent) {
+        this.center.set(center);
+        this.extent.set(extent);
+    }
+
+    /**
+     * Instantiate a BoxCollider that fills the given bounding box, a
+     * world bound for instance.
+     *
+     * @param box the box (not null, unaffected)
+     */
+    public BoxCollider(BoundingBox box) {
+        box.getCenter(center);
+        box.getExtent(extent);
+    }
+
+    /**
+     * Returns the center of the box. Modify it to move the box.
+     *
+     * @return the center (not null)
+     */
+    public Vector3f getCenter() {
+        return center;
+    }
+
+    public void setCenter(Vector3f center) {
+        this.center.set(center);
+    }
+
+    /**
+     * Returns the half sizes of the box. Modify them to resize the box.
+     *
+     * @return the half sizes (not null)
+     */
+    public Vector3f getExtent() {
+        return extent;
+    }
+
+    public void setExtent(Vector3f extent) {
+        this.extent.set(extent);
+    }
+
+    @Override
+    public boolean intersects(Vector3f min, Vector3f max) {
+        return min.x < center.x + extent.x && max.x > center.x - extent.x
+                && min.y < center.y + extent.y && max.y > center.y - extent.y
+                && min.z < center.z + extent.z && max.z > center.z - extent.z;
+    }
+
+    @Override
+    public boolean collide(ParticleData data, int index) {
+        float x = data.posX[index];
+        float y = data.posY[index];
+        float z = data.posZ[index];
+        float dx = x - center.x;
+        float dy = y - center.y;
+        float dz = z - center.z;
+        // the depth below each pair of faces
+        float px = extent.x - Math.abs(dx);
+        float py = extent.y - Math.abs(dy);
+        float pz = extent.z - Math.abs(dz);
+        if (!(px > 0 && py > 0 && pz > 0)) {
+            return false;
+        }
+        if (px <= py && px <= pz) {
+            float nx = (dx < 0) ? -1f : 1f;
+            respond(data, index, x + nx * px, y, z, nx, 0, 0);
+        } else if (py <= pz) {
+            float ny = (dy < 0) ? -1f : 1f;
+            respond(data, index, x, y + ny * py, z, 0, ny, 0);
+        } else {
+            float nz = (dz < 0) ? -1f : 1f;
+            respond(data, index, x, y, z + nz * pz, 0, 0, nz);
+        }
+        return true;
+    }
+
+    @Override
+    public void cloneFields(Cloner cloner, Object original) {
+        super.cloneFields(cloner, original);
+        center = cloner.clone(center);
+        extent = cloner.clone(extent);
+    }
+
+    @Override
+    public void write(JmeExporter ex) throws IOException {
+        super.write(ex);
+        OutputCapsule oc = ex.getCapsule(this);
+        oc.write(center, "center", null);
+        oc.write(extent, "extent", null);
+    }
+
+    @Override
+    public void read(JmeImporter im) throws IOException {
+        super.read(im);
+        InputCapsule ic = im.getCapsule(this);
+        center = (Vector3f) ic.readSavable("center", new Vector3f());
+        extent = (Vector3f) ic.readSavable("extent", new Vector3f(1, 1, 1));
+    }
+
+}
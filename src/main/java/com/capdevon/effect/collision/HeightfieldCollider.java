@@ -0,0 +1,181 @@
+package com.capdevon.effect.collision;
+
+import java.io.IOException;
+
+import com.capdevon.effect.ParticleData;
+import com.jme3.export.InputCapsule;
+import com.jme3.export.JmeExporter;
+import com.jme3.export.JmeImporter;
+import com.jme3.export.OutputCapsule;
+import com.jme3.math.Vector3f;
+import com.jme3.util.clone.Cloner;
+
+/**
+ * A ground made of a square grid of heights: everything under the surface
+ * is solid. The grid has the layout of a jME terrain heightmap (rows along
+ * Z, centered on the translation), so a terrain is wrapped with:
+ *
+ * <pre>
+ * new HeightfieldCollider(terrain.getHeightMap(), terrain.getTotalSize(),
+ *         terrain.getWorldTranslation(), terrain.getWorldScale());
+ * </pre>
+ *
+ * The height between the grid points is interpolated bilinearly. The grid
+ * can't be rotated, and the particles outside of it are not affected.
+ *
+ * @author capdevon
+ */
+public class HeightfieldCollider extends ParticleCollider {
+
+    private float[] heights;
+    private int size;
+    private Vector3f translation = new Vector3f();
+    private Vector3f scale = new Vector3f(1, 1, 1);
+
+    private transient float minHeight;
+    private transient float maxHeight;
+
+    /**
+     * For serialization only. Do not use.
+     */
+    protected HeightfieldCollider() {
+    }
+
+    /**
+     * Instantiate a HeightfieldCollider. The heights are used as is, don't
+     * modify them afterwards.
+     *
+     * @param heights     the heights, row by row along Z (not null,
+     * <code>size * size</code> values)
+     * @param size        the number of grid points on a side (&ge;2)
+     * @param translation the position of the center of the grid (not null,
+     * unaffected)
+     * @param scale       the spacing of the grid points on X and Z, and the
+     * factor applied to the heights on Y (not null, positive, unaffected)
+     */
+    public HeightfieldCollider(float[] heights, int size, Vector3f translation, Vector3f scale) {
+        if (size < 2 || heights.length != size * size) {
+            throw new IllegalArgumentException("Expected " + size + " x " + size + " heights, got " + heights.length);
+        }
+        this.heights = heights;
+        this.size = size;
+        this.translation.set(translation);
+        this.scale.set(scale);
+        updateHeightRange();
+    }
+
+    private void updateHeightRange() {
+        float min = Float.POSITIVE_INFINITY;
+        float max = Float.NEGATIVE_INFINITY;
+        for (float h : heights) {
+            min = Math.min(min, h);
+            max = Math.max(max, h);
+        }
+        minHeight = min;
+        maxHeight = max;
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * Returns the position of the center of the grid. Modify it to move the
+     * grid.
+     *
+     * @return the translation (not null)
+     */
+    public Vector3f getTranslation() {
+        return translation;
+    }
+
+    /**
+     * Returns the spacing of the grid and the factor of the heights. Modify
+     * it to stretch the grid.
+     *
+     * @return the scale (not null)
+     */
+    public Vector3f getScale() {
+        return scale;
+    }
+
+    @Override
+    public boolean intersects(Vector3f min, Vector3f max) {
+        float halfX = (size - 1) * 0.5f * scale.x;
+        float halfZ = (size - 1) * 0.5f * scale.z;
+        return min.x < translation.x + halfX && max.x > translation.x - halfX
+                && min.z < translation.z + halfZ && max.z > translation.z - halfZ
+                && min.y < translation.y + maxHeight * scale.y;
+    }
+
+    @Override
+    public boolean collide(ParticleData data, int index) {
+        float x = data.posX[index];
+        float y = data.posY[index];
+        float z = data.posZ[index];
+        if (y >= translation.y + maxHeight * scale.y) {
+            return false;
+        }
+
+        // into grid coordinates
+        float half = (size - 1) * 0.5f;
+        float gx = (x - translation.x) / scale.x + half;
+        float gz = (z - translation.z) / scale.z + half;
+        if (!(gx >= 0 && gx <= size - 1 && gz >= 0 && gz <= size - 1)) {
+            return false;
+        }
+        int col = Math.min((int) gx, size - 2);
+        int row = Math.min((int) gz, size - 2);
+        float fx = gx - col;
+        float fz = gz - row;
+
+        int i00 = row * size + col;
+        float h00 = heights[i00];
+        float h10 = heights[i00 + 1];
+        float h01 = heights[i00 + size];
+        float h11 = heights[i00 + size + 1];
+        float h0 = h00 + (h10 - h00) * fx;
+        float h1 = h01 + (h11 - h01) * fx;
+        float surface = (h0 + (h1 - h0) * fz) * scale.y + translation.y;
+        if (!(y < surface)) {
+            return false;
+        }
+
+        // the normal from the slopes of the cell, in world units
+        float slopeX = ((h10 - h00) * (1 - fz) + (h11 - h01) * fz) * scale.y / scale.x;
+        float slopeZ = (h1 - h0) * scale.y / scale.z;
+        float invLength = 1f / (float) Math.sqrt(slopeX * slopeX + 1 + slopeZ * slopeZ);
+        respond(data, index, x, surface, z, -slopeX * invLength, invLength, -slopeZ * invLength);
+        return true;
+    }
+
+    @Override
+    public void cloneFields(Cloner cloner, Object original) {
+        super.cloneFields(cloner, original);
+        // the heights are never modified, they can be shared
+        translation = cloner.clone(translation);
+        scale = cloner.clone(scale);
+    }
+
+    @Override
+    public void write(JmeExporter ex) throws IOException {
+        super.write(ex);
+        OutputCapsule oc = ex.getCapsule(this);
+        oc.write(heights, "heights", null);
+        oc.write(size, "size", 0);
+        oc.write(translation, "translation", null);
+        oc.write(scale, "scale", null);
+    }
+
+    @Override
+    public void read(JmeImporter im) throws IOException {
+        super.read(im);
+        InputCapsule ic = im.getCapsule(this);
+        heights = ic.readFloatArray("heights", null);
+        size = ic.readInt("size", 0);
+        translation = (Vector3f) ic.readSavable("translation", new Vector3f());
+        scale = (Vector3f) ic.readSavable("scale", new Vector3f(1, 1, 1));
+        updateHeightRange();
+    }
+
+}
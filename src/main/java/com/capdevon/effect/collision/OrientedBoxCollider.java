@@ -0,0 +1,155 @@
+package com.capdevon.effect.collision;
+
+import java.io.IOException;
+
+import com.capdevon.effect.ParticleData;
+import com.jme3.export.InputCapsule;
+import com.jme3.export.JmeExporter;
+import com.jme3.export.JmeImporter;
+import com.jme3.export.OutputCapsule;
+import com.jme3.math.Matrix3f;
+import com.jme3.math.Quaternion;
+import com.jme3.math.Vector3f;
+import com.jme3.util.clone.Cloner;
+
+/**
+ * A solid box with any orientation: a crate, a ramp. The particles are
+ * tested in the frame of the box, like a {@link BoxCollider}.
+ *
+ * @author capdevon
+ */
+public class OrientedBoxCollider extends BoxCollider {
+
+    private Quaternion rotation = new Quaternion();
+
+    // the rotation matrix, read by the particle loop
+    private transient float m00 = 1, m01, m02;
+    private transient float m10, m11 = 1, m12;
+    private transient float m20, m21, m22 = 1;
+
+    /**
+     * For serialization only. Do not use.
+     */
+    protected OrientedBoxCollider() {
+    }
+
+    /**
+     * Instantiate an OrientedBoxCollider.
+     *
+     * @param center   the center of the box (not null, unaffected)
+     * @param extent   the half sizes of the box, along its own axes (not
+     * null, unaffected)
+     * @param rotation the orientation of the box (not null, unaffected)
+     */
+    public OrientedBoxCollider(Vector3f center, Vector3f extent, Quaternion rotation) {
+        super(center, extent);
+        setRotation(rotation);
+    }
+
+    /**
+     * Returns the orientation of the box. Call
+     * {@link #setRotation(Quaternion)} to change it.
+     *
+     * @return the orientation (not null)
+     */
+    public Quaternion getRotation() {
+        return rotation;
+    }
+
+    public void setRotation(Quaternion rotation) {
+        this.rotation.set(rotation);
+        updateMatrix();
+    }
+
+    private void updateMatrix() {
+        Matrix3f m = rotation.toRotationMatrix();
+        m00 = m.get(0, 0);
+        m01 = m.get(0, 1);
+        m02 = m.get(0, 2);
+        m10 = m.get(1, 0);
+        m11 = m.get(1, 1);
+        m12 = m.get(1, 2);
+        m20 = m.get(2, 0);
+        m21 = m.get(2, 1);
+        m22 = m.get(2, 2);
+    }
+
+    @Override
+    public boolean intersects(Vector3f min, Vector3f max) {
+        // the axis-aligned bounds of the box
+        float hx = Math.abs(m00) * extent.x + Math.abs(m01) * extent.y + Math.abs(m02) * extent.z;
+        float hy = Math.abs(m10) * extent.x + Math.abs(m11) * extent.y + Math.abs(m12) * extent.z;
+        float hz = Math.abs(m20) * extent.x + Math.abs(m21) * extent.y + Math.abs(m22) * extent.z;
+        return min.x < center.x + hx && max.x > center.x - hx
+                && min.y < center.y + hy && max.y > center.y - hy
+                && min.z < center.z + hz && max.z > center.z - hz;
+    }
+
+    @Override
+    public boolean collide(ParticleData data, int index) {
+        float x = data.posX[index];
+        float y = data.posY[index];
+        float z = data.posZ[index];
+        float dx = x - center.x;
+        float dy = y - center.y;
+        float dz = z - center.z;
+        // into the frame of the box: the inverse rotation is the transpose
+        float lx = m00 * dx + m10 * dy + m20 * dz;
+        float ly = m01 * dx + m11 * dy + m21 * dz;
+        float lz = m02 * dx + m12 * dy + m22 * dz;
+        float px = extent.x - Math.abs(lx);
+        float py = extent.y - Math.abs(ly);
+        float pz = extent.z - Math.abs(lz);
+        if (!(px > 0 && py > 0 && pz > 0)) {
+            return false;
+        }
+        // the normal of the closest face is a column of the matrix
+        float depth;
+        float nx;
+        float ny;
+        float nz;
+        if (px <= py && px <= pz) {
+            float s = (lx < 0) ? -1f : 1f;
+            depth = px;
+            nx = m00 * s;
+            ny = m10 * s;
+            nz = m20 * s;
+        } else if (py <= pz) {
+            float s = (ly < 0) ? -1f : 1f;
+            depth = py;
+            nx = m01 * s;
+            ny = m11 * s;
+            nz = m21 * s;
+        } else {
+            float s = (lz < 0) ? -1f : 1f;
+            depth = pz;
+            nx = m02 * s;
+            ny = m12 * s;
+            nz = m22 * s;
+        }
+        respond(data, index, x + nx * depth, y + ny * depth, z + nz * depth, nx, ny, nz);
+        return true;
+    }
+
+    @Override
+    public void cloneFields(Cloner cloner, Object original) {
+        super.cloneFields(cloner, original);
+        rotation = cloner.clone(rotation);
+    }
+
+    @Override
+    public void write(JmeExporter ex) throws IOException {
+        super.write(ex);
+        OutputCapsule oc = ex.getCapsule(this);
+        oc.write(rotation, "rotation", null);
+    }
+
+    @Override
+    public void read(JmeImporter im) throws IOException {
+        super.read(im);
+        InputCapsule ic = im.getCapsule(this);
+        rotation = (Quaternion) ic.readSavable("rotation", new Quaternion());
+        updateMatrix();
+    }
+
+}
@@ -0,0 +1,183 @@
+package com.capdevon.effect.collision;
+
+import java.io.IOException;
+
+import com.capdevon.effect.ParticleData;
+import com.jme3.export.InputCapsule;
+import com.jme3.export.JmeExporter;
+import com.jme3.export.JmeImporter;
+import com.jme3.export.OutputCapsule;
+import com.jme3.export.Savable;
+import com.jme3.math.Vector3f;
+import com.jme3.util.clone.Cloner;
+import com.jme3.util.clone.JmeCloneable;
+
+/**
+ * An analytic obstacle for the particles of a
+ * {@link com.capdevon.effect.MyParticleEmitter}: a particle that ends an
+ * update inside the collider is moved back to its surface and bounces, or
+ * is killed.
+ * <p>
+ * The collider is expressed in the space of the particles: world space for
+ * a world-space emitter, the local space of the emitter otherwise. The
+ * particles are points; a fast particle can cross a thin collider in one
+ * update, a plane or a heightfield can't be crossed.
+ * <p>
+ * The analytic colliders only read their fields while testing the
+ * particles, so one of them can be shared by emitters that update
+ * concurrently. A {@link SceneCollider} can't.
+ *
+ * @author capdevon
+ */
+public abstract class ParticleCollider implements Savable, JmeCloneable {
+
+    private float bounce = 0.5f;
+    private float friction;
+    private boolean killOnHit;
+
+    /**
+     * Called once per update of the emitter, before the collider is tested
+     * against the bounds of the particles. Does nothing by default.
+     *
+     * @param tpf     the time step of the update (in seconds, &gt;0)
+     * @param gravity the gravity of the emitter, subtracted from the
+     * velocity of the particles every second (not null, unaffected)
+     */
+    public void beginUpdate(float tpf, Vector3f gravity) {
+    }
+
+    /**
+     * Tests the collider against the bounds of the particles, once per
+     * update before the particles are tested one by one.
+     *
+     * @param min the minimum corner of the bounds (not null, unaffected)
+     * @param max the maximum corner of the bounds (not null, unaffected)
+     * @return false if no particle within the bounds can hit the collider
+     */
+    public abstract boolean intersects(Vector3f min, Vector3f max);
+
+    /**
+     * Tests the particle at the given index and, if it is inside the
+     * collider, applies the response with
+     * {@link #respond(ParticleData, int, float, float, float, float, float, float)}.
+     *
+     * @param data  the particles (not null, modified)
+     * @param index the index of a live particle
+     * @return true if the particle hit the collider
+     */
+    public abstract boolean collide(ParticleData data, int index);
+
+    /**
+     * Applies the response to a hit: kills the particle, or moves it to the
+     * contact point and reflects the part of its velocity that goes into
+     * the surface.
+     *
+     * @param data  the particles (not null, modified)
+     * @param index the index of the particle
+     * @param x     the X coordinate of the contact point
+     * @param y     the Y coordinate of the contact point
+     * @param z     the Z coordinate of the contact point
+     * @param nx    the X component of the surface normal (unit length,
+     * pointing out of the collider)
+     * @param ny    the Y component of the surface normal
+     * @param nz    the Z component of the surface normal
+     */
+    protected final void respond(ParticleData data, int index,
+            float x, float y, float z, float nx, float ny, float nz) {
+        if (killOnHit) {
+            data.life[index] = 0;
+            return;
+        }
+        data.posX[index] = x;
+        data.posY[index] = y;
+        data.posZ[index] = z;
+
+        float vx = data.velX[index];
+        float vy = data.velY[index];
+        float vz = data.velZ[index];
+        float vn = vx * nx + vy * ny + vz * nz;
+        if (vn < 0) {
+            // split into the normal and tangential parts
+            float tx = vx - vn * nx;
+            float ty = vy - vn * ny;
+            float tz = vz - vn * nz;
+            float keep = 1f - friction;
+            float reflect = -vn * bounce;
+            data.velX[index] = tx * keep + nx * reflect;
+            data.velY[index] = ty * keep + ny * reflect;
+            data.velZ[index] = tz * keep + nz * reflect;
+        }
+    }
+
+    public float getBounce() {
+        return bounce;
+    }
+
+    /**
+     * Sets the fraction of the normal speed kept by a particle that hits
+     * the collider: 0 stops it on the surface, 1 is a perfect bounce.
+     *
+     * @param bounce the restitution (0-1, default 0.5)
+     */
+    public void setBounce(float bounce) {
+        this.bounce = bounce;
+    }
+
+    public float getFriction() {
+        return friction;
+    }
+
+    /**
+     * Sets the fraction of the tangential speed lost by a particle at each
+     * hit, including each update it rests on the surface.
+     *
+     * @param friction the friction (0-1, default 0)
+     */
+    public void setFriction(float friction) {
+        this.friction = friction;
+    }
+
+    public boolean isKillOnHit() {
+        return killOnHit;
+    }
+
+    /**
+     * Sets whether a particle dies when it hits the collider, like a rain
+     * drop on the floor, instead of bouncing.
+     *
+     * @param killOnHit true to kill the particles that hit the collider
+     */
+    public void setKillOnHit(boolean killOnHit) {
+        this.killOnHit = killOnHit;
+    }
+
+    @Override
+    public Object jmeClone() {
+        try {
+            return super.clone();
+        } catch (CloneNotSupportedException ex) {
+            throw new AssertionError();
+        }
+    }
+
+    @Override
+    public void cloneFields(Cloner cloner, Object original) {
+    }
+
+    @Override
+    public void write(JmeExporter ex) throws IOException {
+        OutputCapsule oc = ex.getCapsule(this);
+        oc.write(bounce, "bounce", 0.5f);
+        oc.write(friction, "friction", 0);
+        oc.write(killOnHit, "killOnHit", false);
+    }
+
+    @Override
+    public void read(JmeImporter im) throws IOException {
+        InputCapsule ic = im.getCapsule(this);
+        bounce = ic.readFloat("bounce", 0.5f);
+        friction = ic.readFloat("friction", 0);
+        killOnHit = ic.readBoolean("killOnHit", false);
+    }
+
+}
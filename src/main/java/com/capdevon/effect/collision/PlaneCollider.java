@@ -0,0 +1,125 @@
+package com.capdevon.effect.collision;
+
+import java.io.IOException;
+
+import com.capdevon.effect.ParticleData;
+import com.jme3.export.InputCapsule;
+import com.jme3.export.JmeExporter;
+import com.jme3.export.JmeImporter;
+import com.jme3.export.OutputCapsule;
+import com.jme3.math.Plane;
+import com.jme3.math.Vector3f;
+import com.jme3.util.clone.Cloner;
+
+/**
+ * An infinite plane: everything behind it is solid. A floor, or a wall.
+ *
+ * @author capdevon
+ */
+public class PlaneCollider extends ParticleCollider {
+
+    private Vector3f normal = new Vector3f(Vector3f.UNIT_Y);
+    private float constant;
+
+    /**
+     * For serialization only. Do not use.
+     */
+    protected PlaneCollider() {
+    }
+
+    /**
+     * Instantiate a PlaneCollider through the given point.
+     *
+     * @param normal the normal of the plane, towards the free side (not
+     * null, not zero, unaffected)
+     * @param point  a point of the plane (not null, unaffected)
+     */
+    public PlaneCollider(Vector3f normal, Vector3f point) {
+        setPlane(normal, point);
+    }
+
+    /**
+     * Instantiate a PlaneCollider from a jME plane, solid on its negative
+     * side.
+     *
+     * @param plane the plane (not null, unaffected)
+     */
+    public PlaneCollider(Plane plane) {
+        float length = plane.getNormal().length();
+        normal.set(plane.getNormal()).divideLocal(length);
+        constant = plane.getConstant() / length;
+    }
+
+    /**
+     * Moves the plane.
+     *
+     * @param normal the normal of the plane, towards the free side (not
+     * null, not zero, unaffected)
+     * @param point  a point of the plane (not null, unaffected)
+     */
+    public void setPlane(Vector3f normal, Vector3f point) {
+        this.normal.set(normal).normalizeLocal();
+        this.constant = this.normal.dot(point);
+    }
+
+    /**
+     * Returns the unit normal of the plane. Do not modify it.
+     *
+     * @return the normal (not null)
+     */
+    public Vector3f getNormal() {
+        return normal;
+    }
+
+    public float getConstant() {
+        return constant;
+    }
+
+    @Override
+    public boolean intersects(Vector3f min, Vector3f max) {
+        // the corner of the bounds furthest behind the plane
+        float x = (normal.x >= 0) ? min.x : max.x;
+        float y = (normal.y >= 0) ? min.y : max.y;
+        float z = (normal.z >= 0) ? min.z : max.z;
+        return normal.x * x + normal.y * y + normal.z * z < constant;
+    }
+
+    @Override
+    public boolean collide(ParticleData data, int index) {
+        float nx = normal.x;
+        float ny = normal.y;
+        float nz = normal.z;
+        float x = data.posX[index];
+        float y = data.posY[index];
+        float z = data.posZ[index];
+        float distance = nx * x + ny * y + nz * z - constant;
+        if (!(distance < 0)) {
+            return false;
+        }
+        respond(data, index, x - nx * distance, y - ny * distance, z - nz * distance, nx, ny, nz);
+        return true;
+    }
+
+    @Override
+    public void cloneFields(Cloner cloner, Object original) {
+        super.cloneFields(cloner, original);
+        normal = cloner.clone(normal);
+    }
+
+    @Override
+    public void write(JmeExporter ex) throws IOException {
+        super.write(ex);
+        OutputCapsule oc = ex.getCapsule(this);
+        oc.write(normal, "normal", null);
+        oc.write(constant, "constant", 0);
+    }
+
+    @Override
+    public void read(JmeImporter im) throws IOException {
+        super.read(im);
+        InputCapsule ic = im.getCapsule(this);
+        normal = (Vector3f) ic.readSavable("normal", new Vector3f(Vector3f.UNIT_Y));
+        constant = ic.readFloat("constant", 0);
+    }
+
+}
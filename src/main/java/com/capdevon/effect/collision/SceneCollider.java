@@ -0,0 +1,442 @@
+package com.capdevon.effect.collision;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import com.capdevon.effect.ParticleData;
+import com.jme3.bounding.BoundingBox;
+import com.jme3.bounding.BoundingSphere;
+import com.jme3.bounding.BoundingVolume;
+import com.jme3.collision.CollisionResult;
+import com.jme3.collision.CollisionResults;
+import com.jme3.export.InputCapsule;
+import com.jme3.export.JmeExporter;
+import com.jme3.export.JmeImporter;
+import com.jme3.export.OutputCapsule;
+import com.jme3.math.Matrix4f;
+import com.jme3.math.Ray;
+import com.jme3.math.Vector3f;
+import com.jme3.scene.Geometry;
+import com.jme3.scene.Mesh;
+import com.jme3.scene.SceneGraphVisitorAdapter;
+import com.jme3.scene.Spatial;
+import com.jme3.util.clone.Cloner;
+
+/**
+ * Collides the particles with static level geometry, through the BIH trees
+ * of the registered meshes.
+ * <p>
+ * A raycast per particle and per update would cost far too much, so the
+ * rays are budgeted: each particle casts a ray along its motion over the
+ * next {@link #getCheckInterval() checkInterval} updates (the chord of its
+ * fall under the gravity of the emitter), at most
+ * {@link #getRayBudget() rayBudget} particles cast a ray in one update, and
+ * the ones that miss their turn cast at the next update. When the budget
+ * is too small for that many particles, the interval stretches to the
+ * number of particles divided by the budget, and the rays get longer to
+ * cover it. In between, the predicted impact is cached in the
+ * {@link ParticleData} as the plane of the triangle ahead, and each update
+ * only tests the particle against that plane. A particle that bounces
+ * casts a new ray, one that rests on its plane doesn't.
+ * <p>
+ * A particle whose motion stays clear of the bounds of the geometries
+ * doesn't cast its ray: it costs no budget, and is checked again every
+ * checkInterval updates.
+ * <p>
+ * A particle steered by influencers, or that waits too long for its ray
+ * because the budget is small for the particles near the geometries, can
+ * go through a surface: keep the analytic colliders for the floors, and
+ * this one for the rest of the level.
+ * <p>
+ * The geometries are captured with their world transform when they are
+ * added, and work with an emitter in world space. Unlike the analytic
+ * colliders, a SceneCollider keeps state about the update in progress: it
+ * must not be shared by several emitters. The geometries are not saved
+ * with it, they must be added again after loading.
+ *
+ * @author capdevon
+ */
+public class SceneCollider extends ParticleCollider {
+
+    /**
+     * Hits closer than this to the start of a ray are the surface the
+     * particle rests on or leaves, not an obstacle ahead.
+     */
+    private static final float MIN_HIT_DISTANCE = 1e-4f;
+    /**
+     * How far above its surface the ray of a particle resting on it starts.
+     */
+    private static final float SURFACE_LIFT = 1e-3f;
+
+    private int rayBudget = 64;
+    private int checkInterval = 4;
+
+    private transient Target[] targets = new Target[0];
+    private transient Ray ray = new Ray();
+    private transient CollisionResults results = new CollisionResults();
+    private transient float lookahead;
+    private transient float step;
+    private transient float restSpeed;
+    private transient Vector3f gravity = new Vector3f();
+    private transient int raysLeft;
+    private transient int interval;
+    private transient int numTested;
+
+    /**
+     * Instantiate a SceneCollider without geometries.
+     */
+    public SceneCollider() {
+    }
+
+    /**
+     * Adds a static geometry, with its current world transform. Builds the
+     * collision tree of its mesh.
+     *
+     * @param geometry the geometry, with an up-to-date world transform (not
+     * null)
+     */
+    public void addGeometry(Geometry geometry) {
+        Mesh mesh = geometry.getMesh();
+        mesh.createCollisionData();
+        Target target = new Target(geometry, mesh,
+                geometry.getWorldMatrix().clone(), geometry.getWorldBound().clone());
+        Target[] array = Arrays.copyOf(targets, targets.length + 1);
+        array[targets.length] = target;
+        targets = array;
+    }
+
+    /**
+     * Adds all the geometries of a subtree, see
+     * {@link #addGeometry(Geometry)}.
+     *
+     * @param spatial the root of the subtree (not null)
+     */
+    public void addSpatial(Spatial spatial) {
+        spatial.depthFirstTraversal(new SceneGraphVisitorAdapter() {
+            @Override
+            public void visit(Geometry geometry) {
+                addGeometry(geometry);
+            }
+        });
+    }
+
+    /**
+     * Removes a geometry.
+     *
+     * @param geometry the geometry to remove
+     * @return true if the geometry was found and removed
+     */
+    public boolean removeGeometry(Geometry geometry) {
+        for (int i = 0; i < targets.length; i++) {
+            if (targets[i].geometry == geometry) {
+                Target[] array = new Target[targets.length - 1];
+                System.arraycopy(targets, 0, array, 0, i);
+                System.arraycopy(targets, i + 1, array, i, array.length - i);
+                targets = array;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Removes all the geometries.
+     */
+    public void clearGeometries() {
+        targets = new Target[0];
+    }
+
+    public int getNumGeometries() {
+        return targets.length;
+    }
+
+    public Geometry getGeometry(int index) {
+        return targets[index].geometry;
+    }
+
+    public int getRayBudget() {
+        return rayBudget;
+    }
+
+    /**
+     * Sets the maximum number of rays cast in one update of the emitter.
+     *
+     * @param rayBudget the number of rays (&ge;0, default 64)
+     */
+    public void setRayBudget(int rayBudget) {
+        this.rayBudget = rayBudget;
+    }
+
+    public int getCheckInterval() {
+        return checkInterval;
+    }
+
+    /**
+     * Sets the number of updates between two rays of a particle. Each ray
+     * covers the motion of the particle over that many updates.
+     *
+     * @param checkInterval the number of updates (&ge;1, default 4)
+     */
+    public void setCheckInterval(int checkInterval) {
+        this.checkInterval = checkInterval;
+    }
+
+    @Override
+    public void beginUpdate(float tpf, Vector3f gravity) {
+        this.gravity.set(gravity);
+        // the updates it would take the budget to go around all the
+        // particles, with some slack so that a particle rarely waits past
+        // its turn: the far particles don't spend rays, but they may all
+        // come near at once
+        int rounds = (rayBudget > 0) ? (int) Math.ceil(numTested * 1.25f / rayBudget) : 0;
+        interval = Math.max(checkInterval, rounds);
+        numTested = 0;
+        // one more update, for a particle that waits for its ray
+        lookahead = tpf * (interval + 1);
+        step = tpf;
+        // faster than gravity alone brings a particle in one update, with
+        // some margin
+        restSpeed = 2f * gravity.length() * tpf;
+        raysLeft = rayBudget;
+    }
+
+    @Override
+    public boolean intersects(Vector3f min, Vector3f max) {
+        // the rays reach beyond the bounds, each one is tested against the
+        // geometry bounds before it is cast
+        return targets.length > 0;
+    }
+
+    @Override
+    public boolean collide(ParticleData data, int index) {
+        if (data.impactNX == null) {
+            data.allocateImpacts();
+        }
+        numTested++;
+        boolean hit = false;
+
+        float x = data.posX[index];
+        float y = data.posY[index];
+        float z = data.posZ[index];
+        float nx = data.impactNX[index];
+        float ny = data.impactNY[index];
+        float nz = data.impactNZ[index];
+        if (nx != 0 || ny != 0 || nz != 0) {
+            float distance = nx * x + ny * y + nz * z - data.impactD[index];
+            if (distance < 0) {
+                x -= nx * distance;
+                y -= ny * distance;
+                z -= nz * distance;
+                float speed = -(nx * data.velX[index] + ny * data.velY[index] + nz * data.velZ[index]);
+                respond(data, index, x, y, z, nx, ny, nz);
+                hit = true;
+                if (data.life[index] <= 0) {
+                    return true;
+                }
+                if (speed > restSpeed) {
+                    // a bounce: the path changed, the ray is due now
+                    data.impactCheck[index] = 0;
+                }
+                // otherwise the plane stays until the next ray, a particle
+                // resting on it doesn't spend a ray per update
+            }
+        }
+
+        if (data.impactCheck[index] > 0) {
+            data.impactCheck[index]--;
+        }
+        if (data.impactCheck[index] > 0) {
+            return hit;
+        }
+
+        // the displacement until the next ray, as the emitter integrates
+        // constant gravity: the velocity first, which falls a bit faster
+        // than the exact parabola
+        float t = lookahead;
+        float fall = 0.5f * t * (t + step);
+        float dx = data.velX[index] * t - gravity.x * fall;
+        float dy = data.velY[index] * t - gravity.y * fall;
+        float dz = data.velZ[index] * t - gravity.z * fall;
+        float length = (float) Math.sqrt(dx * dx + dy * dy + dz * dz);
+        if (!(length > 0)) {
+            // keep the surface it rests on
+            data.impactCheck[index] = interval;
+            return hit;
+        }
+
+        if (!isNearTarget(x, y, z, dx, dy, dz)) {
+            // nothing to hit: free of charge, so checked again soon, to
+            // leave the time to go around the queue when it comes near
+            data.impactCheck[index] = checkInterval;
+            forgetPlane(data, index);
+            return hit;
+        }
+        if (raysLeft > 0) {
+            // otherwise it stays due, for the next update
+            raysLeft--;
+            data.impactCheck[index] = interval;
+            predictImpact(data, index, dx, dy, dz);
+        }
+        return hit;
+    }
+
+    /**
+     * Returns true if the segment from the given point along the given
+     * displacement may meet the bound of a geometry.
+     */
+    private boolean isNearTarget(float x, float y, float z, float dx, float dy, float dz) {
+        float minX = Math.min(x, x + dx);
+        float minY = Math.min(y, y + dy);
+        float minZ = Math.min(z, z + dz);
+        float maxX = Math.max(x, x + dx);
+        float maxY = Math.max(y, y + dy);
+        float maxZ = Math.max(z, z + dz);
+        for (Target target : targets) {
+            if (minX <= target.max.x && maxX >= target.min.x
+                    && minY <= target.max.y && maxY >= target.min.y
+                    && minZ <= target.max.z && maxZ >= target.min.z) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Casts a ray along the given displacement of the particle, and caches
+     * the plane of the closest triangle hit.
+     */
+    private void predictImpact(ParticleData data, int index, float dx, float dy, float dz) {
+        float x = data.posX[index];
+        float y = data.posY[index];
+        float z = data.posZ[index];
+        float nx = data.impactNX[index];
+        float ny = data.impactNY[index];
+        float nz = data.impactNZ[index];
+        // the end of the segment
+        float ex = x + dx;
+        float ey = y + dy;
+        float ez = z + dz;
+        // start where the particle was at the previous update, in case it
+        // went through a surface while it waited for its ray
+        x -= data.velX[index] * step;
+        y -= data.velY[index] * step;
+        z -= data.velZ[index] * step;
+        if (nx != 0 || ny != 0 || nz != 0) {
+            float distance = nx * x + ny * y + nz * z - data.impactD[index];
+            if (distance < SURFACE_LIFT) {
+                // on its surface, or bounced off it: start above it, so
+                // that the ray hits the surface again, not the back of the
+                // geometry
+                x += nx * (SURFACE_LIFT - distance);
+                y += ny * (SURFACE_LIFT - distance);
+                z += nz * (SURFACE_LIFT - distance);
+            }
+        }
+        dx = ex - x;
+        dy = ey - y;
+        dz = ez - z;
+        float length = (float) Math.sqrt(dx * dx + dy * dy + dz * dz);
+        if (!(length > 0)) {
+            return;
+        }
+        ray.getOrigin().set(x, y, z);
+        ray.getDirection().set(dx / length, dy / length, dz / length);
+        ray.setLimit(length);
+        results.clear();
+        for (Target target : targets) {
+            target.mesh.collideWith(ray, target.worldMatrix, target.worldBound, results);
+        }
+
+        CollisionResult closest = null;
+        for (int i = 0; i < results.size(); i++) {
+            CollisionResult result = results.getCollision(i);
+            float distance = result.getDistance();
+            if (distance > MIN_HIT_DISTANCE && distance <= length
+                    && (closest == null || distance < closest.getDistance())) {
+                closest = result;
+            }
+        }
+
+        if (closest != null) {
+            Vector3f normal = closest.getContactNormal();
+            Vector3f point = closest.getContactPoint();
+            // face the particle, whatever the winding of the triangle
+            float sign = (normal.x * dx + normal.y * dy + normal.z * dz > 0) ? -1f : 1f;
+            nx = normal.x * sign;
+            ny = normal.y * sign;
+            nz = normal.z * sign;
+            data.impactNX[index] = nx;
+            data.impactNY[index] = ny;
+            data.impactNZ[index] = nz;
+            data.impactD[index] = nx * point.x + ny * point.y + nz * point.z;
+        } else {
+            forgetPlane(data, index);
+        }
+        results.clear();
+    }
+
+    /**
+     * Forgets the plane of the particle, after a ray that hit nothing.
+     */
+    private static void forgetPlane(ParticleData data, int index) {
+        data.impactNX[index] = 0;
+        data.impactNY[index] = 0;
+        data.impactNZ[index] = 0;
+    }
+
+    @Override
+    public void cloneFields(Cloner cloner, Object original) {
+        super.cloneFields(cloner, original);
+        // the targets are immutable, the array is replaced on change
+        ray = new Ray();
+        results = new CollisionResults();
+        gravity = new Vector3f();
+    }
+
+    @Override
+    public void write(JmeExporter ex) throws IOException {
+        super.write(ex);
+        OutputCapsule oc = ex.getCapsule(this);
+        oc.write(rayBudget, "rayBudget", 64);
+        oc.write(checkInterval, "checkInterval", 4);
+    }
+
+    @Override
+    public void read(JmeImporter im) throws IOException {
+        super.read(im);
+        InputCapsule ic = im.getCapsule(this);
+        rayBudget = ic.readInt("rayBudget", 64);
+        checkInterval = ic.readInt("checkInterval", 4);
+    }
+
+    /**
+     * A registered geometry, with the world transform and bound it had when
+     * it was added.
+     */
+    private static final class Target {
+
+        private final Geometry geometry;
+        private final Mesh mesh;
+        private final Matrix4f worldMatrix;
+        private final BoundingVolume worldBound;
+        // the corners of the box around the world bound
+        private final Vector3f min = new Vector3f(Vector3f.NEGATIVE_INFINITY);
+        private final Vector3f max = new Vector3f(Vector3f.POSITIVE_INFINITY);
+
+        private Target(Geometry geometry, Mesh mesh, Matrix4f worldMatrix, BoundingVolume worldBound) {
+            this.geometry = geometry;
+            this.mesh = mesh;
+            this.worldMatrix = worldMatrix;
+            this.worldBound = worldBound;
+            if (worldBound instanceof BoundingBox) {
+                ((BoundingBox) worldBound).getMin(min);
+                ((BoundingBox) worldBound).getMax(max);
+            } else if (worldBound instanceof BoundingSphere) {
+                float radius = ((BoundingSphere) worldBound).getRadius();
+                min.set(worldBound.getCenter()).subtractLocal(radius, radius, radius);
+                max.set(worldBound.getCenter()).addLocal(radius, radius, radius);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,115 @@
+package com.capdevon.effect.collision;
+
+import java.io.IOException;
+
+import com.capdevon.effect.ParticleData;
+import com.jme3.export.InputCapsule;
+import com.jme3.export.JmeExporter;
+import com.jme3.export.JmeImporter;
+import com.jme3.export.OutputCapsule;
+import com.jme3.math.Vector3f;
+import com.jme3.util.clone.Cloner;
+
+/**
+ * A solid sphere.
+ *
+ * @author capdevon
+ */
+public class SphereCollider extends ParticleCollider {
+
+    private Vector3f center = new Vector3f();
+    private float radius = 1f;
+
+    /**
+     * For serialization only. Do not use.
+     */
+    protected SphereCollider() {
+    }
+
+    /**
+     * Instantiate a SphereCollider.
+     *
+     * @param center the center of the sphere (not null, unaffected)
+     * @param radius the radius of the sphere (&gt;0)
+     */
+    public SphereCollider(Vector3f center, float radius) {
+        this.center.set(center);
+        this.radius = radius;
+    }
+
+    /**
+     * Returns the center of the sphere. Modify it to move the sphere.
+     *
+     * @return the center (not null)
+     */
+    public Vector3f getCenter() {
+        return center;
+    }
+
+    public void setCenter(Vector3f center) {
+        this.center.set(center);
+    }
+
+    public float getRadius() {
+        return radius;
+    }
+
+    public void setRadius(float radius) {
+        this.radius = radius;
+    }
+
+    @Override
+    public boolean intersects(Vector3f min, Vector3f max) {
+        // the distance from the center to the closest point of the bounds
+        float dx = Math.max(0, Math.max(min.x - center.x, center.x - max.x));
+        float dy = Math.max(0, Math.max(min.y - center.y, center.y - max.y));
+        float dz = Math.max(0, Math.max(min.z - center.z, center.z - max.z));
+        return dx * dx + dy * dy + dz * dz < radius * radius;
+    }
+
+    @Override
+    public boolean collide(ParticleData data, int index) {
+        float dx = data.posX[index] - center.x;
+        float dy = data.posY[index] - center.y;
+        float dz = data.posZ[index] - center.z;
+        float distanceSquared = dx * dx + dy * dy + dz * dz;
+        if (!(distanceSquared < radius * radius)) {
+            return false;
+        }
+        float nx = 0;
+        float ny = 1;
+        float nz = 0;
+        if (distanceSquared > 0) {
+            float invDistance = 1f / (float) Math.sqrt(distanceSquared);
+            nx = dx * invDistance;
+            ny = dy * invDistance;
+            nz = dz * invDistance;
+        }
+        respond(data, index,
+                center.x + nx * radius, center.y + ny * radius, center.z + nz * radius, nx, ny, nz);
+        return true;
+    }
+
+    @Override
+    public void cloneFields(Cloner cloner, Object original) {
+        super.cloneFields(cloner, original);
+        center = cloner.clone(center);
+    }
+
+    @Override
+    public void write(JmeExporter ex) throws IOException {
+        super.write(ex);
+        OutputCapsule oc = ex.getCapsule(this);
+        oc.write(center, "center", null);
+        oc.write(radius, "radius", 1f);
+    }
+
+    @Override
+    public void read(JmeImporter im) throws IOException {
+        super.read(im);
+        InputCapsule ic = im.getCapsule(this);
+        center = (Vector3f) ic.readSavable("center", new Vector3f());
+        radius = ic.readFloat("radius", 1f);
+    }
+
+}
@@ -0,0 +1,324 @@
+package com.capdevon.effect.fields;
+
+import com.jme3.math.Vector3f;
+
+/**
+ * A 3D vector field baked into a grid of floats, sampled with trilinear
+ * interpolation. Immutable once baked, so one field can be shared by any
+ * number of emitters, on any thread; see {@link VectorFieldCache}.
+ * <p>
+ * The field covers a unit volume: the coordinates <code>(u, v, w)</code>
+ * of a sample go from 0 to 1 across the volume. The vectors are stored at
+ * the cell centers, interleaved (x, y, z) for locality.
+ *
+ * @author capdevon
+ */
+public final class VectorField {
+
+    private final VectorFieldSpec spec;
+    private final int resolution;
+    private final float[] data;
+
+    private VectorField(VectorFieldSpec spec, float[] data) {
+        this.spec = spec;
+        this.resolution = spec.getResolution();
+        this.data = data;
+    }
+
+    /**
+     * Bakes the field described by the given spec. Prefer
+     * {@link VectorFieldCache#get(VectorFieldSpec)}, which bakes each field
+     * only once.
+     *
+     * @param spec the parameters of the field (not null)
+     * @return a new field
+     */
+    public static VectorField bake(VectorFieldSpec spec) {
+        int n = spec.getResolution();
+        float[] data = new float[n * n * n * 3];
+        switch (spec.getType()) {
+            case CurlNoise:
+                bakeCurlNoise(spec, data);
+                break;
+            case Vortex:
+                bakeVortex(n, data);
+                break;
+            default:
+                for (int i = 0; i < data.length; i += 3) {
+                    data[i] = 1f;
+                }
+                break;
+        }
+        return new VectorField(spec, data);
+    }
+
+    public VectorFieldSpec getSpec() {
+        return spec;
+    }
+
+    public int getResolution() {
+        return resolution;
+    }
+
+    /**
+     * Returns the baked vectors, 3 floats per cell, X varying fastest, for
+     * the samplers that interpolate the grid themselves. The array is shared
+     * and must not be modified.
+     *
+     * @return the grid (not null)
+     */
+    public float[] getData() {
+        return data;
+    }
+
+    /**
+     * Samples the field at the given coordinates of the unit volume.
+     *
+     * @param u     the coordinate along X (0-1 across the volume)
+     * @param v     the coordinate along Y (0-1 across the volume)
+     * @param w     the coordinate along Z (0-1 across the volume)
+     * @param tiled true to repeat the field outside the volume, false to
+     * extend its border
+     * @param store storage for the result (not null, modified)
+     * @return the interpolated vector (store)
+     */
+    public Vector3f sample(float u, float v, float w, boolean tiled, Vector3f store) {
+        int n = resolution;
+        // the samples sit at the cell centers
+        float gx = u * n - 0.5f;
+        float gy = v * n - 0.5f;
+        float gz = w * n - 0.5f;
+        int x0 = floor(gx);
+        int y0 = floor(gy);
+        int z0 = floor(gz);
+        float fx = gx - x0;
+        float fy = gy - y0;
+        float fz = gz - z0;
+
+        int x1;
+        int y1;
+        int z1;
+        if (tiled) {
+            x0 = Math.floorMod(x0, n);
+            y0 = Math.floorMod(y0, n);
+            z0 = Math.floorMod(z0, n);
+            x1 = (x0 + 1 == n) ? 0 : x0 + 1;
+            y1 = (y0 + 1 == n) ? 0 : y0 + 1;
+            z1 = (z0 + 1 == n) ? 0 : z0 + 1;
+        } else {
+            x1 = clamp(x0 + 1, n);
+            y1 = clamp(y0 + 1, n);
+            z1 = clamp(z0 + 1, n);
+            x0 = clamp(x0, n);
+            y0 = clamp(y0, n);
+            z0 = clamp(z0, n);
+        }
+
+        // the offsets of the 8 corners, in floats
+        int sx0 = x0 * 3;
+        int sx1 = x1 * 3;
+        int sy0 = y0 * n * 3;
+        int sy1 = y1 * n * 3;
+        int sz0 = z0 * n * n * 3;
+        int sz1 = z1 * n * n * 3;
+        int c000 = sz0 + sy0 + sx0;
+        int c100 = sz0 + sy0 + sx1;
+        int c010 = sz0 + sy1 + sx0;
+        int c110 = sz0 + sy1 + sx1;
+        int c001 = sz1 + sy0 + sx0;
+        int c101 = sz1 + sy0 + sx1;
+        int c011 = sz1 + sy1 + sx0;
+        int c111 = sz1 + sy1 + sx1;
+
+        store.x = interpolate(c000, c100, c010, c110, c001, c101, c011, c111, fx, fy, fz);
+        store.y = interpolate(c000 + 1, c100 + 1, c010 + 1, c110 + 1, c001 + 1, c101 + 1, c011 + 1, c111 + 1,
+                fx, fy, fz);
+        store.z = interpolate(c000 + 2, c100 + 2, c010 + 2, c110 + 2, c001 + 2, c101 + 2, c011 + 2, c111 + 2,
+                fx, fy, fz);
+        return store;
+    }
+
+    private float interpolate(int c000, int c100, int c010, int c110, int c001, int c101, int c011, int c111,
+            float fx, float fy, float fz) {
+        float[] d = data;
+        float a00 = d[c000] + (d[c100] - d[c000]) * fx;
+        float a10 = d[c010] + (d[c110] - d[c010]) * fx;
+        float a01 = d[c001] + (d[c101] - d[c001]) * fx;
+        float a11 = d[c011] + (d[c111] - d[c011]) * fx;
+        float b0 = a00 + (a10 - a00) * fy;
+        float b1 = a01 + (a11 - a01) * fy;
+        return b0 + (b1 - b0) * fz;
+    }
+
+    private static int floor(float value) {
+        int i = (int) value;
+        return (value < i) ? i - 1 : i;
+    }
+
+    private static int clamp(int index, int n) {
+        return (index < 0) ? 0 : (index >= n) ? n - 1 : index;
+    }
+
+    private static void bakeVortex(int n, float[] data) {
+        // tangential speed peaking at the core radius, 1/r beyond
+        float core = 0.25f;
+        int i = 0;
+        for (int z = 0; z < n; z++) {
+            float pz = (z + 0.5f) / n - 0.5f;
+            for (int y = 0; y < n; y++) {
+                for (int x = 0; x < n; x++, i += 3) {
+                    float px = (x + 0.5f) / n - 0.5f;
+                    float r = (float) Math.sqrt(px * px + pz * pz);
+                    if (r > 0) {
+                        float speed = (r < core) ? r / core : core / r;
+                        data[i] = -pz / r * speed;
+                        data[i + 2] = px / r * speed;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Bakes the curl of a vector potential made of three periodic gradient
+     * noises. The derivatives are central differences over the grid, which
+     * wraps around, so the field tiles.
+     */
+    private static void bakeCurlNoise(VectorFieldSpec spec, float[] data) {
+        int n = spec.getResolution();
+        int cells = n * n * n;
+        float[][] potential = new float[3][cells];
+        for (int c = 0; c < 3; c++) {
+            int seed = spec.getSeed() * 3 + c;
+            int i = 0;
+            for (int z = 0; z < n; z++) {
+                for (int y = 0; y < n; y++) {
+                    for (int x = 0; x < n; x++, i++) {
+                        potential[c][i] = fractalNoise((x + 0.5f) / n, (y + 0.5f) / n, (z + 0.5f) / n,
+                                spec.getFrequency(), spec.getOctaves(), seed);
+                    }
+                }
+            }
+        }
+
+        float[] px = potential[0];
+        float[] py = potential[1];
+        float[] pz = potential[2];
+        // the derivatives are taken per unit of volume
+        float scale = n * 0.5f;
+        double sumSquares = 0;
+        int i = 0;
+        for (int z = 0; z < n; z++) {
+            int zm = (z + n - 1) % n * n * n;
+            int zp = (z + 1) % n * n * n;
+            int zc = z * n * n;
+            for (int y = 0; y < n; y++) {
+                int ym = (y + n - 1) % n * n;
+                int yp = (y + 1) % n * n;
+                int yc = y * n;
+                for (int x = 0; x < n; x++, i++) {
+                    int xm = (x + n - 1) % n;
+                    int xp = (x + 1) % n;
+                    float dPzDy = (pz[zc + yp + x] - pz[zc + ym + x]) * scale;
+                    float dPyDz = (py[zp + yc + x] - py[zm + yc + x]) * scale;
+                    float dPxDz = (px[zp + yc + x] - px[zm + yc + x]) * scale;
+                    float dPzDx = (pz[zc + yc + xp] - pz[zc + yc + xm]) * scale;
+                    float dPyDx = (py[zc + yc + xp] - py[zc + yc + xm]) * scale;
+                    float dPxDy = (px[zc + yp + x] - px[zc + ym + x]) * scale;
+                    float cx = dPzDy - dPyDz;
+                    float cy = dPxDz - dPzDx;
+                    float cz = dPyDx - dPxDy;
+                    data[i * 3] = cx;
+                    data[i * 3 + 1] = cy;
+                    data[i * 3 + 2] = cz;
+                    sumSquares += cx * cx + cy * cy + cz * cz;
+                }
+            }
+        }
+
+        // about 1 long on average
+        if (sumSquares > 0) {
+            float norm = (float) (1.0 / Math.sqrt(sumSquares / cells));
+            for (int k = 0; k < data.length; k++) {
+                data[k] *= norm;
+            }
+        }
+    }
+
+    private static float fractalNoise(float x, float y, float z, int frequency, int octaves, int seed) {
+        float sum = 0;
+        float amplitude = 1f;
+        int period = frequency;
+        for (int o = 0; o < octaves; o++) {
+            sum += amplitude * gradientNoise(x * period, y * period, z * period, period, seed + o * 1013);
+            amplitude *= 0.5f;
+            period *= 2;
+        }
+        return sum;
+    }
+
+    /**
+     * Perlin gradient noise, periodic over <code>period</code> lattice
+     * cells on each axis.
+     */
+    private static float gradientNoise(float x, float y, float z, int period, int seed) {
+        int x0 = floor(x);
+        int y0 = floor(y);
+        int z0 = floor(z);
+        float fx = x - x0;
+        float fy = y - y0;
+        float fz = z - z0;
+        float u = fade(fx);
+        float v = fade(fy);
+        float w = fade(fz);
+
+        int xa = Math.floorMod(x0, period);
+        int ya = Math.floorMod(y0, period);
+        int za = Math.floorMod(z0, period);
+        int xb = (xa + 1) % period;
+        int yb = (ya + 1) % period;
+        int zb = (za + 1) % period;
+
+        float n000 = grad(hash(xa, ya, za, seed), fx, fy, fz);
+        float n100 = grad(hash(xb, ya, za, seed), fx - 1, fy, fz);
+        float n010 = grad(hash(xa, yb, za, seed), fx, fy - 1, fz);
+        float n110 = grad(hash(xb, yb, za, seed), fx - 1, fy - 1, fz);
+        float n001 = grad(hash(xa, ya, zb, seed), fx, fy, fz - 1);
+        float n101 = grad(hash(xb, ya, zb, seed), fx - 1, fy, fz - 1);
+        float n011 = grad(hash(xa, yb, zb, seed), fx, fy - 1, fz - 1);
+        float n111 = grad(hash(xb, yb, zb, seed), fx - 1, fy - 1, fz - 1);
+
+        float a00 = n000 + (n100 - n000) * u;
+        float a10 = n010 + (n110 - n010) * u;
+        float a01 = n001 + (n101 - n001) * u;
+        float a11 = n011 + (n111 - n011) * u;
+        float b0 = a00 + (a10 - a00) * v;
+        float b1 = a01 + (a11 - a01) * v;
+        return b0 + (b1 - b0) * w;
+    }
+
+    private static float fade(float t) {
+        return t * t * t * (t * (t * 6 - 15) + 10);
+    }
+
+    private static int hash(int x, int y, int z, int seed) {
+        int h = x * 0x27d4eb2d ^ y * 0x165667b1 ^ z * 0x61c88647 ^ seed * 0x9e3779b9;
+        h ^= h >>> 15;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return h;
+    }
+
+    /**
+     * The dot product with one of the 12 edge directions of a cube.
+     */
+    private static float grad(int hash, float x, float y, float z) {
+        int h = (hash & 0x7fffffff) % 12;
+        float a = (h < 8) ? x : y;
+        float b = (h < 4) ? y : z;
+        return (((h & 1) == 0) ? a : -a) + (((h & 2) == 0) ? b : -b);
+    }
+
+}
@@ -0,0 +1,46 @@
+package com.capdevon.effect.fields;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Shares the baked {@link VectorField}s: the emitters that use the same
+ * parameters get the same grid, baked once. Thread-safe.
+ *
+ * @author capdevon
+ */
+public final class VectorFieldCache {
+
+    private static final ConcurrentHashMap<VectorFieldSpec, VectorField> FIELDS = new ConcurrentHashMap<>();
+
+    private VectorFieldCache() {
+    }
+
+    /**
+     * Returns the field for the given parameters, baking it on the first
+     * request.
+     *
+     * @param spec the parameters of the field (not null)
+     * @return the shared field (not null)
+     */
+    public static VectorField get(VectorFieldSpec spec) {
+        return FIELDS.computeIfAbsent(spec, VectorField::bake);
+    }
+
+    /**
+     * Returns the number of fields in the cache.
+     *
+     * @return the number of fields
+     */
+    public static int size() {
+        return FIELDS.size();
+    }
+
+    /**
+     * Forgets all the fields, for instance when leaving a level. The
+     * influencers keep the fields they already hold.
+     */
+    public static void clear() {
+        FIELDS.clear();
+    }
+
+}
@@ -0,0 +1,178 @@
+package com.capdevon.effect.fields;
+
+import java.io.IOException;
+
+import com.jme3.export.InputCapsule;
+import com.jme3.export.JmeExporter;
+import com.jme3.export.JmeImporter;
+import com.jme3.export.OutputCapsule;
+import com.jme3.export.Savable;
+
+/**
+ * The parameters of a {@link VectorField}: everything needed to bake it, and
+ * the key of the {@link VectorFieldCache}. Immutable.
+ * <p>
+ * The field is defined over a unit volume, placed in the scene by the
+ * influencer that uses it, and stored as <code>resolution</code> cells per
+ * axis.
+ *
+ * @author capdevon
+ */
+public final class VectorFieldSpec implements Savable {
+
+    /**
+     * The kinds of fields that can be baked.
+     */
+    public enum Type {
+        /**
+         * Divergence-free turbulence: the curl of a fractal gradient noise,
+         * tiling, about 1 long on average.
+         */
+        CurlNoise,
+        /**
+         * A swirl around the Y axis of the volume, the fastest (1) at a
+         * quarter of the volume from the axis.
+         */
+        Vortex,
+        /**
+         * A constant field of length 1 along the X axis of the volume, for a
+         * wind.
+         */
+        Uniform
+    }
+
+    private Type type = Type.Uniform;
+    private int resolution = 1;
+    private int frequency = 1;
+    private int octaves = 1;
+    private int seed;
+
+    /**
+     * For serialization only. Do not use.
+     */
+    protected VectorFieldSpec() {
+    }
+
+    private VectorFieldSpec(Type type, int resolution, int frequency, int octaves, int seed) {
+        if (resolution < 1 || frequency < 1 || octaves < 1) {
+            throw new IllegalArgumentException("resolution, frequency and octaves must be positive");
+        }
+        this.type = type;
+        this.resolution = resolution;
+        this.frequency = frequency;
+        this.octaves = octaves;
+        this.seed = seed;
+    }
+
+    /**
+     * Describes a curl-noise turbulence.
+     *
+     * @param resolution the number of cells per axis (&ge;1, 32 is plenty
+     * for a frequency of 4)
+     * @param frequency  the number of noise features per axis of the volume
+     * (&ge;1)
+     * @param octaves    the number of noise layers, each one twice as fine
+     * and half as strong as the previous one (&ge;1)
+     * @param seed       the seed of the noise
+     * @return a new spec
+     */
+    public static VectorFieldSpec curlNoise(int resolution, int frequency, int octaves, int seed) {
+        return new VectorFieldSpec(Type.CurlNoise, resolution, frequency, octaves, seed);
+    }
+
+    /**
+     * Describes a vortex around the Y axis of the volume.
+     *
+     * @param resolution the number of cells per axis (&ge;1)
+     * @return a new spec
+     */
+    public static VectorFieldSpec vortex(int resolution) {
+        return new VectorFieldSpec(Type.Vortex, resolution, 1, 1, 0);
+    }
+
+    /**
+     * Describes a constant field along the X axis of the volume.
+     *
+     * @return a new spec
+     */
+    public static VectorFieldSpec uniform() {
+        return new VectorFieldSpec(Type.Uniform, 1, 1, 1, 0);
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public int getResolution() {
+        return resolution;
+    }
+
+    public int getFrequency() {
+        return frequency;
+    }
+
+    public int getOctaves() {
+        return octaves;
+    }
+
+    public int getSeed() {
+        return seed;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof VectorFieldSpec)) {
+            return false;
+        }
+        VectorFieldSpec other = (VectorFieldSpec) obj;
+        return type == other.type
+                && resolution == other.resolution
+                && frequency == other.frequency
+                && octaves == other.octaves
+                && seed == other.seed;
+    }
+
+    @Override
+    public int hashCode() {
+        int hash = type.hashCode();
+        hash = 31 * hash + resolution;
+        hash = 31 * hash + frequency;
+        hash = 31 * hash + octaves;
+        hash = 31 * hash + seed;
+        return hash;
+    }
+
+    @Override
+    public void write(JmeExporter ex) throws IOException {
+        OutputCapsule oc = ex.getCapsule(this);
+        oc.write(type, "type", Type.Uniform);
+        oc.write(resolution, "resolution", 1);
+        oc.write(frequency, "frequency", 1);
+        oc.write(octaves, "octaves", 1);
+        oc.write(seed, "seed", 0);
+    }
+
+    @Override
+    public void read(JmeImporter im) throws IOException {
+        InputCapsule ic = im.getCapsule(this);
+        type = ic.readEnum("type", Type.class, Type.Uniform);
+        resolution = ic.readInt("resolution", 1);
+        frequency = ic.readInt("frequency", 1);
+        octaves = ic.readInt("octaves", 1);
+        seed = ic.readInt("seed", 0);
+    }
+
+    @Override
+    public String toString() {
+        return "VectorFieldSpec [Type=" + type
+                + ", Resolution=" + resolution
+                + ", Frequency=" + frequency
+                + ", Octaves=" + octaves
+                + ", Seed=" + seed
+                + "]";
+    }
+
+}
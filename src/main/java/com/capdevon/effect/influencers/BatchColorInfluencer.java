@@ -0,0 +1,34 @@
+package com.capdevon.effect.influencers;
+
+import com.capdevon.effect.ParticleData;
+
+/**
+ * A color influencer that updates a range of live particles in one call,
+ * writing the packed colors of a {@link ParticleData} directly.
+ * <p>
+ * The emitter calls it every frame instead of going through a
+ * {@link com.jme3.effect.Particle} copy per particle. Influencers that
+ * don't implement this interface still work, one particle at a time. A
+ * color influencer also fits the update stage of an
+ * {@link InfluencerPipeline}.
+ *
+ * @author capdevon
+ */
+public interface BatchColorInfluencer extends BatchUpdateInfluencer {
+
+    /**
+     * Updates the colors of the particles at indices
+     * <code>[from, to)</code>, from their remaining life.
+     *
+     * @param data the particles (not null, modified)
+     * @param from the index of the first particle
+     * @param to   the index after the last particle
+     */
+    void influenceColors(ParticleData data, int from, int to);
+
+    @Override
+    default void updateParticles(ParticleData data, int from, int to, float tpf) {
+        influenceColors(data, from, to);
+    }
+
+}
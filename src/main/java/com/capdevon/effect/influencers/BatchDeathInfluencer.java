@@ -0,0 +1,28 @@
+package com.capdevon.effect.influencers;
+
+import com.capdevon.effect.ParticleData;
+import com.jme3.effect.influencers.ParticleInfluencer;
+
+/**
+ * An influencer of the death stage of an {@link InfluencerPipeline}: it is
+ * told which particles have just died, while their attributes can still be
+ * read, to spawn a sub-effect at their position or count them for
+ * instance.
+ *
+ * @author capdevon
+ */
+public interface BatchDeathInfluencer extends ParticleInfluencer {
+
+    /**
+     * Called with the particles that died during the update, before they
+     * are removed. Particles that die in the frame they are spawned, or
+     * during a prewarm, are not reported.
+     *
+     * @param data    the particles (not null, must not be modified)
+     * @param indices the indices of the dead particles, in ascending order
+     * (not null, unaffected)
+     * @param count   the number of valid entries of <code>indices</code>
+     */
+    void influenceDeaths(ParticleData data, int[] indices, int count);
+
+}
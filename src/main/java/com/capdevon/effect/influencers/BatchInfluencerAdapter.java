@@ -0,0 +1,227 @@
+package com.capdevon.effect.influencers;
+
+import java.io.IOException;
+
+import com.capdevon.effect.ParticleData;
+import com.capdevon.effect.ParticleRandom;
+import com.capdevon.effect.shapes.BatchEmitterShape;
+import com.jme3.effect.Particle;
+import com.jme3.effect.influencers.DefaultParticleInfluencer;
+import com.jme3.effect.influencers.NewtonianParticleInfluencer;
+import com.jme3.effect.influencers.ParticleInfluencer;
+import com.jme3.effect.shapes.EmitterShape;
+import com.jme3.export.InputCapsule;
+import com.jme3.export.JmeExporter;
+import com.jme3.export.JmeImporter;
+import com.jme3.export.OutputCapsule;
+import com.jme3.math.Vector3f;
+import com.jme3.util.clone.Cloner;
+
+/**
+ * Gives the {@link BatchParticleInfluencer} and {@link BatchUpdateInfluencer}
+ * methods to any {@link ParticleInfluencer}.
+ * <p>
+ * The {@link DefaultParticleInfluencer} and the
+ * {@link NewtonianParticleInfluencer} of the engine (not their subclasses)
+ * are run as real batches, with the same results as their
+ * <code>influenceParticle</code> method, drawing from the random stream of
+ * the emitter. Any other influencer is called once per particle, through a
+ * {@link Particle} copy, which is also how the update stage calls it (with a
+ * null shape). All the other calls are forwarded to the wrapped
+ * influencer, and saving the adapter saves the wrapped influencer.
+ *
+ * @author capdevon
+ */
+public final class BatchInfluencerAdapter implements BatchParticleInfluencer, BatchUpdateInfluencer {
+
+    private ParticleInfluencer influencer;
+    private final Particle particle = new Particle();
+
+    /**
+     * Returns the given influencer if it supports batches, or an adapter for
+     * it.
+     *
+     * @param influencer the influencer to adapt (not null)
+     * @return a batch influencer (not null)
+     */
+    public static BatchParticleInfluencer of(ParticleInfluencer influencer) {
+        if (influencer instanceof BatchParticleInfluencer) {
+            return (BatchParticleInfluencer) influencer;
+        }
+        return new BatchInfluencerAdapter(influencer);
+    }
+
+    /**
+     * Returns the given influencer if it supports the update stage, or an
+     * adapter for it.
+     *
+     * @param influencer the influencer to adapt (not null)
+     * @return an update influencer (not null)
+     */
+    public static BatchUpdateInfluencer ofUpdate(ParticleInfluencer influencer) {
+        if (influencer instanceof BatchUpdateInfluencer) {
+            return (BatchUpdateInfluencer) influencer;
+        }
+        return new BatchInfluencerAdapter(influencer);
+    }
+
+    /**
+     * For serialization only. Do not use.
+     */
+    private BatchInfluencerAdapter() {
+    }
+
+    private BatchInfluencerAdapter(ParticleInfluencer influencer) {
+        this.influencer = influencer;
+    }
+
+    /**
+     * Returns the wrapped influencer.
+     *
+     * @return the influencer (not null)
+     */
+    public ParticleInfluencer getInfluencer() {
+        return influencer;
+    }
+
+    @Override
+    public void influenceParticles(ParticleData data, int from, int to, BatchEmitterShape shape,
+            ParticleRandom random) {
+        Class<?> type = influencer.getClass();
+        if (type == DefaultParticleInfluencer.class) {
+            shape.getRandomPoints(random, data.posX, data.posY, data.posZ, from, to);
+            applyVelocityVariation(data, from, to, random);
+
+        } else if (type == NewtonianParticleInfluencer.class
+                && ((NewtonianParticleInfluencer) influencer).getSurfaceTangentRotation() == 0f) {
+            influenceNewtonian(data, from, to, shape, random);
+
+        } else {
+            for (int i = from; i < to; i++) {
+                Particle p = data.get(i, particle);
+                influencer.influenceParticle(p, shape);
+                data.set(i, p);
+            }
+        }
+    }
+
+    @Override
+    public void updateParticles(ParticleData data, int from, int to, float tpf) {
+        for (int i = from; i < to; i++) {
+            Particle p = data.get(i, particle);
+            influencer.influenceParticle(p, null);
+            data.set(i, p);
+        }
+    }
+
+    /**
+     * Same as <code>NewtonianParticleInfluencer.influenceParticle</code>
+     * without the tangent rotation, which needs a matrix per particle.
+     */
+    private void influenceNewtonian(ParticleData data, int from, int to, BatchEmitterShape shape,
+            ParticleRandom random) {
+        NewtonianParticleInfluencer newtonian = (NewtonianParticleInfluencer) influencer;
+        float normalVelocity = newtonian.getNormalVelocity();
+        float tangentFactor = newtonian.getSurfaceTangentFactor();
+
+        // the velocities receive the normals
+        float[] vx = data.velX;
+        float[] vy = data.velY;
+        float[] vz = data.velZ;
+        shape.getRandomPointsAndNormals(random, data.posX, data.posY, data.posZ, vx, vy, vz, from, to);
+
+        for (int i = from; i < to; i++) {
+            float nx = vx[i];
+            float ny = vy[i];
+            float nz = vz[i];
+            vx[i] = nx * normalVelocity + nz * tangentFactor;
+            vy[i] = ny * normalVelocity + ny * tangentFactor;
+            vz[i] = nz * normalVelocity - nx * tangentFactor;
+        }
+
+        float variation = newtonian.getVelocityVariation();
+        if (variation != 0f) {
+            // NewtonianParticleInfluencer.applyVelocityVariation: adds a
+            // random offset, the normal velocity is kept
+            for (int i = from; i < to; i++) {
+                vx[i] += random.nextFloat() * variation;
+                vy[i] += random.nextFloat() * variation;
+                vz[i] += random.nextFloat() * variation;
+            }
+        }
+    }
+
+    /**
+     * Same as <code>DefaultParticleInfluencer.applyVelocityVariation</code>.
+     */
+    private void applyVelocityVariation(ParticleData data, int from, int to, ParticleRandom random) {
+        Vector3f initialVelocity = influencer.getInitialVelocity();
+        float variation = influencer.getVelocityVariation();
+        float ix = initialVelocity.x;
+        float iy = initialVelocity.y;
+        float iz = initialVelocity.z;
+        float length = initialVelocity.length();
+
+        for (int i = from; i < to; i++) {
+            float rx = (random.nextFloat() * 2f - 1f) * length;
+            float ry = (random.nextFloat() * 2f - 1f) * length;
+            float rz = (random.nextFloat() * 2f - 1f) * length;
+            data.velX[i] = ix + (rx - ix) * variation;
+            data.velY[i] = iy + (ry - iy) * variation;
+            data.velZ[i] = iz + (rz - iz) * variation;
+        }
+    }
+
+    @Override
+    public void influenceParticle(Particle particle, EmitterShape emitterShape) {
+        influencer.influenceParticle(particle, emitterShape);
+    }
+
+    @Override
+    public void setInitialVelocity(Vector3f initialVelocity) {
+        influencer.setInitialVelocity(initialVelocity);
+    }
+
+    @Override
+    public Vector3f getInitialVelocity() {
+        return influencer.getInitialVelocity();
+    }
+
+    @Override
+    public void setVelocityVariation(float variation) {
+        influencer.setVelocityVariation(variation);
+    }
+
+    @Override
+    public float getVelocityVariation() {
+        return influencer.getVelocityVariation();
+    }
+
+    @Override
+    public BatchInfluencerAdapter clone() {
+        return new BatchInfluencerAdapter(influencer.clone());
+    }
+
+    @Override
+    public Object jmeClone() {
+        return new BatchInfluencerAdapter(influencer);
+    }
+
+    @Override
+    public void cloneFields(Cloner cloner, Object original) {
+        this.influencer = cloner.clone(influencer);
+    }
+
+    @Override
+    public void write(JmeExporter ex) throws IOException {
+        OutputCapsule oc = ex.getCapsule(this);
+        oc.write(influencer, "influencer", null);
+    }
+
+    @Override
+    public void read(JmeImporter im) throws IOException {
+        InputCapsule ic = im.getCapsule(this);
+        influencer = (ParticleInfluencer) ic.readSavable("influencer", null);
+    }
+
+}
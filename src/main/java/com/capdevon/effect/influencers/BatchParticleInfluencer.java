@@ -0,0 +1,33 @@
+package com.capdevon.effect.influencers;
+
+import com.capdevon.effect.ParticleData;
+import com.capdevon.effect.ParticleRandom;
+import com.capdevon.effect.shapes.BatchEmitterShape;
+import com.jme3.effect.influencers.ParticleInfluencer;
+
+/**
+ * A {@link ParticleInfluencer} that can initialize a range of particles in
+ * one call, working directly on the arrays of a {@link ParticleData}.
+ * <p>
+ * Influencers that don't implement this interface are wrapped by a
+ * {@link BatchInfluencerAdapter}.
+ *
+ * @author capdevon
+ */
+public interface BatchParticleInfluencer extends ParticleInfluencer {
+
+    /**
+     * Influences the new particles at indices <code>[from, to)</code>: sets
+     * their position (in the local space of the emitter) and their velocity,
+     * and possibly any other attribute. The random numbers must be drawn
+     * from the given stream, so that the particles are reproducible.
+     *
+     * @param data   the particles (not null, modified)
+     * @param from   the index of the first particle
+     * @param to     the index after the last particle
+     * @param shape  the shape of the emitter (not null)
+     * @param random the random stream of the emitter (not null)
+     */
+    void influenceParticles(ParticleData data, int from, int to, BatchEmitterShape shape, ParticleRandom random);
+
+}
@@ -0,0 +1,34 @@
+package com.capdevon.effect.influencers;
+
+import com.capdevon.effect.ParticleData;
+import com.jme3.effect.influencers.ParticleInfluencer;
+
+/**
+ * An influencer of the update stage of an {@link InfluencerPipeline}: it
+ * changes the live particles every frame, over a range of a
+ * {@link ParticleData} in one call.
+ * <p>
+ * Influencers that don't implement this interface can still be added to the
+ * update stage, they are then called once per particle through a
+ * {@link com.jme3.effect.Particle} copy.
+ *
+ * @author capdevon
+ */
+public interface BatchUpdateInfluencer extends ParticleInfluencer {
+
+    /**
+     * Updates the live particles at indices <code>[from, to)</code>, after
+     * they have been aged and moved. The particles spawned during the frame
+     * are passed with a <code>tpf</code> of 0: they must receive the state
+     * of their age, whatever accumulates over time starts with the next
+     * frame.
+     *
+     * @param data the particles (not null, modified)
+     * @param from the index of the first particle
+     * @param to   the index after the last particle
+     * @param tpf  the time elapsed since the previous update (in seconds,
+     * &ge;0)
+     */
+    void updateParticles(ParticleData data, int from, int to, float tpf);
+
+}
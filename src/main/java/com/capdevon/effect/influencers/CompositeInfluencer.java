@@ -4,6 +4,9 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
 
+import com.capdevon.effect.ParticleData;
+import com.capdevon.effect.ParticleRandom;
+import com.capdevon.effect.shapes.BatchEmitterShape;
 import com.jme3.effect.Particle;
 import com.jme3.effect.influencers.EmptyParticleInfluencer;
 import com.jme3.effect.influencers.ParticleInfluencer;
@@ -14,14 +17,28 @@ import com.jme3.export.JmeImporter;
 import com.jme3.export.OutputCapsule;
 import com.jme3.math.Vector3f;
 import com.jme3.util.SafeArrayList;
+import com.jme3.util.clone.Cloner;
 
 /**
+ * Applies a list of influencers in order. The influencers that don't support
+ * batches are wrapped by a {@link BatchInfluencerAdapter} when the emitter
+ * spawns a range of particles.
+ * <p>
+ * The levels of detail of the emitter cap the number of influencers
+ * actually applied, through the methods that take a
+ * <code>maxInfluencers</code>: only the first ones of the list are kept, so
+ * the essential influencers should come first and the expensive ones last.
+ * The cap is passed by each emitter, a composite shared by several
+ * emitters doesn't keep it.
  *
  * @author capdevon
  */
-public class CompositeInfluencer extends EmptyParticleInfluencer {
+public class CompositeInfluencer extends EmptyParticleInfluencer implements BatchParticleInfluencer {
 
     protected SafeArrayList<ParticleInfluencer> influencers = new SafeArrayList<>(ParticleInfluencer.class);
+    // the batch view of the influencers, rebuilt when the list changes
+    private transient ParticleInfluencer[] adaptedArray;
+    private transient BatchParticleInfluencer[] batchInfluencers;
 
     /**
      * For serialization only. Do not use.
@@ -35,8 +52,56 @@ public class CompositeInfluencer extends EmptyParticleInfluencer {
 
     @Override
     public void influenceParticle(Particle particle, EmitterShape emitterShape) {
-        for (ParticleInfluencer pi : influencers.getArray()) {
-            pi.influenceParticle(particle, emitterShape);
+        influenceParticle(particle, emitterShape, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Applies only the first influencers of the list to a particle.
+     *
+     * @param particle       the particle (not null, modified)
+     * @param emitterShape   the shape of the emitter
+     * @param maxInfluencers the number of influencers to apply (&ge;0,
+     * Integer.MAX_VALUE for all of them)
+     */
+    public void influenceParticle(Particle particle, EmitterShape emitterShape, int maxInfluencers) {
+        ParticleInfluencer[] array = influencers.getArray();
+        int count = Math.min(array.length, maxInfluencers);
+        for (int i = 0; i < count; i++) {
+            array[i].influenceParticle(particle, emitterShape);
+        }
+    }
+
+    @Override
+    public void influenceParticles(ParticleData data, int from, int to, BatchEmitterShape shape,
+            ParticleRandom random) {
+        influenceParticles(data, from, to, shape, random, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Applies only the first influencers of the list to a range of new
+     * particles.
+     *
+     * @param data           the particles (not null, modified)
+     * @param from           the index of the first particle
+     * @param to             the index after the last particle
+     * @param shape          the shape of the emitter (not null)
+     * @param random         the random stream of the emitter (not null)
+     * @param maxInfluencers the number of influencers to apply (&ge;0,
+     * Integer.MAX_VALUE for all of them)
+     */
+    public void influenceParticles(ParticleData data, int from, int to, BatchEmitterShape shape,
+            ParticleRandom random, int maxInfluencers) {
+        ParticleInfluencer[] array = influencers.getArray();
+        if (array != adaptedArray) {
+            batchInfluencers = new BatchParticleInfluencer[array.length];
+            for (int i = 0; i < array.length; i++) {
+                batchInfluencers[i] = BatchInfluencerAdapter.of(array[i]);
+            }
+            adaptedArray = array;
+        }
+        int count = Math.min(batchInfluencers.length, maxInfluencers);
+        for (int i = 0; i < count; i++) {
+            batchInfluencers[i].influenceParticles(data, from, to, shape, random);
         }
     }
 
@@ -105,6 +170,22 @@ public class CompositeInfluencer extends EmptyParticleInfluencer {
         throw new UnsupportedOperationException();
     }
 
+    @Override
+    public CompositeInfluencer clone() {
+        CompositeInfluencer clone = (CompositeInfluencer) super.clone();
+        // the adapters hold scratch state, each copy makes its own
+        clone.adaptedArray = null;
+        clone.batchInfluencers = null;
+        return clone;
+    }
+
+    @Override
+    public void cloneFields(Cloner cloner, Object original) {
+        super.cloneFields(cloner, original);
+        adaptedArray = null;
+        batchInfluencers = null;
+    }
+
     @Override
     public void write(JmeExporter ex) throws IOException {
         OutputCapsule oc = ex.getCapsule(this);
@@ -1,7 +1,9 @@
 package com.capdevon.effect.influencers;
 
 import java.io.IOException;
+import java.util.Arrays;
 
+import com.capdevon.effect.ParticleData;
 import com.jme3.effect.Particle;
 import com.jme3.effect.influencers.EmptyParticleInfluencer;
 import com.jme3.effect.shapes.EmitterShape;
@@ -11,19 +13,43 @@ import com.jme3.export.JmeImporter;
 import com.jme3.export.OutputCapsule;
 import com.jme3.math.ColorRGBA;
 import com.jme3.math.Vector3f;
+import com.jme3.util.clone.Cloner;
 
 /**
  * The color module allows you to change the particle's color over time.
+ * <p>
+ * By default the color goes from the start color at <code>minX</code> to
+ * the end color at <code>maxX</code> (fractions of the particle life). A
+ * gradient with more colors is set with {@link #addColorKey(float, ColorRGBA)}:
+ * the color is then interpolated between the keys, and held before the
+ * first one and after the last one.
+ * <p>
+ * When the emitter updates its particles in batches, the gradient is baked
+ * once into a table of {@value #TABLE_SIZE} packed colors, and each particle
+ * costs a single lookup. The table is rebuilt when the gradient changes.
  *
  * @author capdevon
  */
-public class GradientColorInfluencer extends EmptyParticleInfluencer {
+public class GradientColorInfluencer extends EmptyParticleInfluencer implements BatchColorInfluencer {
+
+    /**
+     * The number of entries of the baked gradient.
+     */
+    public static final int TABLE_SIZE = 256;
 
     private ColorRGBA startColor = new ColorRGBA(0.4f, 0.4f, 0.4f, 0.5f);
     private ColorRGBA endColor = new ColorRGBA(0.1f, 0.1f, 0.1f, 0.0f);
     private float minX = 0.5f;
     private float maxX = 1.0f;
-    private final ColorRGBA stepColor = ColorRGBA.White.clone();
+    // the keys of a multi-color gradient: times, and r,g,b,a per key
+    private float[] keyTimes = new float[0];
+    private float[] keyColors = new float[0];
+    private ColorRGBA stepColor = ColorRGBA.White.clone();
+
+    // the baked gradient, with the inputs it was baked from
+    private transient int[] table;
+    private transient ColorRGBA bakedStartColor;
+    private transient ColorRGBA bakedEndColor;
 
     /**
      * For serialization only. Do not use.
@@ -52,17 +78,151 @@ public class GradientColorInfluencer extends EmptyParticleInfluencer {
         particle.color.set(getValueColor(b));
     }
 
+    @Override
+    public void influenceColors(ParticleData data, int from, int to) {
+        int[] colors = getTable();
+        float[] life = data.life;
+        float[] startLife = data.startLife;
+        int[] color = data.color;
+        int last = TABLE_SIZE - 1;
+
+        for (int i = from; i < to; i++) {
+            float b = (startLife[i] - life[i]) / startLife[i];
+            int index = (int) (b * last + 0.5f);
+            if (index > last) {
+                index = last;
+            } else if (index < 0) {
+                index = 0;
+            }
+            color[i] = colors[index];
+        }
+    }
+
+    /**
+     * Returns the baked gradient, rebuilt if the gradient changed since.
+     * The start and end colors are compared too, because their getters
+     * expose them.
+     */
+    private int[] getTable() {
+        int[] colors = table;
+        if (colors == null || !startColor.equals(bakedStartColor) || !endColor.equals(bakedEndColor)) {
+            colors = new int[TABLE_SIZE];
+            ColorRGBA store = new ColorRGBA();
+            for (int i = 0; i < TABLE_SIZE; i++) {
+                colors[i] = getColor(i / (float) (TABLE_SIZE - 1), store).asIntABGR();
+            }
+            bakedStartColor = startColor.clone();
+            bakedEndColor = endColor.clone();
+            table = colors;
+        }
+        return colors;
+    }
+
     private ColorRGBA getValueColor(float percent) {
+        return getColor(percent, stepColor);
+    }
+
+    /**
+     * Returns the color of the gradient at the given fraction of the
+     * particle life.
+     *
+     * @param percent the fraction of life elapsed (0=birth, 1=death)
+     * @param store   storage for the result (not null, modified)
+     * @return the color (store)
+     */
+    public ColorRGBA getColor(float percent, ColorRGBA store) {
+        int n = keyTimes.length;
+        if (n > 0) {
+            if (percent <= keyTimes[0]) {
+                return getKeyColor(0, store);
+            }
+            if (percent >= keyTimes[n - 1]) {
+                return getKeyColor(n - 1, store);
+            }
+            int i = 1;
+            while (keyTimes[i] < percent) {
+                i++;
+            }
+            float t = (percent - keyTimes[i - 1]) / (keyTimes[i] - keyTimes[i - 1]);
+            int k0 = (i - 1) * 4;
+            int k1 = i * 4;
+            return store.set(
+                    keyColors[k0] + (keyColors[k1] - keyColors[k0]) * t,
+                    keyColors[k0 + 1] + (keyColors[k1 + 1] - keyColors[k0 + 1]) * t,
+                    keyColors[k0 + 2] + (keyColors[k1 + 2] - keyColors[k0 + 2]) * t,
+                    keyColors[k0 + 3] + (keyColors[k1 + 3] - keyColors[k0 + 3]) * t);
+        }
+
         if (percent < minX) {
-            stepColor.set(startColor);
+            store.set(startColor);
         } else if (percent > maxX) {
-            stepColor.set(endColor);
+            store.set(endColor);
         } else {
             float range = maxX - minX;
             float p = (percent - minX) / range;
-            stepColor.interpolateLocal(startColor, endColor, p);
+            store.interpolateLocal(startColor, endColor, p);
+        }
+        return store;
+    }
+
+    private ColorRGBA getKeyColor(int index, ColorRGBA store) {
+        int k = index * 4;
+        return store.set(keyColors[k], keyColors[k + 1], keyColors[k + 2], keyColors[k + 3]);
+    }
+
+    /**
+     * Adds a key to the gradient, replacing the key at the same time if
+     * any. As soon as the gradient has keys, the start and end colors are
+     * ignored.
+     *
+     * @param time  the fraction of the particle life (0-1)
+     * @param color the color at that time (not null, unaffected)
+     * @return this influencer
+     */
+    public GradientColorInfluencer addColorKey(float time, ColorRGBA color) {
+        int index = Arrays.binarySearch(keyTimes, time);
+        if (index < 0) {
+            index = -index - 1;
+            float[] times = new float[keyTimes.length + 1];
+            System.arraycopy(keyTimes, 0, times, 0, index);
+            times[index] = time;
+            System.arraycopy(keyTimes, index, times, index + 1, keyTimes.length - index);
+
+            float[] colors = new float[keyColors.length + 4];
+            System.arraycopy(keyColors, 0, colors, 0, index * 4);
+            System.arraycopy(keyColors, index * 4, colors, index * 4 + 4, keyColors.length - index * 4);
+            keyTimes = times;
+            keyColors = colors;
         }
-        return stepColor;
+        int k = index * 4;
+        keyColors[k] = color.r;
+        keyColors[k + 1] = color.g;
+        keyColors[k + 2] = color.b;
+        keyColors[k + 3] = color.a;
+        table = null;
+        return this;
+    }
+
+    /**
+     * Removes all the keys of the gradient, the influencer goes back to its
+     * start and end colors.
+     */
+    public void clearColorKeys() {
+        keyTimes = new float[0];
+        keyColors = new float[0];
+        table = null;
+    }
+
+    public int getNumColorKeys() {
+        return keyTimes.length;
+    }
+
+    public float getColorKeyTime(int index) {
+        return keyTimes[index];
+    }
+
+    public ColorRGBA getColorKey(int index, ColorRGBA store) {
+        return getKeyColor(index, store);
     }
 
     @Override
@@ -107,6 +267,7 @@ public class GradientColorInfluencer extends EmptyParticleInfluencer {
 
     public void setMinX(float minX) {
         this.minX = minX;
+        table = null;
     }
 
     public float getMaxX() {
@@ -115,6 +276,32 @@ public class GradientColorInfluencer extends EmptyParticleInfluencer {
 
     public void setMaxX(float maxX) {
         this.maxX = maxX;
+        table = null;
+    }
+
+    @Override
+    public GradientColorInfluencer clone() {
+        GradientColorInfluencer clone = (GradientColorInfluencer) super.clone();
+        clone.copyFields();
+        return clone;
+    }
+
+    @Override
+    public void cloneFields(Cloner cloner, Object original) {
+        super.cloneFields(cloner, original);
+        copyFields();
+    }
+
+    /**
+     * Gives a copy its own colors and keys: the copies may be updated by
+     * different emitters, on different threads.
+     */
+    private void copyFields() {
+        startColor = startColor.clone();
+        endColor = endColor.clone();
+        keyTimes = keyTimes.clone();
+        keyColors = keyColors.clone();
+        stepColor = new ColorRGBA();
     }
 
     @Override
@@ -124,6 +311,8 @@ public class GradientColorInfluencer extends EmptyParticleInfluencer {
         oc.write(endColor, "endColor", null);
         oc.write(minX, "minX", 0.5f);
         oc.write(maxX, "maxX", 1.0f);
+        oc.write(keyTimes, "keyTimes", null);
+        oc.write(keyColors, "keyColors", null);
     }
 
     @Override
@@ -133,6 +322,9 @@ public class GradientColorInfluencer extends EmptyParticleInfluencer {
         endColor = (ColorRGBA) ic.readSavable("endColor", null);
         minX = ic.readFloat("minX", 0.5f);
         maxX = ic.readFloat("maxX", 1.0f);
+        keyTimes = ic.readFloatArray("keyTimes", new float[0]);
+        keyColors = ic.readFloatArray("keyColors", new float[0]);
+        table = null;
     }
 
 }
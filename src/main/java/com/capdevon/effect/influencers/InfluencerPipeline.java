@@ -0,0 +1,301 @@
+package com.capdevon.effect.influencers;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.capdevon.effect.ParticleData;
+import com.capdevon.effect.ParticleRandom;
+import com.capdevon.effect.shapes.BatchEmitterShape;
+import com.jme3.effect.influencers.ParticleInfluencer;
+import com.jme3.export.InputCapsule;
+import com.jme3.export.JmeExporter;
+import com.jme3.export.JmeImporter;
+import com.jme3.export.OutputCapsule;
+import com.jme3.export.Savable;
+import com.jme3.util.SafeArrayList;
+import com.jme3.util.clone.Cloner;
+import com.jme3.util.clone.JmeCloneable;
+
+/**
+ * The influencers of a {@link com.capdevon.effect.MyParticleEmitter}, sorted
+ * by the moment they run at:
+ * <ul>
+ * <li>{@link Stage#Spawn}: once, on the new particles, after the particle
+ * influencer of the emitter,</li>
+ * <li>{@link Stage#Update}: every frame, on all the live particles, after
+ * the color influencer of the emitter,</li>
+ * <li>{@link Stage#Death}: on the particles that just died.</li>
+ * </ul>
+ * Unlike a {@link CompositeInfluencer}, which runs all its children in
+ * whichever role it is given, each stage only holds the work that belongs
+ * to it: the spawn-only influencers don't run every frame. A composite
+ * added to a stage is flattened into its children, and each stage keeps
+ * a flat array of batch influencers that is walked once per range of
+ * particles.
+ *
+ * @author capdevon
+ */
+public class InfluencerPipeline implements Savable, JmeCloneable {
+
+    /**
+     * The moments of the life of a particle an influencer can run at.
+     */
+    public enum Stage {
+        Spawn, Update, Death
+    }
+
+    private SafeArrayList<ParticleInfluencer> spawnInfluencers = new SafeArrayList<>(ParticleInfluencer.class);
+    private SafeArrayList<ParticleInfluencer> updateInfluencers = new SafeArrayList<>(ParticleInfluencer.class);
+    private SafeArrayList<ParticleInfluencer> deathInfluencers = new SafeArrayList<>(ParticleInfluencer.class);
+
+    // the flattened stages, rebuilt when the lists change
+    private transient BatchParticleInfluencer[] spawnStage = new BatchParticleInfluencer[0];
+    private transient BatchUpdateInfluencer[] updateStage = new BatchUpdateInfluencer[0];
+    private transient BatchDeathInfluencer[] deathStage = new BatchDeathInfluencer[0];
+
+    /**
+     * Instantiate an empty InfluencerPipeline.
+     */
+    public InfluencerPipeline() {
+    }
+
+    /**
+     * Adds an influencer at the end of a stage. A {@link CompositeInfluencer}
+     * is replaced by its children.
+     *
+     * @param stage      the stage to run the influencer at (not null)
+     * @param influencer the influencer (not null, a
+     * {@link BatchDeathInfluencer} for the death stage)
+     * @return this pipeline
+     */
+    public InfluencerPipeline addInfluencer(Stage stage, ParticleInfluencer influencer) {
+        if (influencer instanceof CompositeInfluencer) {
+            CompositeInfluencer composite = (CompositeInfluencer) influencer;
+            for (int i = 0; i < composite.getNumInfluencers(); i++) {
+                addInfluencer(stage, composite.getInfluencer(i));
+            }
+            return this;
+        }
+        if (stage == Stage.Death && !(influencer instanceof BatchDeathInfluencer)) {
+            throw new IllegalArgumentException("Not a BatchDeathInfluencer: " + influencer);
+        }
+        getList(stage).add(influencer);
+        rebuild(stage);
+        return this;
+    }
+
+    /**
+     * Removes the first influencer of a stage that is an instance of the
+     * given class.
+     *
+     * @param stage          the stage (not null)
+     * @param influencerType the type of influencer to remove
+     * @return this pipeline
+     */
+    public InfluencerPipeline removeInfluencer(Stage stage, Class<? extends ParticleInfluencer> influencerType) {
+        SafeArrayList<ParticleInfluencer> list = getList(stage);
+        for (int i = 0; i < list.size(); i++) {
+            if (influencerType.isAssignableFrom(list.get(i).getClass())) {
+                list.remove(i);
+                rebuild(stage);
+                break;
+            }
+        }
+        return this;
+    }
+
+    @SuppressWarnings("unchecked")
+    public <T extends ParticleInfluencer> T getInfluencer(Stage stage, Class<T> influencerType) {
+        for (ParticleInfluencer pi : getList(stage).getArray()) {
+            if (influencerType.isAssignableFrom(pi.getClass())) {
+                return (T) pi;
+            }
+        }
+        return null;
+    }
+
+    public ParticleInfluencer getInfluencer(Stage stage, int index) {
+        return getList(stage).get(index);
+    }
+
+    public int getNumInfluencers(Stage stage) {
+        return getList(stage).size();
+    }
+
+    /**
+     * Runs the spawn stage on the new particles at indices
+     * <code>[from, to)</code>.
+     *
+     * @param data   the particles (not null, modified)
+     * @param from   the index of the first particle
+     * @param to     the index after the last particle
+     * @param shape  the shape of the emitter (not null)
+     * @param random the random stream of the emitter (not null)
+     * @param maxInfluencers the number of influencers to run, the first
+     * ones of the stage (&ge;0, Integer.MAX_VALUE for all of them)
+     */
+    public void spawn(ParticleData data, int from, int to, BatchEmitterShape shape, ParticleRandom random,
+            int maxInfluencers) {
+        BatchParticleInfluencer[] stage = spawnStage;
+        int count = Math.min(stage.length, maxInfluencers);
+        for (int i = 0; i < count; i++) {
+            stage[i].influenceParticles(data, from, to, shape, random);
+        }
+    }
+
+    /**
+     * Runs the update stage on the live particles at indices
+     * <code>[from, to)</code>.
+     *
+     * @param data the particles (not null, modified)
+     * @param from the index of the first particle
+     * @param to   the index after the last particle
+     * @param tpf  the time elapsed since the previous update (in seconds,
+     * 0 for the particles just spawned)
+     * @param maxInfluencers the number of influencers to run, the first
+     * ones of the stage (&ge;0, Integer.MAX_VALUE for all of them)
+     */
+    public void update(ParticleData data, int from, int to, float tpf, int maxInfluencers) {
+        BatchUpdateInfluencer[] stage = updateStage;
+        int count = Math.min(stage.length, maxInfluencers);
+        for (int i = 0; i < count; i++) {
+            stage[i].updateParticles(data, from, to, tpf);
+        }
+    }
+
+    /**
+     * Returns true if the death stage has influencers, the emitter only
+     * collects the dead particles in that case.
+     *
+     * @param maxInfluencers the number of influencers to run, the first
+     * ones of the stage (&ge;0, Integer.MAX_VALUE for all of them)
+     * @return true if the death stage would run
+     */
+    public boolean hasDeathStage(int maxInfluencers) {
+        return deathStage.length > 0 && maxInfluencers > 0;
+    }
+
+    /**
+     * Runs the death stage on the given particles.
+     *
+     * @param data    the particles (not null, unaffected)
+     * @param indices the indices of the dead particles, in ascending order
+     * @param count   the number of dead particles
+     * @param maxInfluencers the number of influencers to run, the first
+     * ones of the stage (&ge;0, Integer.MAX_VALUE for all of them)
+     */
+    public void die(ParticleData data, int[] indices, int count, int maxInfluencers) {
+        BatchDeathInfluencer[] stage = deathStage;
+        int num = Math.min(stage.length, maxInfluencers);
+        for (int i = 0; i < num; i++) {
+            stage[i].influenceDeaths(data, indices, count);
+        }
+    }
+
+    private SafeArrayList<ParticleInfluencer> getList(Stage stage) {
+        switch (stage) {
+            case Spawn:
+                return spawnInfluencers;
+            case Update:
+                return updateInfluencers;
+            default:
+                return deathInfluencers;
+        }
+    }
+
+    /**
+     * Rebuilds the flat array of a stage. The adapters hold scratch state,
+     * so each pipeline makes its own.
+     */
+    private void rebuild(Stage stage) {
+        ParticleInfluencer[] array = getList(stage).getArray();
+        switch (stage) {
+            case Spawn:
+                spawnStage = new BatchParticleInfluencer[array.length];
+                for (int i = 0; i < array.length; i++) {
+                    spawnStage[i] = BatchInfluencerAdapter.of(array[i]);
+                }
+                break;
+            case Update:
+                updateStage = new BatchUpdateInfluencer[array.length];
+                for (int i = 0; i < array.length; i++) {
+                    updateStage[i] = BatchInfluencerAdapter.ofUpdate(array[i]);
+                }
+                break;
+            default:
+                deathStage = new BatchDeathInfluencer[array.length];
+                for (int i = 0; i < array.length; i++) {
+                    deathStage[i] = (BatchDeathInfluencer) array[i];
+                }
+                break;
+        }
+    }
+
+    private void rebuildAll() {
+        for (Stage stage : Stage.values()) {
+            rebuild(stage);
+        }
+    }
+
+    @Override
+    public Object jmeClone() {
+        try {
+            return super.clone();
+        } catch (CloneNotSupportedException ex) {
+            throw new AssertionError();
+        }
+    }
+
+    @Override
+    public void cloneFields(Cloner cloner, Object original) {
+        spawnInfluencers = cloneList(cloner, spawnInfluencers);
+        updateInfluencers = cloneList(cloner, updateInfluencers);
+        deathInfluencers = cloneList(cloner, deathInfluencers);
+        rebuildAll();
+    }
+
+    private static SafeArrayList<ParticleInfluencer> cloneList(Cloner cloner, SafeArrayList<ParticleInfluencer> list) {
+        SafeArrayList<ParticleInfluencer> result = new SafeArrayList<>(ParticleInfluencer.class);
+        for (ParticleInfluencer pi : list.getArray()) {
+            result.add(cloner.clone(pi));
+        }
+        return result;
+    }
+
+    @Override
+    public void write(JmeExporter ex) throws IOException {
+        OutputCapsule oc = ex.getCapsule(this);
+        oc.writeSavableArrayList(new ArrayList<>(spawnInfluencers), "spawnInfluencers", null);
+        oc.writeSavableArrayList(new ArrayList<>(updateInfluencers), "updateInfluencers", null);
+        oc.writeSavableArrayList(new ArrayList<>(deathInfluencers), "deathInfluencers", null);
+    }
+
+    @Override
+    public void read(JmeImporter im) throws IOException {
+        InputCapsule ic = im.getCapsule(this);
+        spawnInfluencers = readList(ic, "spawnInfluencers");
+        updateInfluencers = readList(ic, "updateInfluencers");
+        deathInfluencers = readList(ic, "deathInfluencers");
+        rebuildAll();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static SafeArrayList<ParticleInfluencer> readList(InputCapsule ic, String name) throws IOException {
+        SafeArrayList<ParticleInfluencer> list = new SafeArrayList<>(ParticleInfluencer.class);
+        List<ParticleInfluencer> read = ic.readSavableArrayList(name, null);
+        if (read != null) {
+            list.addAll(read);
+        }
+        return list;
+    }
+
+    @Override
+    public String toString() {
+        return "InfluencerPipeline [Spawn=" + spawnInfluencers.size()
+                + ", Update=" + updateInfluencers.size()
+                + ", Death=" + deathInfluencers.size()
+                + "]";
+    }
+
+}
@@ -0,0 +1,332 @@
+package com.capdevon.effect.influencers;
+
+import java.io.IOException;
+
+import com.capdevon.effect.ParticleData;
+import com.capdevon.effect.fields.VectorField;
+import com.capdevon.effect.fields.VectorFieldCache;
+import com.capdevon.effect.fields.VectorFieldSpec;
+import com.jme3.effect.influencers.EmptyParticleInfluencer;
+import com.jme3.export.InputCapsule;
+import com.jme3.export.JmeExporter;
+import com.jme3.export.JmeImporter;
+import com.jme3.export.OutputCapsule;
+import com.jme3.math.Quaternion;
+import com.jme3.math.Transform;
+import com.jme3.math.Vector3f;
+import com.jme3.util.clone.Cloner;
+
+/**
+ * Pushes the particles along a {@link VectorField}: a wind, a vortex or a
+ * curl-noise turbulence. The field is baked once, shared through the
+ * {@link VectorFieldCache}, and sampled trilinearly for each particle, so
+ * a large smoke effect gets turbulence for the cost of a few lookups per
+ * particle.
+ * <p>
+ * The unit volume of the field is placed by a {@link Transform} in the
+ * space of the particles (world space for a world-space emitter): its
+ * translation is the center of the volume, its rotation orients the field,
+ * and its scale is the size of the volume. A tiled field repeats beyond the
+ * volume, otherwise only the particles inside are affected.
+ * <p>
+ * Without drag the field is a force: it accelerates the particles by
+ * <code>strength</code> units per second squared where it is 1 long. With
+ * a drag the field is the velocity of the air: the particles are carried
+ * towards <code>strength</code> times the field, at a rate of
+ * <code>drag</code> per second.
+ * <p>
+ * This influencer belongs to the update stage of an
+ * {@link InfluencerPipeline}. It keeps no state during the update, so one
+ * of them can be shared by emitters that update in parallel.
+ *
+ * @author capdevon
+ */
+public class VectorFieldInfluencer extends EmptyParticleInfluencer implements BatchUpdateInfluencer {
+
+    private VectorFieldSpec spec;
+    private Transform volume = new Transform();
+    private float strength = 1f;
+    private float drag;
+    private boolean tiled;
+
+    // the field of the spec, the same whichever thread looks it up first
+    private transient VectorField field;
+
+    /**
+     * For serialization only. Do not use.
+     */
+    protected VectorFieldInfluencer() {
+    }
+
+    /**
+     * Instantiate a VectorFieldInfluencer.
+     *
+     * @param spec     the parameters of the field (not null)
+     * @param volume   the placement of the field (not null, unaffected)
+     * @param strength the factor applied to the field
+     */
+    public VectorFieldInfluencer(VectorFieldSpec spec, Transform volume, float strength) {
+        this.spec = spec;
+        this.volume.set(volume);
+        this.strength = strength;
+        this.tiled = spec.getType() == VectorFieldSpec.Type.CurlNoise;
+    }
+
+    @Override
+    public void updateParticles(ParticleData data, int from, int to, float tpf) {
+        if (tpf <= 0 || strength == 0) {
+            return;
+        }
+        VectorField f = getField();
+        float[] grid = f.getData();
+        int n = f.getResolution();
+        int rowStride = n * 3;
+        int sliceStride = n * n * 3;
+
+        // the rotation of the volume as a matrix, like
+        // Quaternion.toRotationMatrix() but in locals
+        Quaternion q = volume.getRotation();
+        float qx = q.getX(), qy = q.getY(), qz = q.getZ(), qw = q.getW();
+        float norm = qw * qw + qx * qx + qy * qy + qz * qz;
+        float s = (norm > 0) ? 2f / norm : 0;
+        float xs = qx * s, ys = qy * s, zs = qz * s;
+        float xx = qx * xs, xy = qx * ys, xz = qx * zs, xw = qw * xs;
+        float yy = qy * ys, yz = qy * zs, yw = qw * ys;
+        float zz = qz * zs, zw = qw * zs;
+        float m00 = 1 - (yy + zz), m01 = xy - zw, m02 = xz + yw;
+        float m10 = xy + zw, m11 = 1 - (xx + zz), m12 = yz - xw;
+        float m20 = xz - yw, m21 = yz + xw, m22 = 1 - (xx + yy);
+
+        Vector3f center = volume.getTranslation();
+        Vector3f size = volume.getScale();
+        float isx = 1f / size.x;
+        float isy = 1f / size.y;
+        float isz = 1f / size.z;
+        // implicit, so that a strong drag does not overshoot
+        float blend = drag * tpf / (1f + drag * tpf);
+
+        for (int i = from; i < to; i++) {
+            float dx = data.posX[i] - center.x;
+            float dy = data.posY[i] - center.y;
+            float dz = data.posZ[i] - center.z;
+            // into the unit volume: the inverse rotation is the transpose
+            float u = (m00 * dx + m10 * dy + m20 * dz) * isx + 0.5f;
+            float v = (m01 * dx + m11 * dy + m21 * dz) * isy + 0.5f;
+            float w = (m02 * dx + m12 * dy + m22 * dz) * isz + 0.5f;
+            if (!tiled && !(u >= 0 && u <= 1 && v >= 0 && v <= 1 && w >= 0 && w <= 1)) {
+                continue;
+            }
+
+            // VectorField.sample() inlined, into locals: the samples sit at
+            // the cell centers
+            float gx = u * n - 0.5f;
+            float gy = v * n - 0.5f;
+            float gz = w * n - 0.5f;
+            int x0 = floor(gx);
+            int y0 = floor(gy);
+            int z0 = floor(gz);
+            float tx = gx - x0;
+            float ty = gy - y0;
+            float tz = gz - z0;
+
+            int x1;
+            int y1;
+            int z1;
+            if (tiled) {
+                x0 = Math.floorMod(x0, n);
+                y0 = Math.floorMod(y0, n);
+                z0 = Math.floorMod(z0, n);
+                x1 = (x0 + 1 == n) ? 0 : x0 + 1;
+                y1 = (y0 + 1 == n) ? 0 : y0 + 1;
+                z1 = (z0 + 1 == n) ? 0 : z0 + 1;
+            } else {
+                x1 = clamp(x0 + 1, n);
+                y1 = clamp(y0 + 1, n);
+                z1 = clamp(z0 + 1, n);
+                x0 = clamp(x0, n);
+                y0 = clamp(y0, n);
+                z0 = clamp(z0, n);
+            }
+
+            int sy0 = y0 * rowStride;
+            int sy1 = y1 * rowStride;
+            int sz0 = z0 * sliceStride;
+            int sz1 = z1 * sliceStride;
+            int c000 = sz0 + sy0 + x0 * 3;
+            int c100 = sz0 + sy0 + x1 * 3;
+            int c010 = sz0 + sy1 + x0 * 3;
+            int c110 = sz0 + sy1 + x1 * 3;
+            int c001 = sz1 + sy0 + x0 * 3;
+            int c101 = sz1 + sy0 + x1 * 3;
+            int c011 = sz1 + sy1 + x0 * 3;
+            int c111 = sz1 + sy1 + x1 * 3;
+
+            float sx = interpolate(grid, c000, c100, c010, c110, c001, c101, c011, c111, tx, ty, tz);
+            float sy = interpolate(grid, c000 + 1, c100 + 1, c010 + 1, c110 + 1,
+                    c001 + 1, c101 + 1, c011 + 1, c111 + 1, tx, ty, tz);
+            float sz = interpolate(grid, c000 + 2, c100 + 2, c010 + 2, c110 + 2,
+                    c001 + 2, c101 + 2, c011 + 2, c111 + 2, tx, ty, tz);
+
+            // back to the space of the particles
+            float fx = (m00 * sx + m01 * sy + m02 * sz) * strength;
+            float fy = (m10 * sx + m11 * sy + m12 * sz) * strength;
+            float fz = (m20 * sx + m21 * sy + m22 * sz) * strength;
+            if (drag > 0) {
+                data.velX[i] += (fx - data.velX[i]) * blend;
+                data.velY[i] += (fy - data.velY[i]) * blend;
+                data.velZ[i] += (fz - data.velZ[i]) * blend;
+            } else {
+                data.velX[i] += fx * tpf;
+                data.velY[i] += fy * tpf;
+                data.velZ[i] += fz * tpf;
+            }
+        }
+    }
+
+    private static float interpolate(float[] d, int c000, int c100, int c010, int c110,
+            int c001, int c101, int c011, int c111, float tx, float ty, float tz) {
+        float a00 = d[c000] + (d[c100] - d[c000]) * tx;
+        float a10 = d[c010] + (d[c110] - d[c010]) * tx;
+        float a01 = d[c001] + (d[c101] - d[c001]) * tx;
+        float a11 = d[c011] + (d[c111] - d[c011]) * tx;
+        float b0 = a00 + (a10 - a00) * ty;
+        float b1 = a01 + (a11 - a01) * ty;
+        return b0 + (b1 - b0) * tz;
+    }
+
+    private static int floor(float value) {
+        int i = (int) value;
+        return (value < i) ? i - 1 : i;
+    }
+
+    private static int clamp(int index, int n) {
+        return (index < 0) ? 0 : (index >= n) ? n - 1 : index;
+    }
+
+    /**
+     * Returns the baked field, from the cache.
+     *
+     * @return the field (not null)
+     */
+    public VectorField getField() {
+        VectorField f = field;
+        if (f == null || !f.getSpec().equals(spec)) {
+            f = VectorFieldCache.get(spec);
+            field = f;
+        }
+        return f;
+    }
+
+    public VectorFieldSpec getSpec() {
+        return spec;
+    }
+
+    public void setSpec(VectorFieldSpec spec) {
+        this.spec = spec;
+    }
+
+    /**
+     * Returns the placement of the field. Modify it to move the volume.
+     *
+     * @return the transform (not null)
+     */
+    public Transform getVolume() {
+        return volume;
+    }
+
+    public void setVolume(Transform volume) {
+        this.volume.set(volume);
+    }
+
+    public float getStrength() {
+        return strength;
+    }
+
+    public void setStrength(float strength) {
+        this.strength = strength;
+    }
+
+    public float getDrag() {
+        return drag;
+    }
+
+    /**
+     * Sets how fast the particles follow the field, 0 to use the field as
+     * a force instead.
+     *
+     * @param drag the rate (per second, &ge;0)
+     */
+    public void setDrag(float drag) {
+        this.drag = drag;
+    }
+
+    public boolean isTiled() {
+        return tiled;
+    }
+
+    /**
+     * Sets whether the field repeats beyond its volume. A curl noise is
+     * tiled by default, the other fields are not.
+     *
+     * @param tiled true to repeat the field, false to affect only the
+     * particles inside the volume
+     */
+    public void setTiled(boolean tiled) {
+        this.tiled = tiled;
+    }
+
+    @Override
+    public void setInitialVelocity(Vector3f initialVelocity) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public Vector3f getInitialVelocity() {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void setVelocityVariation(float variation) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public float getVelocityVariation() {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public VectorFieldInfluencer clone() {
+        VectorFieldInfluencer clone = (VectorFieldInfluencer) super.clone();
+        clone.volume = volume.clone();
+        return clone;
+    }
+
+    @Override
+    public void cloneFields(Cloner cloner, Object original) {
+        super.cloneFields(cloner, original);
+        // the spec and the field are immutable
+        volume = volume.clone();
+    }
+
+    @Override
+    public void write(JmeExporter ex) throws IOException {
+        OutputCapsule oc = ex.getCapsule(this);
+        oc.write(spec, "spec", null);
+        oc.write(volume, "volume", null);
+        oc.write(strength, "strength", 1f);
+        oc.write(drag, "drag", 0);
+        oc.write(tiled, "tiled", false);
+    }
+
+    @Override
+    public void read(JmeImporter im) throws IOException {
+        InputCapsule ic = im.getCapsule(this);
+        spec = (VectorFieldSpec) ic.readSavable("spec", null);
+        volume = (Transform) ic.readSavable("volume", new Transform());
+        strength = ic.readFloat("strength", 1f);
+        drag = ic.readFloat("drag", 0);
+        tiled = ic.readBoolean("tiled", false);
+    }
+
+}
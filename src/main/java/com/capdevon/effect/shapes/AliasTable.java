@@ -0,0 +1,112 @@
+package com.capdevon.effect.shapes;
+
+import com.capdevon.effect.ParticleRandom;
+import com.jme3.math.FastMath;
+
+/**
+ * Walker/Vose alias table: picks an index with a probability proportional to
+ * its weight in constant time, whatever the number of weights.
+ * <p>
+ * The table is immutable once built, so it can be shared between shapes.
+ *
+ * @author capdevon
+ */
+final class AliasTable {
+
+    private final float[] probability;
+    private final int[] alias;
+
+    /**
+     * Builds the table for the given weights. If all the weights are zero,
+     * the indices are picked uniformly.
+     *
+     * @param weights the non-negative weights (not null, not empty, unaffected)
+     */
+    AliasTable(float[] weights) {
+        int n = weights.length;
+        probability = new float[n];
+        alias = new int[n];
+
+        double sum = 0;
+        for (float w : weights) {
+            sum += w;
+        }
+
+        // scale the weights so that their average is 1
+        double[] scaled = new double[n];
+        for (int i = 0; i < n; i++) {
+            scaled[i] = (sum > 0) ? weights[i] * n / sum : 1;
+        }
+
+        // indices with a weight below and above the average
+        int[] small = new int[n];
+        int[] large = new int[n];
+        int numSmall = 0;
+        int numLarge = 0;
+        for (int i = 0; i < n; i++) {
+            if (scaled[i] < 1) {
+                small[numSmall++] = i;
+            } else {
+                large[numLarge++] = i;
+            }
+        }
+
+        // fill each small column with the excess of a large one
+        while (numSmall > 0 && numLarge > 0) {
+            int s = small[--numSmall];
+            int l = large[--numLarge];
+            probability[s] = (float) scaled[s];
+            alias[s] = l;
+            scaled[l] = (scaled[l] + scaled[s]) - 1;
+            if (scaled[l] < 1) {
+                small[numSmall++] = l;
+            } else {
+                large[numLarge++] = l;
+            }
+        }
+
+        // what is left is full, up to rounding errors
+        while (numLarge > 0) {
+            int l = large[--numLarge];
+            probability[l] = 1f;
+            alias[l] = l;
+        }
+        while (numSmall > 0) {
+            int s = small[--numSmall];
+            probability[s] = 1f;
+            alias[s] = s;
+        }
+    }
+
+    /**
+     * Returns the number of weights.
+     *
+     * @return the size of the table
+     */
+    int size() {
+        return probability.length;
+    }
+
+    /**
+     * Picks a random index, with a probability proportional to its weight.
+     *
+     * @return an index in <code>[0, size)</code>
+     */
+    int sample() {
+        int i = FastMath.nextRandomInt(0, probability.length - 1);
+        return (FastMath.nextRandomFloat() < probability[i]) ? i : alias[i];
+    }
+
+    /**
+     * Picks a random index from the given stream, with a probability
+     * proportional to its weight.
+     *
+     * @param random the random stream to draw from (not null)
+     * @return an index in <code>[0, size)</code>
+     */
+    int sample(ParticleRandom random) {
+        int i = random.nextInt(probability.length);
+        return (random.nextFloat() < probability[i]) ? i : alias[i];
+    }
+
+}
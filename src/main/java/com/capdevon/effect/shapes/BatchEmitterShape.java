@@ -0,0 +1,54 @@
+package com.capdevon.effect.shapes;
+
+import com.capdevon.effect.ParticleRandom;
+import com.jme3.effect.shapes.EmitterShape;
+
+/**
+ * An {@link EmitterShape} that can fill many spawn points at once.
+ * <p>
+ * The points are written into primitive arrays, one array per coordinate,
+ * so that a burst of particles costs one call instead of one virtual call
+ * and one {@link com.jme3.math.Vector3f} per particle. The arrays are
+ * typically the position and velocity arrays of a
+ * {@link com.capdevon.effect.ParticleData}. The random numbers are drawn
+ * from the stream of the emitter, so that the points are reproducible.
+ * <p>
+ * Shapes that don't implement this interface are wrapped by a
+ * {@link BatchShapeAdapter}.
+ *
+ * @author capdevon
+ */
+public interface BatchEmitterShape extends EmitterShape {
+
+    /**
+     * Fills the indices <code>[from, to)</code> of the given arrays with
+     * random points of the shape.
+     *
+     * @param random the random stream to draw from (not null)
+     * @param x      the x coordinates (not null, modified)
+     * @param y      the y coordinates (not null, modified)
+     * @param z      the z coordinates (not null, modified)
+     * @param from   the first index to fill
+     * @param to     the index after the last one to fill
+     */
+    void getRandomPoints(ParticleRandom random, float[] x, float[] y, float[] z, int from, int to);
+
+    /**
+     * Fills the indices <code>[from, to)</code> of the given arrays with
+     * random points of the shape and the normals of the shape at these
+     * points.
+     *
+     * @param random the random stream to draw from (not null)
+     * @param x      the x coordinates (not null, modified)
+     * @param y      the y coordinates (not null, modified)
+     * @param z      the z coordinates (not null, modified)
+     * @param nx     the x components of the normals (not null, modified)
+     * @param ny     the y components of the normals (not null, modified)
+     * @param nz     the z components of the normals (not null, modified)
+     * @param from   the first index to fill
+     * @param to     the index after the last one to fill
+     */
+    void getRandomPointsAndNormals(ParticleRandom random, float[] x, float[] y, float[] z,
+            float[] nx, float[] ny, float[] nz, int from, int to);
+
+}
@@ -0,0 +1,123 @@
+package com.capdevon.effect.shapes;
+
+import java.io.IOException;
+
+import com.capdevon.effect.ParticleRandom;
+import com.jme3.effect.shapes.EmitterShape;
+import com.jme3.export.InputCapsule;
+import com.jme3.export.JmeExporter;
+import com.jme3.export.JmeImporter;
+import com.jme3.export.OutputCapsule;
+import com.jme3.math.Vector3f;
+import com.jme3.util.clone.Cloner;
+
+/**
+ * Gives the {@link BatchEmitterShape} methods to any {@link EmitterShape}, by
+ * sampling the wrapped shape once per point. The wrapped shape draws its
+ * random numbers from {@link com.jme3.math.FastMath}, so the points are not
+ * reproducible. All the other calls are
+ * forwarded to the wrapped shape, and saving the adapter saves the wrapped
+ * shape.
+ *
+ * @author capdevon
+ */
+public final class BatchShapeAdapter implements BatchEmitterShape {
+
+    private EmitterShape shape;
+    private final Vector3f point = new Vector3f();
+    private final Vector3f normal = new Vector3f();
+
+    /**
+     * Returns the given shape if it supports batches, or an adapter for it.
+     *
+     * @param shape the shape to adapt (not null)
+     * @return a batch shape (not null)
+     */
+    public static BatchEmitterShape of(EmitterShape shape) {
+        if (shape instanceof BatchEmitterShape) {
+            return (BatchEmitterShape) shape;
+        }
+        return new BatchShapeAdapter(shape);
+    }
+
+    /**
+     * For serialization only. Do not use.
+     */
+    private BatchShapeAdapter() {
+    }
+
+    private BatchShapeAdapter(EmitterShape shape) {
+        this.shape = shape;
+    }
+
+    /**
+     * Returns the wrapped shape.
+     *
+     * @return the shape (not null)
+     */
+    public EmitterShape getShape() {
+        return shape;
+    }
+
+    @Override
+    public void getRandomPoints(ParticleRandom random, float[] x, float[] y, float[] z, int from, int to) {
+        for (int i = from; i < to; i++) {
+            shape.getRandomPoint(point);
+            x[i] = point.x;
+            y[i] = point.y;
+            z[i] = point.z;
+        }
+    }
+
+    @Override
+    public void getRandomPointsAndNormals(ParticleRandom random, float[] x, float[] y, float[] z,
+            float[] nx, float[] ny, float[] nz, int from, int to) {
+        for (int i = from; i < to; i++) {
+            shape.getRandomPointAndNormal(point, normal);
+            x[i] = point.x;
+            y[i] = point.y;
+            z[i] = point.z;
+            nx[i] = normal.x;
+            ny[i] = normal.y;
+            nz[i] = normal.z;
+        }
+    }
+
+    @Override
+    public void getRandomPoint(Vector3f store) {
+        shape.getRandomPoint(store);
+    }
+
+    @Override
+    public void getRandomPointAndNormal(Vector3f store, Vector3f normal) {
+        shape.getRandomPointAndNormal(store, normal);
+    }
+
+    @Override
+    public EmitterShape deepClone() {
+        return new BatchShapeAdapter(shape.deepClone());
+    }
+
+    @Override
+    public Object jmeClone() {
+        return new BatchShapeAdapter(shape);
+    }
+
+    @Override
+    public void cloneFields(Cloner cloner, Object original) {
+        this.shape = cloner.clone(shape);
+    }
+
+    @Override
+    public void write(JmeExporter ex) throws IOException {
+        OutputCapsule oc = ex.getCapsule(this);
+        oc.write(shape, "shape", null);
+    }
+
+    @Override
+    public void read(JmeImporter im) throws IOException {
+        InputCapsule ic = im.getCapsule(this);
+        shape = (EmitterShape) ic.readSavable("shape", null);
+    }
+
+}
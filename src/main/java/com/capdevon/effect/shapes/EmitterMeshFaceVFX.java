@@ -1,33 +1,41 @@
 package com.capdevon.effect.shapes;
 
 import java.io.IOException;
+import java.nio.FloatBuffer;
 
+import com.capdevon.effect.ParticleRandom;
 import com.jme3.effect.shapes.EmitterShape;
 import com.jme3.export.InputCapsule;
 import com.jme3.export.JmeExporter;
 import com.jme3.export.JmeImporter;
 import com.jme3.export.OutputCapsule;
 import com.jme3.math.FastMath;
-import com.jme3.math.Triangle;
 import com.jme3.math.Vector3f;
 import com.jme3.scene.Mesh;
+import com.jme3.scene.VertexBuffer;
+import com.jme3.scene.mesh.IndexBuffer;
+import com.jme3.util.BufferUtils;
 import com.jme3.util.clone.Cloner;
 
 /**
  * This emitter shape emits the particles from the given shape's faces.
+ * <p>
+ * The faces are picked with a probability proportional to their area, using
+ * an {@link AliasTable} built once from the mesh, and the points are
+ * uniformly distributed over each face. The vertex indices and the normals
+ * of the faces are computed once as well and shared by the clones of the
+ * shape, while the positions are read from the {@link MeshSnapshot} of the
+ * mesh so that the particles follow an animated (software skinned) mesh
+ * tracked by a {@link MeshSnapshotControl}. The areas and the normals are
+ * measured on the pose of the mesh when the shape is created.
  *
  * @author capdevon
  */
-public class EmitterMeshFaceVFX implements EmitterShape {
+public class EmitterMeshFaceVFX implements BatchEmitterShape {
 
     private Mesh source;
-    private Triangle triStore = new Triangle();
-    Vector3f p1 = new Vector3f();
-    Vector3f p2 = new Vector3f();
-    Vector3f p3 = new Vector3f();
-    Vector3f a = new Vector3f();
-    Vector3f b = new Vector3f();
-    Vector3f result = new Vector3f();
+    private transient Faces faces;
+    private transient MeshSnapshot snapshot;
 
     /**
      * For serialization only. Do not use.
@@ -42,45 +50,141 @@ public class EmitterMeshFaceVFX implements EmitterShape {
      */
     public EmitterMeshFaceVFX(Mesh source) {
         this.source = source;
+        this.faces = new Faces(source);
+        this.snapshot = MeshSnapshot.of(source);
     }
 
     /**
-     * Randomly selects a point on a random face.
+     * Randomly selects a point on a random face, larger faces being picked
+     * more often.
      */
     @Override
     public void getRandomPoint(Vector3f store) {
-        int triangleIndex = FastMath.nextRandomInt(0, source.getTriangleCount() - 1);
-        source.getTriangle(triangleIndex, triStore);
-        triStore.calculateCenter();
-        triStore.calculateNormal();
+        getRandomPoint(faces.areaTable.sample(), store);
+    }
 
-        p1.set(triStore.get1().subtract(triStore.getCenter()));
-        p2.set(triStore.get2().subtract(triStore.getCenter()));
-        p3.set(triStore.get3().subtract(triStore.getCenter()));
+    /**
+     * Randomly selects a point on a random face, larger faces being picked
+     * more often. The normal param is filled with the selected face's normal.
+     */
+    @Override
+    public void getRandomPointAndNormal(Vector3f store, Vector3f normal) {
+        int face = faces.areaTable.sample();
+        getRandomPoint(face, store);
 
-        a.interpolateLocal(p1, p2, 1f - FastMath.nextRandomFloat());
-        b.interpolateLocal(p1, p3, 1f - FastMath.nextRandomFloat());
-        result.interpolateLocal(a, b, FastMath.nextRandomFloat());
+        float[] normals = faces.normals;
+        int n = face * 3;
+        normal.set(normals[n], normals[n + 1], normals[n + 2]);
+    }
 
-        store.set(triStore.getCenter().add(result));
+    @Override
+    public void getRandomPoints(ParticleRandom random, float[] x, float[] y, float[] z, int from, int to) {
+        FloatBuffer buffer = snapshot.getPositions();
+        float[] positions = MeshSnapshot.arrayOf(buffer);
+        AliasTable areaTable = faces.areaTable;
+        for (int i = from; i < to; i++) {
+            getRandomPoint(random, areaTable.sample(random), positions, buffer, x, y, z, i);
+        }
     }
 
     @Override
-    public void getRandomPointAndNormal(Vector3f store, Vector3f normal) {
+    public void getRandomPointsAndNormals(ParticleRandom random, float[] x, float[] y, float[] z,
+            float[] nx, float[] ny, float[] nz, int from, int to) {
+        FloatBuffer buffer = snapshot.getPositions();
+        float[] positions = MeshSnapshot.arrayOf(buffer);
+        float[] normals = faces.normals;
+        AliasTable areaTable = faces.areaTable;
+        for (int i = from; i < to; i++) {
+            int face = areaTable.sample(random);
+            getRandomPoint(random, face, positions, buffer, x, y, z, i);
+
+            int n = face * 3;
+            nx[i] = normals[n];
+            ny[i] = normals[n + 1];
+            nz[i] = normals[n + 2];
+        }
+    }
+
+    private void getRandomPoint(int face, Vector3f store) {
+        int[] triangles = faces.triangles;
+        int t = face * 3;
+        int i1 = triangles[t] * 3;
+        int i2 = triangles[t + 1] * 3;
+        int i3 = triangles[t + 2] * 3;
+
+        // uniform barycentric coordinates: fold the points that fall
+        // outside the triangle back into it
+        float u = FastMath.nextRandomFloat();
+        float v = FastMath.nextRandomFloat();
+        if (u + v > 1f) {
+            u = 1f - u;
+            v = 1f - v;
+        }
+        float w = 1f - u - v;
+
+        FloatBuffer positions = snapshot.getPositions();
+        store.x = positions.get(i1) * w + positions.get(i2) * u + positions.get(i3) * v;
+        store.y = positions.get(i1 + 1) * w + positions.get(i2 + 1) * u + positions.get(i3 + 1) * v;
+        store.z = positions.get(i1 + 2) * w + positions.get(i2 + 2) * u + positions.get(i3 + 2) * v;
+    }
+
+    private void getRandomPoint(ParticleRandom random, int face, float[] positions, FloatBuffer buffer,
+            float[] x, float[] y, float[] z, int i) {
+        int[] triangles = faces.triangles;
+        int t = face * 3;
+        int i1 = triangles[t] * 3;
+        int i2 = triangles[t + 1] * 3;
+        int i3 = triangles[t + 2] * 3;
+
+        float u = random.nextFloat();
+        float v = random.nextFloat();
+        if (u + v > 1f) {
+            u = 1f - u;
+            v = 1f - v;
+        }
+        float w = 1f - u - v;
+
+        x[i] = MeshSnapshot.get(positions, buffer, i1) * w
+                + MeshSnapshot.get(positions, buffer, i2) * u
+                + MeshSnapshot.get(positions, buffer, i3) * v;
+        y[i] = MeshSnapshot.get(positions, buffer, i1 + 1) * w
+                + MeshSnapshot.get(positions, buffer, i2 + 1) * u
+                + MeshSnapshot.get(positions, buffer, i3 + 1) * v;
+        z[i] = MeshSnapshot.get(positions, buffer, i1 + 2) * w
+                + MeshSnapshot.get(positions, buffer, i2 + 2) * u
+                + MeshSnapshot.get(positions, buffer, i3 + 2) * v;
     }
 
+    /**
+     * Creates a copy of this shape that shares the mesh and the precomputed
+     * faces.
+     */
     @Override
     public Object jmeClone() {
-        return null;
+        try {
+            return super.clone();
+        } catch (CloneNotSupportedException ex) {
+            throw new AssertionError();
+        }
     }
 
+    /**
+     * The mesh follows the cloner (a cloned character emits from its own
+     * mesh), the faces are immutable and stay shared.
+     */
     @Override
     public void cloneFields(Cloner cloner, Object original) {
+        this.source = cloner.clone(source);
+        this.snapshot = MeshSnapshot.of(source);
     }
 
     @Override
     public EmitterShape deepClone() {
-        return null;
+        try {
+            return (EmitterMeshFaceVFX) super.clone();
+        } catch (CloneNotSupportedException e) {
+            throw new AssertionError();
+        }
     }
 
     @Override
@@ -93,6 +197,8 @@ public class EmitterMeshFaceVFX implements EmitterShape {
     public void read(JmeImporter im) throws IOException {
         InputCapsule ic = im.getCapsule(this);
         source = (Mesh) ic.readSavable("mesh", null);
+        faces = new Faces(source);
+        snapshot = MeshSnapshot.of(source);
     }
 
     @Override
@@ -103,4 +209,58 @@ public class EmitterMeshFaceVFX implements EmitterShape {
                 + "]";
     }
 
+    /**
+     * The faces of a mesh: vertex indices, normals and the alias table of
+     * their areas. Never modified once built.
+     */
+    private static final class Faces {
+
+        // three vertex indices per face
+        final int[] triangles;
+        // one unit normal per face
+        final float[] normals;
+        final AliasTable areaTable;
+
+        Faces(Mesh mesh) {
+            IndexBuffer indices = mesh.getIndicesAsList();
+            FloatBuffer positions = mesh.getFloatBuffer(VertexBuffer.Type.Position);
+
+            int numTriangles = indices.size() / 3;
+            triangles = new int[numTriangles * 3];
+            normals = new float[numTriangles * 3];
+            float[] areas = new float[numTriangles];
+
+            Vector3f p1 = new Vector3f();
+            Vector3f p2 = new Vector3f();
+            Vector3f p3 = new Vector3f();
+
+            for (int i = 0; i < numTriangles; i++) {
+                int t = i * 3;
+                triangles[t] = indices.get(t);
+                triangles[t + 1] = indices.get(t + 1);
+                triangles[t + 2] = indices.get(t + 2);
+
+                BufferUtils.populateFromBuffer(p1, positions, triangles[t]);
+                BufferUtils.populateFromBuffer(p2, positions, triangles[t + 1]);
+                BufferUtils.populateFromBuffer(p3, positions, triangles[t + 2]);
+
+                // the cross product of two edges: its length is twice the area
+                p2.subtractLocal(p1);
+                p3.subtractLocal(p1);
+                p2.crossLocal(p3);
+
+                float length = p2.length();
+                areas[i] = 0.5f * length;
+                if (length > 0) {
+                    p2.divideLocal(length);
+                }
+                normals[t] = p2.x;
+                normals[t + 1] = p2.y;
+                normals[t + 2] = p2.z;
+            }
+
+            areaTable = new AliasTable(areas);
+        }
+    }
+
 }
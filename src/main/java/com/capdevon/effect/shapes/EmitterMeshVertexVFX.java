@@ -2,11 +2,8 @@ package com.capdevon.effect.shapes;
 
 import java.io.IOException;
 import java.nio.FloatBuffer;
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
 
+import com.capdevon.effect.ParticleRandom;
 import com.jme3.effect.shapes.EmitterShape;
 import com.jme3.export.InputCapsule;
 import com.jme3.export.JmeExporter;
@@ -16,18 +13,25 @@ import com.jme3.math.FastMath;
 import com.jme3.math.Vector3f;
 import com.jme3.scene.Mesh;
 import com.jme3.scene.VertexBuffer;
-import com.jme3.util.BufferUtils;
 import com.jme3.util.clone.Cloner;
 
 /**
  * This emitter shape emits the particles from the given shape's vertices.
+ * <p>
+ * Vertices sharing the same position (seams, hard edges) are counted once.
+ * The indices of the unique vertices are computed once and shared by the
+ * clones of the shape, while the positions and normals are read from the
+ * {@link MeshSnapshot} of the mesh so that the particles follow an animated
+ * (software skinned) mesh tracked by a {@link MeshSnapshotControl}.
  *
  * @author capdevon
  */
-public class EmitterMeshVertexVFX implements EmitterShape {
+public class EmitterMeshVertexVFX implements BatchEmitterShape {
 
     private Mesh source;
-    private List<Integer> indexList = new ArrayList<>();
+    // indices of the unique vertices, never modified once built
+    private transient int[] vertices;
+    private transient MeshSnapshot snapshot;
 
     /**
      * For serialization only. Do not use.
@@ -46,19 +50,56 @@ public class EmitterMeshVertexVFX implements EmitterShape {
     }
 
     private void calculateVertices() {
-        Map<Vector3f, Integer> mapPos = new HashMap<>(source.getVertexCount());
-
-        // Get the geometry's vertex buffer
-        FloatBuffer vertexBuffer = source.getFloatBuffer(VertexBuffer.Type.Position);
-        for (int i = 0; i < vertexBuffer.limit() / 3; i++) {
-
-            Vector3f position = new Vector3f();
-            BufferUtils.populateFromBuffer(position, vertexBuffer, i);
+        vertices = findUniqueVertices(source.getFloatBuffer(VertexBuffer.Type.Position));
+        snapshot = MeshSnapshot.of(source);
+    }
 
-            mapPos.putIfAbsent(position, i);
+    /**
+     * Returns the index of the first vertex of each distinct position, in
+     * order. Positions are compared bitwise, like {@link Vector3f#equals}.
+     */
+    private static int[] findUniqueVertices(FloatBuffer vertexBuffer) {
+        // one bulk copy, then only array reads
+        float[] pos = new float[vertexBuffer.limit()];
+        vertexBuffer.duplicate().clear().get(pos);
+        int numVertices = pos.length / 3;
+
+        // open addressing table of (vertex index + 1), 0 is an empty slot
+        int capacity = Integer.highestOneBit(Math.max(2, numVertices * 2 - 1)) << 1;
+        int mask = capacity - 1;
+        int[] table = new int[capacity];
+
+        int[] unique = new int[numVertices];
+        int numUnique = 0;
+
+        for (int i = 0; i < numVertices; i++) {
+            int x = Float.floatToIntBits(pos[i * 3]);
+            int y = Float.floatToIntBits(pos[i * 3 + 1]);
+            int z = Float.floatToIntBits(pos[i * 3 + 2]);
+
+            int hash = ((x * 0x9E3779B1 + y) * 0x9E3779B1 + z) * 0x9E3779B1;
+            int slot = (hash ^ (hash >>> 15)) & mask;
+
+            while (true) {
+                int entry = table[slot];
+                if (entry == 0) {
+                    table[slot] = i + 1;
+                    unique[numUnique++] = i;
+                    break;
+                }
+                int j = (entry - 1) * 3;
+                if (Float.floatToIntBits(pos[j]) == x
+                        && Float.floatToIntBits(pos[j + 1]) == y
+                        && Float.floatToIntBits(pos[j + 2]) == z) {
+                    break; // duplicate
+                }
+                slot = (slot + 1) & mask;
+            }
         }
 
-        indexList.addAll(mapPos.values());
+        int[] result = new int[numUnique];
+        System.arraycopy(unique, 0, result, 0, numUnique);
+        return result;
     }
 
     /**
@@ -67,11 +108,10 @@ public class EmitterMeshVertexVFX implements EmitterShape {
      */
     @Override
     public void getRandomPoint(Vector3f store) {
-        int i = FastMath.nextRandomInt(0, indexList.size() - 1);
-        int vertIndex = indexList.get(i);
+        int vertIndex = vertices[FastMath.nextRandomInt(0, vertices.length - 1)] * 3;
 
-        FloatBuffer vertexBuffer = source.getFloatBuffer(VertexBuffer.Type.Position);
-        BufferUtils.populateFromBuffer(store, vertexBuffer, vertIndex);
+        FloatBuffer positions = snapshot.getPositions();
+        store.set(positions.get(vertIndex), positions.get(vertIndex + 1), positions.get(vertIndex + 2));
     }
 
     /**
@@ -80,28 +120,52 @@ public class EmitterMeshVertexVFX implements EmitterShape {
      */
     @Override
     public void getRandomPointAndNormal(Vector3f store, Vector3f normal) {
-        int i = FastMath.nextRandomInt(0, indexList.size() - 1);
-        int vertIndex = indexList.get(i);
+        int vertIndex = vertices[FastMath.nextRandomInt(0, vertices.length - 1)] * 3;
+
+        FloatBuffer positions = snapshot.getPositions();
+        store.set(positions.get(vertIndex), positions.get(vertIndex + 1), positions.get(vertIndex + 2));
 
-        FloatBuffer vertBuffer = source.getFloatBuffer(VertexBuffer.Type.Position);
-        BufferUtils.populateFromBuffer(store, vertBuffer, vertIndex);
+        FloatBuffer normals = snapshot.getNormals();
+        normal.set(normals.get(vertIndex), normals.get(vertIndex + 1), normals.get(vertIndex + 2));
+    }
 
-        FloatBuffer normBuffer = source.getFloatBuffer(VertexBuffer.Type.Normal);
-        BufferUtils.populateFromBuffer(normal, normBuffer, vertIndex);
+    @Override
+    public void getRandomPoints(ParticleRandom random, float[] x, float[] y, float[] z, int from, int to) {
+        FloatBuffer buffer = snapshot.getPositions();
+        float[] positions = MeshSnapshot.arrayOf(buffer);
+        for (int i = from; i < to; i++) {
+            int vertIndex = vertices[random.nextInt(vertices.length)] * 3;
+            x[i] = MeshSnapshot.get(positions, buffer, vertIndex);
+            y[i] = MeshSnapshot.get(positions, buffer, vertIndex + 1);
+            z[i] = MeshSnapshot.get(positions, buffer, vertIndex + 2);
+        }
     }
 
+    @Override
+    public void getRandomPointsAndNormals(ParticleRandom random, float[] x, float[] y, float[] z,
+            float[] nx, float[] ny, float[] nz, int from, int to) {
+        FloatBuffer positionBuffer = snapshot.getPositions();
+        FloatBuffer normalBuffer = snapshot.getNormals();
+        float[] positions = MeshSnapshot.arrayOf(positionBuffer);
+        float[] normals = MeshSnapshot.arrayOf(normalBuffer);
+        for (int i = from; i < to; i++) {
+            int vertIndex = vertices[random.nextInt(vertices.length)] * 3;
+            x[i] = MeshSnapshot.get(positions, positionBuffer, vertIndex);
+            y[i] = MeshSnapshot.get(positions, positionBuffer, vertIndex + 1);
+            z[i] = MeshSnapshot.get(positions, positionBuffer, vertIndex + 2);
+            nx[i] = MeshSnapshot.get(normals, normalBuffer, vertIndex);
+            ny[i] = MeshSnapshot.get(normals, normalBuffer, vertIndex + 1);
+            nz[i] = MeshSnapshot.get(normals, normalBuffer, vertIndex + 2);
+        }
+    }
+
+    /**
+     * Creates a copy of this shape that shares the mesh and the vertex table.
+     */
     @Override
     public EmitterShape deepClone() {
         try {
-            EmitterMeshVertexVFX clone = (EmitterMeshVertexVFX) super.clone();
-            if (indexList != null) {
-                clone.indexList = new ArrayList<Integer>(indexList.size());
-                for (Integer index : indexList) {
-                    clone.indexList.add(index);
-                }
-            }
-            return clone;
-
+            return (EmitterMeshVertexVFX) super.clone();
         } catch (CloneNotSupportedException e) {
             throw new AssertionError();
         }
@@ -116,9 +180,14 @@ public class EmitterMeshVertexVFX implements EmitterShape {
         }
     }
 
+    /**
+     * The mesh follows the cloner (a cloned character emits from its own
+     * mesh), the vertex table is immutable and stays shared.
+     */
     @Override
     public void cloneFields(Cloner cloner, Object original) {
-        this.indexList = cloner.clone(indexList);
+        this.source = cloner.clone(source);
+        this.snapshot = MeshSnapshot.of(source);
     }
 
     @Override
@@ -139,7 +208,7 @@ public class EmitterMeshVertexVFX implements EmitterShape {
         return "EmitterMeshVertexVFX [Mesh Mode=" + source.getMode()
                 + ", Triangles=" + source.getTriangleCount()
                 + ", Vertices=" + source.getVertexCount()
-                + ", IndexList=" + indexList.size()
+                + ", UniqueVertices=" + vertices.length
                 + "]";
     }
 
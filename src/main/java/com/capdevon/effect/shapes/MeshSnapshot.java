@@ -0,0 +1,223 @@
+package com.capdevon.effect.shapes;
+
+import java.lang.ref.WeakReference;
+import java.nio.FloatBuffer;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.jme3.scene.Mesh;
+import com.jme3.scene.VertexBuffer;
+
+/**
+ * A copy of the positions and normals of a mesh, shared by all the shapes
+ * that emit from that mesh.
+ * <p>
+ * With software skinning the mesh buffers are rewritten while the model is
+ * rendered. A {@link MeshSnapshotControl} on the model marks the snapshots of
+ * its meshes as stale every frame, and the copy is made the first time a
+ * shape samples the mesh afterwards: at most once per frame, and only if an
+ * emitter needs it. All the emitters see the same pose during the update.
+ * <p>
+ * The copies alternate between two arrays: a new copy never overwrites the
+ * buffer returned by the previous one, which the emitters updated on other
+ * threads may still be reading.
+ * <p>
+ * A snapshot that is not tracked by a control is copied once, which is what
+ * a static mesh needs. An animated mesh without a control has no signal that
+ * tells when its buffers change: its snapshot returns the live buffers of the
+ * mesh, and a warning suggests to add the control.
+ *
+ * @author capdevon
+ */
+public final class MeshSnapshot {
+
+    private static final Logger logger = Logger.getLogger(MeshSnapshot.class.getName());
+
+    private static final Map<Mesh, MeshSnapshot> snapshots = new WeakHashMap<>();
+
+    /**
+     * Returns the snapshot of the given mesh, shared by all its users.
+     *
+     * @param mesh the mesh to copy (not null)
+     * @return the snapshot (not null)
+     */
+    public static MeshSnapshot of(Mesh mesh) {
+        synchronized (snapshots) {
+            return snapshots.computeIfAbsent(mesh, MeshSnapshot::new);
+        }
+    }
+
+    // the map holds the mesh weakly, so must its snapshot
+    private final WeakReference<Mesh> mesh;
+    private final boolean animated;
+    // two copies of each buffer, the front one is published
+    private final Copy[] positionCopies = { new Copy(), new Copy() };
+    private final Copy[] normalCopies = { new Copy(), new Copy() };
+    private int front;
+    private volatile FloatBuffer positions;
+    private volatile FloatBuffer normals;
+    private volatile int version = 1;
+    private volatile int copiedVersion;
+    // number of controls tracking the mesh
+    private volatile int trackers;
+    private volatile boolean warned;
+
+    private MeshSnapshot(Mesh mesh) {
+        this.mesh = new WeakReference<>(mesh);
+        this.animated = mesh.isAnimated();
+    }
+
+    /**
+     * Registers a control that invalidates the snapshot whenever the mesh
+     * changes.
+     */
+    synchronized void track() {
+        trackers++;
+        version++;
+    }
+
+    /**
+     * Unregisters a control added with {@link #track()}.
+     */
+    synchronized void untrack() {
+        trackers--;
+        version++;
+    }
+
+    /**
+     * Tells if a {@link MeshSnapshotControl} keeps the snapshot up to date.
+     *
+     * @return true if the snapshot is tracked
+     */
+    public boolean isTracked() {
+        return trackers > 0;
+    }
+
+    /**
+     * Marks the copy as stale, the next access copies the mesh again. To be
+     * called after the mesh buffers have changed, while no emitter samples
+     * the snapshot (i.e. during rendering).
+     */
+    public void invalidate() {
+        version++;
+    }
+
+    /**
+     * Returns the number of times the mesh has been marked as changed, which
+     * can be compared from frame to frame.
+     *
+     * @return the version of the mesh
+     */
+    public int getVersion() {
+        return version;
+    }
+
+    /**
+     * Returns the positions of the mesh, 3 floats per vertex, to be read with
+     * absolute gets. The buffer must not be modified: it is the live mesh
+     * buffer if the mesh is animated and not tracked.
+     *
+     * @return the positions (not null)
+     */
+    public FloatBuffer getPositions() {
+        if (isLive()) {
+            return mesh.get().getFloatBuffer(VertexBuffer.Type.Position);
+        }
+        if (copiedVersion != version) {
+            copy();
+        }
+        return positions;
+    }
+
+    /**
+     * Returns the normals of the mesh, 3 floats per vertex, to be read with
+     * absolute gets. The buffer must not be modified: it is the live mesh
+     * buffer if the mesh is animated and not tracked.
+     *
+     * @return the normals, or null if the mesh has none
+     */
+    public FloatBuffer getNormals() {
+        if (isLive()) {
+            return mesh.get().getFloatBuffer(VertexBuffer.Type.Normal);
+        }
+        if (copiedVersion != version) {
+            copy();
+        }
+        return normals;
+    }
+
+    /**
+     * Returns the array behind a buffer of the snapshot, or null if it is a
+     * live mesh buffer (or a view of an array). The batch samplers read the copies through plain
+     * arrays.
+     */
+    static float[] arrayOf(FloatBuffer buffer) {
+        return (buffer.hasArray() && buffer.arrayOffset() == 0) ? buffer.array() : null;
+    }
+
+    /**
+     * Reads a float from the array of a copy, or from the live buffer if
+     * there is no array.
+     */
+    static float get(float[] array, FloatBuffer buffer, int index) {
+        return (array != null) ? array[index] : buffer.get(index);
+    }
+
+    private boolean isLive() {
+        if (!animated || trackers > 0) {
+            return false;
+        }
+        if (!warned) {
+            warned = true;
+            logger.log(Level.WARNING,
+                    "Mesh {0} is animated but no MeshSnapshotControl tracks it, reading its live buffers",
+                    mesh.get());
+        }
+        return true;
+    }
+
+    private synchronized void copy() {
+        int target = version;
+        if (copiedVersion == target) {
+            return; // copied by another emitter meanwhile
+        }
+
+        Mesh source = mesh.get();
+        if (source != null) {
+            // fill the copies that are not published
+            int back = 1 - front;
+            positions = positionCopies[back].fill(source.getFloatBuffer(VertexBuffer.Type.Position));
+            FloatBuffer normalBuffer = source.getFloatBuffer(VertexBuffer.Type.Normal);
+            normals = (normalBuffer != null) ? normalCopies[back].fill(normalBuffer) : null;
+            front = back;
+        }
+        copiedVersion = target;
+    }
+
+    /**
+     * An array and its buffer view, reallocated only when the mesh is
+     * resized.
+     */
+    private static final class Copy {
+
+        float[] data = new float[0];
+        FloatBuffer view = FloatBuffer.wrap(data);
+
+        FloatBuffer fill(FloatBuffer src) {
+            int size = src.limit();
+            if (data.length != size) {
+                data = new float[size];
+                view = FloatBuffer.wrap(data);
+            }
+            // absolute reads: no buffer view per copy, and the position of the
+            // mesh buffer is left alone
+            for (int i = 0; i < size; i++) {
+                data[i] = src.get(i);
+            }
+            return view;
+        }
+    }
+
+}
@@ -0,0 +1,89 @@
+package com.capdevon.effect.shapes;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.jme3.renderer.RenderManager;
+import com.jme3.renderer.ViewPort;
+import com.jme3.scene.Geometry;
+import com.jme3.scene.Mesh;
+import com.jme3.scene.Spatial;
+import com.jme3.scene.control.AbstractControl;
+import com.jme3.util.clone.Cloner;
+
+/**
+ * Keeps the {@link MeshSnapshot snapshots} of an animated model up to date.
+ * Add it to the model that uses software skinning: once per rendered frame
+ * it marks the snapshots of the animated meshes below its spatial as stale,
+ * and the shapes copy the deformed meshes the next time they sample them.
+ * While the control is attached the snapshots are tracked, an animated mesh
+ * without a control is read live instead.
+ *
+ * @author capdevon
+ */
+public class MeshSnapshotControl extends AbstractControl {
+
+    private List<MeshSnapshot> snapshots;
+    private boolean invalidated;
+
+    @Override
+    public void setSpatial(Spatial spatial) {
+        if (snapshots != null) {
+            for (MeshSnapshot snapshot : snapshots) {
+                snapshot.untrack();
+            }
+            snapshots = null;
+        }
+        super.setSpatial(spatial);
+        if (spatial != null) {
+            trackSnapshots();
+        }
+    }
+
+    private void trackSnapshots() {
+        snapshots = new ArrayList<>();
+        spatial.depthFirstTraversal(sp -> {
+            if (sp instanceof Geometry) {
+                Mesh mesh = ((Geometry) sp).getMesh();
+                if (mesh.isAnimated()) {
+                    MeshSnapshot snapshot = MeshSnapshot.of(mesh);
+                    snapshot.track();
+                    snapshots.add(snapshot);
+                }
+            }
+        });
+    }
+
+    @Override
+    protected void controlUpdate(float tpf) {
+        invalidated = false;
+    }
+
+    /**
+     * The skinning is applied while rendering, and the emitters sample the
+     * meshes during the next update: the snapshots are marked here, once per
+     * frame whatever the number of viewports.
+     */
+    @Override
+    protected void controlRender(RenderManager rm, ViewPort vp) {
+        if (invalidated) {
+            return;
+        }
+        if (snapshots == null) {
+            // a clone gets its spatial without setSpatial()
+            trackSnapshots();
+        }
+        for (int i = 0; i < snapshots.size(); i++) {
+            snapshots.get(i).invalidate();
+        }
+        invalidated = true;
+    }
+
+    @Override
+    public void cloneFields(Cloner cloner, Object original) {
+        super.cloneFields(cloner, original);
+        // the clone tracks the meshes of its own spatial
+        snapshots = null;
+    }
+
+}
@@ -6,6 +6,7 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
+import com.capdevon.effect.shapes.MeshSnapshot;
 import com.jme3.asset.AssetManager;
 import com.jme3.material.Material;
 import com.jme3.material.RenderState.BlendMode;
@@ -36,6 +37,7 @@ public class SkinnedVFXControl extends AbstractControl {
     private final Vector3f origin = new Vector3f();
 
     private Mesh source;
+    private MeshSnapshot snapshot;
     private float size = 0.001f;
     private float timer;
 
@@ -54,6 +56,7 @@ public class SkinnedVFXControl extends AbstractControl {
     public SkinnedVFXControl(AssetManager assetManager, Mesh source) {
         this.assetManager = assetManager;
         this.source = source;
+        this.snapshot = MeshSnapshot.of(source);
         setupMaterial();
     }
 
@@ -115,9 +118,9 @@ public class SkinnedVFXControl extends AbstractControl {
             timer = 0;
 
             int j = 0;
-            FloatBuffer vertexBuffer = source.getFloatBuffer(VertexBuffer.Type.Position);
-            for (Integer index : indexList) {
-                BufferUtils.populateFromBuffer(origin, vertexBuffer, index);
+            FloatBuffer positions = snapshot.getPositions();
+            for (int index : indexList) {
+                origin.set(positions.get(index * 3), positions.get(index * 3 + 1), positions.get(index * 3 + 2));
                 ((Node) spatial).getChild(j).setLocalTranslation(origin);
                 j++;
             }
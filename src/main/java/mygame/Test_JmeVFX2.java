@@ -4,6 +4,7 @@ import com.capdevon.effect.MyParticleEmitter;
 import com.capdevon.effect.influencers.GradientColorInfluencer;
 import com.capdevon.effect.shapes.EmitterMeshFaceVFX;
 import com.capdevon.effect.shapes.EmitterMeshVertexVFX;
+import com.capdevon.effect.shapes.MeshSnapshotControl;
 import com.jme3.anim.AnimComposer;
 import com.jme3.anim.SkinningControl;
 import com.jme3.animation.LoopMode;
@@ -90,6 +91,8 @@ public class Test_JmeVFX2 extends SimpleApplication implements ActionListener {
 
         SkinningControl skControl = GameObject.findControl(myModel, SkinningControl.class);
         skControl.setHardwareSkinningPreferred(false);
+        // the emitters sample a copy of the skinned meshes, taken once per frame
+        myModel.addControl(new MeshSnapshotControl());
 
         // 1. Alpha_Surface
         // 2. Alpha_Joints
@@ -0,0 +1,292 @@
+package mygame;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+
+import com.capdevon.effect.LifeCurve;
+import com.capdevon.effect.MyParticleEmitter;
+import com.capdevon.effect.ParticleSystemAppState;
+import com.capdevon.effect.collision.PlaneCollider;
+import com.capdevon.effect.collision.SphereCollider;
+import com.capdevon.effect.fields.VectorFieldSpec;
+import com.capdevon.effect.influencers.GradientColorInfluencer;
+import com.capdevon.effect.influencers.InfluencerPipeline;
+import com.capdevon.effect.influencers.VectorFieldInfluencer;
+import com.capdevon.effect.shapes.EmitterMeshFaceVFX;
+import com.capdevon.effect.shapes.EmitterMeshVertexVFX;
+import com.capdevon.effect.shapes.MeshSnapshotControl;
+import com.jme3.app.SimpleApplication;
+import com.jme3.app.state.AppState;
+import com.jme3.effect.ParticleMesh;
+import com.jme3.effect.shapes.EmitterSphereShape;
+import com.jme3.material.Material;
+import com.jme3.math.ColorRGBA;
+import com.jme3.math.FastMath;
+import com.jme3.math.Quaternion;
+import com.jme3.math.Transform;
+import com.jme3.math.Vector3f;
+import com.jme3.renderer.RenderManager;
+import com.jme3.scene.Geometry;
+import com.jme3.scene.Mesh;
+import com.jme3.scene.Node;
+import com.jme3.scene.VertexBuffer;
+import com.jme3.scene.shape.Sphere;
+import com.jme3.scene.shape.Torus;
+import com.jme3.system.AppSettings;
+import com.jme3.system.JmeContext;
+import com.jme3.util.BufferUtils;
+
+/**
+ * Headless allocation test: after a warmup, the update and the buffer fill
+ * of the emitters must not allocate. Exits with status 1 if they do.
+ * <p>
+ * The allowance is explicit: at most one frame in 500 may allocate. While
+ * the JIT recompiles a hot method, the method runs for a moment in code that
+ * does not eliminate its temporaries, and a frame here and there allocates
+ * a few hundred bytes; the JVM does the same inside the render queue. An
+ * object created by the emitters, every frame or every few hundred frames,
+ * fails the test.
+ * <p>
+ * The emitters cover the hot paths: the mesh face and vertex shapes, with a
+ * mesh snapshot invalidated every frame by a {@link MeshSnapshotControl},
+ * the gradient color influencer, the life curves, a vector field in the
+ * influencer pipeline and the analytic colliders. The {@link
+ * com.capdevon.effect.collision.SceneCollider SceneCollider} is left out:
+ * the ray queries of the jME collision trees allocate their results.
+ * <p>
+ * The threading paths are covered too: two emitters are updated by a
+ * {@link ParticleSystemAppState}, one of them splitting its particles in
+ * chunks, while the third one is updated by its control. The allocations
+ * are summed over the render thread and the workers of the pool, which the
+ * test creates to know their threads. On JDK 17 and later a join that has
+ * to wait allocates a small node in <code>ForkJoinTask</code>: the test is
+ * meant for the JDK 11 the project is built with.
+ * <p>
+ * Usage: <code>Test_ParticleAllocation [frames]</code>
+ *
+ * @author capdevon
+ */
+public class Test_ParticleAllocation extends SimpleApplication {
+
+    private static final int WARMUP_FRAMES = 5000;
+    private static final int PARALLELISM = 4;
+    // frames that may allocate, see the class comment
+    private static final int FRAMES_PER_STRAY = 500;
+
+    /**
+     *
+     * @param args
+     * @throws Exception
+     */
+    public static void main(String[] args) throws Exception {
+        int numFrames = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+
+        Test_ParticleAllocation app = new Test_ParticleAllocation(numFrames);
+        AppSettings settings = new AppSettings(true);
+        settings.setFrameRate(Integer.MAX_VALUE);
+        settings.setAudioRenderer(null);
+        app.setSettings(settings);
+        app.setShowSettings(false);
+        app.start(JmeContext.Type.Headless);
+        app.done.await();
+
+        System.out.println(app.result);
+        System.exit(app.failed ? 1 : 0);
+    }
+
+    private final int numFrames;
+    private final CountDownLatch done = new CountDownLatch(1);
+    private String result;
+    private boolean failed;
+
+    private final List<MyParticleEmitter> emitters = new ArrayList<>();
+    // updated and queued by hand, to measure the emitters alone
+    private final Node particleRoot = new Node("Particles");
+    private final Node mover = new Node("Mover");
+    private final ForkJoinPool pool = new ForkJoinPool(PARALLELISM, this::newWorker, null, false);
+    private final ParticleSystemAppState particleSystem = new ParticleSystemAppState(pool);
+
+    private final com.sun.management.ThreadMXBean threadBean =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    // the render thread and the workers of the pool
+    private volatile long[] threadIds = new long[0];
+
+    // bytes allocated by reading the counter itself
+    private long probeBytes;
+    private long allocatedBytes;
+    private long frameBytes;
+    private int allocatingFrames;
+    private int frame;
+    private float time;
+
+    private Test_ParticleAllocation(int numFrames) {
+        super(new AppState[0]);
+        this.numFrames = numFrames;
+    }
+
+    @Override
+    public void simpleInitApp() {
+        FastMath.rand.setSeed(42);
+        particleRoot.attachChild(mover);
+
+        // an 'animated' mesh, so that its snapshot is copied every frame
+        Mesh skin = new Sphere(32, 32, 1f);
+        skin.setBuffer(VertexBuffer.Type.BoneIndex, 4,
+                BufferUtils.createByteBuffer(skin.getVertexCount() * 4));
+        Geometry model = new Geometry("Model", skin);
+        model.setMaterial(new Material(assetManager, "Common/MatDefs/Misc/Unshaded.j3md"));
+        model.addControl(new MeshSnapshotControl());
+        mover.attachChild(model);
+
+        MyParticleEmitter faces = createEmitter(ParticleMesh.Type.Triangle, 1000);
+        faces.setShape(new EmitterMeshFaceVFX(skin));
+        faces.setLowLife(1);
+        faces.setHighLife(2);
+        faces.setParticlesPerSec(600);
+        faces.setInWorldSpace(true);
+        faces.setColorInfluencer(new GradientColorInfluencer(ColorRGBA.Blue, ColorRGBA.Red, .1f, .3f));
+        mover.attachChild(faces);
+        particleSystem.register(faces);
+
+        // updated by its control
+        MyParticleEmitter vertices = createEmitter(ParticleMesh.Type.Point, 1000);
+        vertices.setShape(new EmitterMeshVertexVFX(new Torus(64, 4, 1f / 8f, 1f)));
+        vertices.setSelectRandomImage(true);
+        vertices.setSizeCurve(new LifeCurve().addKey(0, 0.1f, 0, 4).addKey(0.2f, 1f).addKey(1, 2f, 0, 0));
+        vertices.setAlphaCurve(new LifeCurve().addKey(0, 0).addKey(0.1f, 1).addKey(0.7f, 1).addKey(1, 0));
+        mover.attachChild(vertices);
+
+        Transform volume = new Transform(new Vector3f(), new Quaternion(), new Vector3f(4, 4, 4));
+        // enough particles to be split in chunks
+        MyParticleEmitter field = createEmitter(ParticleMesh.Type.Triangle, 4096);
+        field.setParticlesPerSec(2400);
+        field.setParallelThreshold(0);
+        field.setShape(new EmitterSphereShape(Vector3f.ZERO, 0.5f));
+        field.setGravity(0, 2, 0);
+        field.setInfluencerPipeline(new InfluencerPipeline().addInfluencer(InfluencerPipeline.Stage.Update,
+                new VectorFieldInfluencer(VectorFieldSpec.curlNoise(16, 4, 2, 0), volume, 2f)));
+        field.addCollider(new PlaneCollider(Vector3f.UNIT_Y, new Vector3f(0, -1, 0)));
+        field.addCollider(new SphereCollider(new Vector3f(0, 1, 0), 0.5f));
+        particleRoot.attachChild(field);
+        particleSystem.register(field);
+
+        // updated by hand as well
+        particleSystem.initialize(stateManager, this);
+
+        addThread(Thread.currentThread());
+        long start = threadBytes();
+        probeBytes = threadBytes() - start;
+    }
+
+    private ForkJoinWorkerThread newWorker(ForkJoinPool pool) {
+        ForkJoinWorkerThread worker = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+        addThread(worker);
+        return worker;
+    }
+
+    private synchronized void addThread(Thread thread) {
+        long[] ids = Arrays.copyOf(threadIds, threadIds.length + 1);
+        ids[ids.length - 1] = thread.getId();
+        threadIds = ids;
+    }
+
+    /**
+     * Returns the bytes allocated so far by the measured threads, without
+     * allocating.
+     */
+    private long threadBytes() {
+        long bytes = 0;
+        for (long id : threadIds) {
+            // -1 once a thread is gone
+            bytes += Math.max(0, threadBean.getThreadAllocatedBytes(id));
+        }
+        return bytes;
+    }
+
+    private MyParticleEmitter createEmitter(ParticleMesh.Type type, int numParticles) {
+        MyParticleEmitter emitter = new MyParticleEmitter("Emitter", type, numParticles);
+        Material mat = new Material(assetManager, "Common/MatDefs/Misc/Particle.j3md");
+        mat.setBoolean("PointSprite", type == ParticleMesh.Type.Point);
+        emitter.setMaterial(mat);
+        emitter.setImagesX(15);
+        emitter.setStartSize(0.04f);
+        emitter.setEndSize(0.02f);
+        emitter.setParticlesPerSec(900);
+        emitter.getParticleInfluencer().setVelocityVariation(1);
+        emitter.getParticleInfluencer().setInitialVelocity(new Vector3f(0, .5f, 0));
+        emitter.setForkJoinPool(pool);
+        emitters.add(emitter);
+        return emitter;
+    }
+
+    @Override
+    public void simpleUpdate(float tpf) {
+        if (result != null) {
+            return; // waiting for stop()
+        }
+        if (frame == WARMUP_FRAMES + numFrames) {
+            finish();
+            return;
+        }
+
+        time += tpf;
+        mover.setLocalTranslation(FastMath.cos(time), 0, FastMath.sin(time));
+
+        long start = threadBytes();
+        particleSystem.update(tpf);
+        particleRoot.updateLogicalState(tpf);
+        particleRoot.updateGeometricState();
+        record(start);
+    }
+
+    /**
+     * The headless renderer draws nothing, so the scene is queued here to
+     * let the emitters fill their vertex buffers.
+     */
+    @Override
+    public void simpleRender(RenderManager rm) {
+        if (result != null) {
+            return;
+        }
+        long start = threadBytes();
+        rm.renderScene(particleRoot, viewPort);
+        viewPort.getQueue().clear();
+        record(start);
+
+        if (frame >= WARMUP_FRAMES && frameBytes > 0) {
+            allocatedBytes += frameBytes;
+            allocatingFrames++;
+        }
+        frameBytes = 0;
+        frame++;
+    }
+
+    private void record(long start) {
+        long bytes = threadBytes() - start - probeBytes;
+        frameBytes += Math.max(0, bytes);
+    }
+
+    private void finish() {
+        int live = 0;
+        for (MyParticleEmitter emitter : emitters) {
+            live += emitter.getNumVisibleParticles();
+        }
+        int strayFrames = Math.max(1, numFrames / FRAMES_PER_STRAY);
+        failed = allocatingFrames > strayFrames;
+        result = String.format(Locale.ROOT, "%s: %d bytes allocated in %d of %d frames (%d allowed), "
+                + "%d live particles, %d threads",
+                failed ? "FAILED" : "OK", allocatedBytes, allocatingFrames, numFrames, strayFrames,
+                live, threadIds.length);
+
+        pool.shutdown();
+        stop();
+        done.countDown();
+    }
+
+}
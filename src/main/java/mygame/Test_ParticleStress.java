@@ -0,0 +1,380 @@
+package mygame;
+
+import java.io.FileWriter;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+
+import com.capdevon.effect.MyParticleEmitter;
+import com.capdevon.effect.shapes.EmitterMeshFaceVFX;
+import com.capdevon.effect.shapes.EmitterMeshVertexVFX;
+import com.jme3.app.SimpleApplication;
+import com.jme3.app.state.AppState;
+import com.jme3.effect.ParticleEmitter;
+import com.jme3.effect.ParticleMesh;
+import com.jme3.effect.shapes.EmitterShape;
+import com.jme3.effect.shapes.EmitterSphereShape;
+import com.jme3.material.Material;
+import com.jme3.math.ColorRGBA;
+import com.jme3.math.FastMath;
+import com.jme3.math.Vector3f;
+import com.jme3.renderer.RenderManager;
+import com.jme3.scene.Node;
+import com.jme3.scene.shape.Sphere;
+import com.jme3.scene.shape.Torus;
+import com.jme3.system.AppSettings;
+import com.jme3.system.JmeContext;
+import com.jme3.system.Timer;
+
+/**
+ * Headless stress test: runs the same scene with the stock
+ * {@link ParticleEmitter} and with {@link MyParticleEmitter} and prints the
+ * results as CSV.
+ * <p>
+ * The emitters cycle through the configurations of Test_JmeVFX2,
+ * Test_JmeVFX3 and Test_Issue1773, procedural meshes stand in for the
+ * character model, and their parents move along a circle like the
+ * MotionEvent of the demos. The gradient color influencer of Test_JmeVFX2
+ * has no counterpart in ParticleEmitter, so both implementations use the
+ * start and end colors.
+ * <p>
+ * Usage: <code>Test_ParticleStress [emitters] [frames] [file.csv]</code>
+ * <p>
+ * For each implementation it reports the p50/p95/p99 of the update time of
+ * the emitters, of the time spent queuing the scene (where the emitters fill
+ * their vertex buffers), the average number of live particles and the bytes
+ * allocated per frame by the render thread.
+ *
+ * @author capdevon
+ */
+public class Test_ParticleStress extends SimpleApplication {
+
+    private static final int WARMUP_FRAMES = 300;
+    private static final float TPF = 1 / 60f;
+
+    /**
+     *
+     * @param args
+     * @throws Exception
+     */
+    public static void main(String[] args) throws Exception {
+        int numEmitters = args.length > 0 ? Integer.parseInt(args[0]) : 100;
+        int numFrames = args.length > 1 ? Integer.parseInt(args[1]) : 2000;
+
+        List<String> rows = new ArrayList<>();
+        rows.add("implementation,emitters,frames,"
+                + "update_p50_ms,update_p95_ms,update_p99_ms,"
+                + "fill_p50_ms,fill_p95_ms,fill_p99_ms,"
+                + "live_particles,alloc_bytes_per_frame");
+
+        for (Implementation impl : Implementation.values()) {
+            Test_ParticleStress app = new Test_ParticleStress(impl, numEmitters, numFrames);
+            AppSettings settings = new AppSettings(true);
+            settings.setResolution(1280, 720);
+            settings.setFrameRate(Integer.MAX_VALUE);
+            settings.setAudioRenderer(null);
+            app.setSettings(settings);
+            app.setShowSettings(false);
+            app.start(JmeContext.Type.Headless);
+            app.done.await();
+            rows.add(app.result);
+        }
+
+        for (String row : rows) {
+            System.out.println(row);
+        }
+
+        if (args.length > 2) {
+            try (PrintWriter out = new PrintWriter(new FileWriter(args[2]))) {
+                rows.forEach(out::println);
+            }
+        }
+    }
+
+    public enum Implementation {
+        ParticleEmitter, MyParticleEmitter
+    }
+
+    /**
+     * The emitter configurations of the demos, applied to both
+     * implementations.
+     */
+    private enum Config {
+        /** Test_JmeVFX2: quads emitted from the faces of a surface. */
+        MeshFace(ParticleMesh.Type.Triangle, 1, 2, 0.04f, 0.02f, ColorRGBA.Blue, ColorRGBA.Red, 600, false, true),
+        /** Test_JmeVFX3: point sprites emitted from a sphere. */
+        Sphere(ParticleMesh.Type.Point, 1, 1, 0.06f, 0.04f, ColorRGBA.Blue, ColorRGBA.Cyan, 900, true, false),
+        /** Test_Issue1773: point sprites emitted from the vertices of a torus. */
+        MeshVertex(ParticleMesh.Type.Point, 1, 1, 0.04f, 0.02f, ColorRGBA.Orange, ColorRGBA.Red, 900, false, false);
+
+        final ParticleMesh.Type type;
+        final float lowLife;
+        final float highLife;
+        final float startSize;
+        final float endSize;
+        final ColorRGBA startColor;
+        final ColorRGBA endColor;
+        final float particlesPerSec;
+        final boolean selectRandomImage;
+        final boolean worldSpace;
+
+        Config(ParticleMesh.Type type, float lowLife, float highLife, float startSize, float endSize,
+                ColorRGBA startColor, ColorRGBA endColor, float particlesPerSec,
+                boolean selectRandomImage, boolean worldSpace) {
+            this.type = type;
+            this.lowLife = lowLife;
+            this.highLife = highLife;
+            this.startSize = startSize;
+            this.endSize = endSize;
+            this.startColor = startColor;
+            this.endColor = endColor;
+            this.particlesPerSec = particlesPerSec;
+            this.selectRandomImage = selectRandomImage;
+            this.worldSpace = worldSpace;
+        }
+    }
+
+    private final Implementation impl;
+    private final int numEmitters;
+    private final int numFrames;
+    private final CountDownLatch done = new CountDownLatch(1);
+    private String result;
+
+    private final List<ParticleEmitter> stockEmitters = new ArrayList<>();
+    private final List<MyParticleEmitter> myEmitters = new ArrayList<>();
+    // updated and queued by hand, to time the emitters alone
+    private final Node particleRoot = new Node("Particles");
+    private final List<Node> movers = new ArrayList<>();
+    private final List<Vector3f> centers = new ArrayList<>();
+
+    private final com.sun.management.ThreadMXBean threadBean =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    private long[] updateTimes;
+    private long[] fillTimes;
+    private long liveParticles;
+    private long allocatedBytes;
+    private int frame;
+    private float time;
+
+    private Test_ParticleStress(Implementation impl, int numEmitters, int numFrames) {
+        super(new AppState[0]);
+        this.impl = impl;
+        this.numEmitters = numEmitters;
+        this.numFrames = numFrames;
+        this.updateTimes = new long[numFrames];
+        this.fillTimes = new long[numFrames];
+        setTimer(new FixedTimer());
+    }
+
+    @Override
+    public void simpleInitApp() {
+        FastMath.rand.setSeed(42);
+
+        Config[] configs = Config.values();
+        int cols = (int) Math.ceil(Math.sqrt(numEmitters));
+
+        for (int i = 0; i < numEmitters; i++) {
+            Node mover = new Node("Mover." + i);
+            centers.add(new Vector3f((i % cols) * 4f, 0, (i / cols) * 4f));
+            particleRoot.attachChild(mover);
+            movers.add(mover);
+
+            Config config = configs[i % configs.length];
+            if (impl == Implementation.ParticleEmitter) {
+                ParticleEmitter emitter = createParticleEmitter(config);
+                mover.attachChild(emitter);
+                stockEmitters.add(emitter);
+            } else {
+                MyParticleEmitter emitter = createMyParticleEmitter(config);
+                mover.attachChild(emitter);
+                myEmitters.add(emitter);
+            }
+        }
+
+        cam.setLocation(new Vector3f(cols * 2f, cols * 3f, cols * 6f));
+        cam.lookAt(new Vector3f(cols * 2f, 0, cols * 2f), Vector3f.UNIT_Y);
+        cam.setFrustumPerspective(45, (float) cam.getWidth() / cam.getHeight(), 0.1f, 1000f);
+
+    }
+
+    @Override
+    public void simpleUpdate(float tpf) {
+        if (result != null) {
+            return; // waiting for stop()
+        }
+        long bytes = threadBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+        if (frame == WARMUP_FRAMES) {
+            allocatedBytes = bytes;
+        } else if (frame == WARMUP_FRAMES + numFrames) {
+            allocatedBytes = bytes - allocatedBytes;
+            finish();
+            return;
+        }
+        if (frame >= WARMUP_FRAMES) {
+            liveParticles += countLiveParticles();
+        }
+
+        // move the emitters along a circle, like the MotionEvent of the demos
+        time += tpf;
+        for (int i = 0; i < movers.size(); i++) {
+            Node mover = movers.get(i);
+            Vector3f center = centers.get(i);
+            float angle = time + i;
+            mover.setLocalTranslation(center.x + FastMath.cos(angle), 0, center.z + FastMath.sin(angle));
+        }
+
+        long updateStart = System.nanoTime();
+        particleRoot.updateLogicalState(tpf);
+        particleRoot.updateGeometricState();
+        if (frame >= WARMUP_FRAMES) {
+            updateTimes[frame - WARMUP_FRAMES] = System.nanoTime() - updateStart;
+        }
+    }
+
+    /**
+     * The headless renderer draws nothing, so the scene is queued here to
+     * let the emitters fill their vertex buffers.
+     */
+    @Override
+    public void simpleRender(RenderManager rm) {
+        long fillStart = System.nanoTime();
+        rm.renderScene(particleRoot, viewPort);
+        viewPort.getQueue().clear();
+        if (frame >= WARMUP_FRAMES && result == null) {
+            fillTimes[frame - WARMUP_FRAMES] = System.nanoTime() - fillStart;
+        }
+        frame++;
+    }
+
+    private int countLiveParticles() {
+        int count = 0;
+        for (ParticleEmitter emitter : stockEmitters) {
+            count += emitter.getNumVisibleParticles();
+        }
+        for (MyParticleEmitter emitter : myEmitters) {
+            count += emitter.getNumVisibleParticles();
+        }
+        return count;
+    }
+
+    private void finish() {
+        Arrays.sort(updateTimes);
+        Arrays.sort(fillTimes);
+
+        result = String.format(Locale.ROOT, "%s,%d,%d,%.4f,%.4f,%.4f,%.4f,%.4f,%.4f,%d,%d",
+                impl, numEmitters, numFrames,
+                percentile(updateTimes, 0.50), percentile(updateTimes, 0.95), percentile(updateTimes, 0.99),
+                percentile(fillTimes, 0.50), percentile(fillTimes, 0.95), percentile(fillTimes, 0.99),
+                liveParticles / numFrames, allocatedBytes / numFrames);
+
+        stop();
+        done.countDown();
+    }
+
+    private static double percentile(long[] sortedNanos, double p) {
+        int index = (int) Math.ceil(p * sortedNanos.length) - 1;
+        return sortedNanos[Math.max(0, index)] / 1e6;
+    }
+
+    private ParticleEmitter createParticleEmitter(Config config) {
+        ParticleEmitter emitter = new ParticleEmitter("Emitter", config.type, 1000);
+        emitter.setMaterial(createMaterial(config.type));
+        emitter.setImagesX(15);
+        emitter.setGravity(0, 0, 0);
+        emitter.getParticleInfluencer().setVelocityVariation(1);
+        emitter.getParticleInfluencer().setInitialVelocity(new Vector3f(0, .5f, 0));
+        emitter.setShape(createShape(config));
+        emitter.setLowLife(config.lowLife);
+        emitter.setHighLife(config.highLife);
+        emitter.setStartSize(config.startSize);
+        emitter.setEndSize(config.endSize);
+        emitter.setStartColor(config.startColor);
+        emitter.setEndColor(config.endColor);
+        emitter.setSelectRandomImage(config.selectRandomImage);
+        emitter.setParticlesPerSec(config.particlesPerSec);
+        emitter.setInWorldSpace(config.worldSpace);
+        return emitter;
+    }
+
+    private MyParticleEmitter createMyParticleEmitter(Config config) {
+        MyParticleEmitter emitter = new MyParticleEmitter("Emitter", config.type, 1000);
+        emitter.setMaterial(createMaterial(config.type));
+        emitter.setImagesX(15);
+        emitter.setGravity(0, 0, 0);
+        emitter.getParticleInfluencer().setVelocityVariation(1);
+        emitter.getParticleInfluencer().setInitialVelocity(new Vector3f(0, .5f, 0));
+        emitter.setShape(createShape(config));
+        emitter.setLowLife(config.lowLife);
+        emitter.setHighLife(config.highLife);
+        emitter.setStartSize(config.startSize);
+        emitter.setEndSize(config.endSize);
+        emitter.setStartColor(config.startColor);
+        emitter.setEndColor(config.endColor);
+        emitter.setSelectRandomImage(config.selectRandomImage);
+        emitter.setParticlesPerSec(config.particlesPerSec);
+        emitter.setInWorldSpace(config.worldSpace);
+        return emitter;
+    }
+
+    private EmitterShape createShape(Config config) {
+        switch (config) {
+            case MeshFace:
+                return new EmitterMeshFaceVFX(new Sphere(32, 32, 1f));
+            case Sphere:
+                return new EmitterSphereShape(Vector3f.ZERO, 0.5f);
+            default:
+                return new EmitterMeshVertexVFX(new Torus(64, 4, 1f / 8f, 1f));
+        }
+    }
+
+    private Material createMaterial(ParticleMesh.Type type) {
+        Material mat = new Material(assetManager, "Common/MatDefs/Misc/Particle.j3md");
+        mat.setBoolean("PointSprite", type == ParticleMesh.Type.Point);
+        return mat;
+    }
+
+    /**
+     * Advances the time by a fixed step, so both implementations simulate
+     * the same frames.
+     */
+    private static class FixedTimer extends Timer {
+
+        private long ticks;
+
+        @Override
+        public long getTime() {
+            return ticks;
+        }
+
+        @Override
+        public long getResolution() {
+            return 1_000_000_000L;
+        }
+
+        @Override
+        public float getFrameRate() {
+            return 1f / TPF;
+        }
+
+        @Override
+        public float getTimePerFrame() {
+            return TPF;
+        }
+
+        @Override
+        public void update() {
+            ticks += (long) (TPF * getResolution());
+        }
+
+        @Override
+        public void reset() {
+            ticks = 0;
+        }
+    }
+
+}